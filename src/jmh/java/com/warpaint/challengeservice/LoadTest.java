@@ -0,0 +1,334 @@
+package com.warpaint.challengeservice;
+
+import com.warpaint.challengeservice.dataprovider.YahooStubServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * End-to-end load test of the service against a {@link YahooStubServer}, without any network access, e.g.
+ * <pre>
+ * mvn -P performance compile exec:exec@load-test -Dload.args="rate=500 duration=60 latency-ms=80"
+ * </pre>
+ * The application is started on a random port with an empty store directory, pointed at the stub. Requests
+ * are sent open loop at {@code rate} per second for {@code warmup} and then {@code duration} seconds, whatever
+ * the response times, and every latency is measured from the time the request was due rather than sent, so a
+ * stalled service shows up in the percentiles instead of lowering the offered load. Symbols are drawn from a
+ * pool of {@code symbols}, so the first requests of a symbol fetch from the stub and later ones hit the cache
+ * or the store. {@code endpoint} selects {@code historical}, {@code analytics}, {@code projected},
+ * {@code portfolio} or {@code mixed}.
+ * <p>
+ * With {@code concurrency} the load is closed loop instead: that many requests are kept in flight, each sent as
+ * soon as the previous one completed, and the throughput is what the service sustains at that concurrency.
+ * {@code virtual-threads=true} runs the service on virtual threads, on Java 21 or later, e.g. to compare
+ * <pre>
+ * mvn -P performance compile exec:exec@load-test -Dload.args="concurrency=5000 duration=30 latency-ms=200 virtual-threads=true"
+ * </pre>
+ * {@code replicas} starts that many instances sharing histories as peers, each with its own store, and spreads the
+ * requests over them; the downloads reported by the stub show how often a symbol was fetched per cluster.
+ */
+public final class LoadTest {
+
+    private static final int TICK_MICROS = 1000;
+
+    /** Latencies kept for the percentiles of a closed loop run, later ones are only counted */
+    private static final int MAX_CLOSED_LOOP_SAMPLES = 4_000_000;
+
+    private final Map<String, String> options;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private long[] latencies;
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.contains("=")) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            options.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadTest(options).run();
+        System.exit(0);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private void run() throws Exception {
+        int rate = Integer.parseInt(option("rate", "200"));
+        int warmupSeconds = Integer.parseInt(option("warmup", "10"));
+        int durationSeconds = Integer.parseInt(option("duration", "30"));
+        int symbols = Integer.parseInt(option("symbols", "100"));
+        String endpoint = option("endpoint", "historical");
+        int concurrency = Integer.parseInt(option("concurrency", "0"));
+        int connections = Integer.parseInt(option("connections", String.valueOf(Math.max(500, concurrency))));
+
+        int replicas = Integer.parseInt(option("replicas", "1"));
+
+        List<ConfigurableApplicationContext> applications = new ArrayList<>();
+        try (YahooStubServer stub = YahooStubServer.builder()
+                .latencyMillis(Long.parseLong(option("latency-ms", "50")))
+                .jitterMillis(Long.parseLong(option("jitter-ms", "50")))
+                .errorRate(Double.parseDouble(option("error-rate", "0")))
+                .crumbRotation(Long.parseLong(option("crumb-rotation", "1000")))
+                .build();
+             CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                     .setMaxConnTotal(connections)
+                     .setMaxConnPerRoute(connections)
+                     .build()) {
+            int[] ports = (replicas > 1) ? freePorts(replicas) : new int[] {0};
+            String peers = Arrays.stream(ports).mapToObj(port -> "http://localhost:" + port).collect(joining(","));
+            for (int port : ports) {
+                applications.add(SpringApplication.run(ChallengeApplication.class,
+                        "--server.port=" + port,
+                        "--com.warpaint.marketdata.yahoo.download-base-url=" + stub.getBaseUrl(),
+                        "--com.warpaint.marketdata.yahoo.profile-base-url=" + stub.getBaseUrl(),
+                        // Nothing to prefetch, the command line parser rejects an empty value
+                        "--com.warpaint.marketdata.watchlist= ",
+                        "--com.warpaint.marketdata.store.directory=" + Files.createTempDirectory("load-test-store"),
+                        "--com.warpaint.marketdata.peers.urls=" + (replicas > 1 ? peers : " "),
+                        "--com.warpaint.marketdata.peers.self=" + (replicas > 1 ? "http://localhost:" + port : " "),
+                        "--com.warpaint.marketdata.virtual-threads=" + option("virtual-threads", "false"),
+                        "--server.tomcat.max-connections=" + Math.max(10_000, connections),
+                        // Replicas share the JVM and would register the same MBeans
+                        "--spring.jmx.enabled=false",
+                        "--logging.level.root=WARN"));
+            }
+            client.start();
+            String[] baseUrls = applications.stream()
+                    .map(application -> "http://localhost:" + application.getEnvironment().getProperty("local.server.port") + "/market-data/")
+                    .toArray(String[]::new);
+
+            long elapsed;
+            if (concurrency > 0) {
+                System.out.printf(Locale.ROOT, "Keeping %d requests to %s in flight for %ds after a %ds warm-up, %d symbols, %s threads%n",
+                        concurrency, endpoint, durationSeconds, warmupSeconds, symbols,
+                        Boolean.parseBoolean(option("virtual-threads", "false")) ? "virtual" : "platform");
+                driveClosedLoop(client, baseUrls, endpoint, symbols, concurrency, warmupSeconds, false);
+                latencies = new long[MAX_CLOSED_LOOP_SAMPLES];
+                long start = System.nanoTime();
+                driveClosedLoop(client, baseUrls, endpoint, symbols, concurrency, durationSeconds, true);
+                elapsed = System.nanoTime() - start;
+            } else {
+                System.out.printf(Locale.ROOT, "Offering %d requests/s to %s for %ds after a %ds warm-up, %d symbols%n",
+                        rate, endpoint, durationSeconds, warmupSeconds, symbols);
+                drive(client, baseUrls, endpoint, symbols, rate, warmupSeconds, false);
+                latencies = new long[rate * durationSeconds];
+                long start = System.nanoTime();
+                drive(client, baseUrls, endpoint, symbols, rate, durationSeconds, true);
+                elapsed = System.nanoTime() - start;
+            }
+            report(elapsed, stub);
+        }
+        finally {
+            applications.forEach(ConfigurableApplicationContext::close);
+        }
+    }
+
+    /**
+     * Ports free right now, for replicas that must know each other's address before they start
+     */
+    private static int[] freePorts(int count) throws IOException {
+        int[] ports = new int[count];
+        ServerSocket[] sockets = new ServerSocket[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                sockets[i] = new ServerSocket(0);
+                ports[i] = sockets[i].getLocalPort();
+            }
+        }
+        finally {
+            for (ServerSocket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * Send {@code rate * seconds} requests, each at its due time, and wait for all responses
+     */
+    private void drive(CloseableHttpAsyncClient client, String[] baseUrls, String endpoint, int symbols, int rate,
+                       int seconds, boolean record) throws InterruptedException {
+        long total = (long) rate * seconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        AtomicLong sent = new AtomicLong();
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        ticker.scheduleAtFixedRate(() -> {
+            long due = Math.min(total, (System.nanoTime() - start) / intervalNanos + 1);
+            for (long i = sent.get(); i < due; i = sent.incrementAndGet()) {
+                long dueNanos = start + i * intervalNanos;
+                send(client, request(baseUrls, endpoint, symbols), dueNanos, record, () -> { });
+            }
+        }, 0, TICK_MICROS, TimeUnit.MICROSECONDS);
+
+        while (sent.get() < total) {
+            Thread.sleep(10);
+        }
+        ticker.shutdownNow();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Keep {@code concurrency} requests in flight for the given time and wait for the last responses.
+     * Latencies are measured from sending, there is no due time in a closed loop.
+     */
+    private void driveClosedLoop(CloseableHttpAsyncClient client, String[] baseUrls, String endpoint, int symbols,
+                                 int concurrency, int seconds, boolean record) throws InterruptedException {
+        long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int i = 0; i < concurrency; i++) {
+            sendUntil(client, baseUrls, endpoint, symbols, endNanos, record);
+        }
+        long deadline = endNanos + TimeUnit.SECONDS.toNanos(60);
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void sendUntil(CloseableHttpAsyncClient client, String[] baseUrls, String endpoint, int symbols,
+                           long endNanos, boolean record) {
+        if (System.nanoTime() - endNanos < 0) {
+            send(client, request(baseUrls, endpoint, symbols), System.nanoTime(), record,
+                    () -> sendUntil(client, baseUrls, endpoint, symbols, endNanos, record));
+        }
+    }
+
+    // Synchronized as closed loop requests are created on the I/O threads of the client
+    private synchronized HttpUriRequest request(String[] baseUrls, String endpoint, int symbols) {
+        String kind = endpoint.equals("mixed")
+                ? new String[] {"historical", "historical", "historical", "analytics", "projected"}[random.nextInt(5)]
+                : endpoint;
+        String symbol = symbol(symbols);
+        String baseUrl = baseUrls[random.nextInt(baseUrls.length)];
+        switch (kind) {
+            case "historical":
+                LocalDate to = LocalDate.now();
+                return new HttpGet(baseUrl + symbol + "/historical?from=" + to.minusYears(1 + random.nextInt(30)));
+            case "analytics":
+                return new HttpGet(baseUrl + symbol + "/analytics?windows=20,50,200");
+            case "projected":
+                return new HttpGet(baseUrl + symbol + "/projected?paths=2000&seed=" + random.nextInt(10));
+            case "portfolio":
+                StringBuilder weights = new StringBuilder("{\"weights\":{");
+                for (int i = 0; i < 10; i++) {
+                    weights.append(i > 0 ? "," : "").append('"').append(symbol(symbols)).append("\":10");
+                }
+                HttpPost post = new HttpPost(baseUrl + "portfolio/projected?paths=500");
+                post.setEntity(new StringEntity(weights.append("}}").toString(), ContentType.APPLICATION_JSON));
+                return post;
+            default:
+                throw new IllegalArgumentException("Unknown endpoint " + endpoint);
+        }
+    }
+
+    private String symbol(int symbols) {
+        return "SYM" + random.nextInt(symbols);
+    }
+
+    private void send(CloseableHttpAsyncClient client, HttpUriRequest request, long dueNanos, boolean record,
+                      Runnable next) {
+        outstanding.incrementAndGet();
+        client.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                int status = response.getStatusLine().getStatusCode();
+                done(status < 400 ? succeeded : status < 500 ? clientErrors : serverErrors);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                done(LoadTest.this.failed);
+            }
+
+            @Override
+            public void cancelled() {
+                done(LoadTest.this.failed);
+            }
+
+            private void done(LongAdder outcome) {
+                long latency = System.nanoTime() - dueNanos;
+                if (record) {
+                    outcome.increment();
+                    int index = recorded.getAndIncrement();
+                    if (index < latencies.length) {
+                        latencies[index] = latency;
+                    }
+                }
+                // The next request of a closed loop is counted first, so the driver never sees none outstanding in between
+                next.run();
+                outstanding.decrementAndGet();
+            }
+        });
+    }
+
+    private void report(long elapsedNanos, YahooStubServer stub) throws IOException {
+        int count = recorded.get();
+        long[] sorted = Arrays.copyOf(latencies, Math.min(count, latencies.length));
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "%nCompleted %d requests in %.1fs: %.1f requests/s%n", count, seconds, count / seconds);
+        System.out.printf(Locale.ROOT, "  succeeded %d, 4xx %d, 5xx %d, failed %d%n",
+                succeeded.sum(), clientErrors.sum(), serverErrors.sum(), failed.sum());
+        System.out.printf(Locale.ROOT, "Latency from the due time (ms): p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                percentile(sorted, 100));
+        System.out.printf(Locale.ROOT, "Yahoo stub: %d downloads (%d unauthorized, %d errors), %d profile pages%n",
+                stub.getDownloads(), stub.getUnauthorized(), stub.getErrors(), stub.getProfiles());
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+}
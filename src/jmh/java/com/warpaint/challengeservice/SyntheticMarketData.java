@@ -0,0 +1,102 @@
+package com.warpaint.challengeservice;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic synthetic market data shaped like the Yahoo Finance downloads: one bar per weekday,
+ * prices following a random walk with six decimal places, and a quarterly dividend.
+ */
+public final class SyntheticMarketData {
+
+    public static final LocalDate END = LocalDate.parse("2018-06-29");
+
+    private static final long SEED = 42;
+
+    private SyntheticMarketData() {
+    }
+
+    /**
+     * Price download covering the given number of years up to {@link #END}
+     */
+    public static byte[] priceCsv(int years) {
+        StringBuilder csv = new StringBuilder("Date,Open,High,Low,Close,Adj Close,Volume\n");
+        SplittableRandom random = new SplittableRandom(SEED);
+        double close = 40;
+        for (LocalDate date = END.minusYears(years); !date.isAfter(END); date = date.plusDays(1)) {
+            if (isWeekend(date)) {
+                continue;
+            }
+            double open = close * (1 + (random.nextDouble() - 0.5) * 0.01);
+            close = open * (1 + (random.nextDouble() - 0.49) * 0.03);
+            double high = Math.max(open, close) * (1 + random.nextDouble() * 0.01);
+            double low = Math.min(open, close) * (1 - random.nextDouble() * 0.01);
+            csv.append(date).append(',')
+                    .append(format(open)).append(',')
+                    .append(format(high)).append(',')
+                    .append(format(low)).append(',')
+                    .append(format(close)).append(',')
+                    .append(format(close * 0.97)).append(',')
+                    .append(random.nextInt(100_000, 10_000_000)).append('\n');
+        }
+        return csv.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Dividend download covering the given number of years up to {@link #END}
+     */
+    public static byte[] dividendCsv(int years) {
+        StringBuilder csv = new StringBuilder("Date,Dividends\n");
+        for (LocalDate date = END.minusYears(years).withDayOfMonth(15); !date.isAfter(END); date = date.plusMonths(3)) {
+            csv.append(date).append(",0.240000\n");
+        }
+        return csv.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Daily history covering the given number of years up to {@link #END}
+     */
+    public static PriceSeries history(int years) {
+        return history(years, SEED);
+    }
+
+    /**
+     * Daily history covering the given number of years up to {@link #END}, different for every seed
+     */
+    public static PriceSeries history(int years, long seed) {
+        return history(END.minusYears(years), END, seed);
+    }
+
+    /**
+     * Daily history between the two dates, both inclusive. The bars of a day only depend on the seed and the
+     * start date, so histories sharing both agree on every common day.
+     */
+    public static PriceSeries history(LocalDate from, LocalDate to, long seed) {
+        PriceSeries.Builder builder = PriceSeries.builder();
+        SplittableRandom random = new SplittableRandom(seed);
+        long close = 40_000_000L;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            if (isWeekend(date)) {
+                continue;
+            }
+            long open = close + random.nextLong(-200_000L, 200_000L);
+            close = Math.max(1_000_000L, open + random.nextLong(-600_000L, 620_000L));
+            builder.add((int) date.toEpochDay(), open, Math.max(open, close) + 100_000L, Math.min(open, close) - 100_000L,
+                    close, date.getDayOfMonth() == 15 && date.getMonthValue() % 3 == 0 ? 240_000L : PriceSeries.NONE);
+        }
+        return builder.build();
+    }
+
+    private static boolean isWeekend(LocalDate date) {
+        return date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY;
+    }
+
+    private static String format(double price) {
+        return String.format(Locale.ROOT, "%.6f", price);
+    }
+}
@@ -0,0 +1,56 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crumb extraction from a profile page of realistic size, with the crumb near the top or at the very end
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrumbExtractionBenchmark {
+
+    private static final int PAGE_LINES = 4_000;
+
+    /** Line of the page holding the crumb, as a fraction of the page */
+    @Param({"0.1", "1.0"})
+    private double crumbPosition;
+
+    private byte[] page;
+
+    @Setup
+    public void setUp() {
+        StringBuilder html = new StringBuilder();
+        int crumbLine = (int) (crumbPosition * (PAGE_LINES - 1));
+        for (int line = 0; line < PAGE_LINES; line++) {
+            if (line == crumbLine) {
+                html.append("root.App.main = {\"context\":{\"dispatcher\":{\"stores\":{\"CrumbStore\":{\"crumb\":\"5h8F6Ab9\\u002FPIU\"}}}}};\n");
+            } else {
+                html.append("<div class=\"Mb(10px)\" data-reactid=\"").append(line).append("\"><span>Lorem ipsum dolor sit amet</span></div>\n");
+            }
+        }
+        page = html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String extractCrumb() {
+        return YahooFinanceSession.extractCrumbFromStream(new ByteArrayInputStream(page));
+    }
+}
@@ -0,0 +1,55 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import com.warpaint.challengeservice.SyntheticMarketData;
+import com.warpaint.challengeservice.model.PriceSeries;
+import org.apache.http.entity.ByteArrayEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of Yahoo Finance CSV downloads into a {@link PriceSeries}, as done by {@link YahooFinanceClient}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YahooCsvBenchmark {
+
+    @Param({"1", "10", "50"})
+    private int years;
+
+    private ByteArrayEntity prices;
+    private ByteArrayEntity dividends;
+    private LocalDate from;
+
+    @Setup
+    public void setUp() {
+        prices = new ByteArrayEntity(SyntheticMarketData.priceCsv(years));
+        dividends = new ByteArrayEntity(SyntheticMarketData.dividendCsv(years));
+        from = SyntheticMarketData.END.minusYears(years);
+    }
+
+    @Benchmark
+    public PriceSeries parsePrices() {
+        return YahooFinanceClient.parsePrices(prices, "BENCH", from, SyntheticMarketData.END);
+    }
+
+    @Benchmark
+    public PriceSeries parseDividends() {
+        return YahooFinanceClient.parseDividends(dividends, "BENCH", from, SyntheticMarketData.END);
+    }
+}
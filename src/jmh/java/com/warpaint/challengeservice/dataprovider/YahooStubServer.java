@@ -0,0 +1,304 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.warpaint.challengeservice.SyntheticMarketData;
+import com.warpaint.challengeservice.model.PriceSeries;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for Yahoo Finance, so that the whole service can be measured without a network.
+ * <p>
+ * Like Yahoo it serves a profile page at {@code /quote/{symbol}/profile} setting a cookie and embedding the
+ * crumb, and the price and dividend CSV downloads at {@code /v7/finance/download/{symbol}}, which answer 401
+ * unless they carry the current crumb. Every symbol gets its own synthetic daily history since
+ * {@link #FIRST_DAY}, formatted once and sliced per request. Optionally the crumb is rotated every
+ * {@code crumbRotation} downloads, every response is delayed by {@code latencyMillis} plus up to
+ * {@code jitterMillis}, and a share {@code errorRate} of the downloads fails with 503. Symbols starting with
+ * {@value #UNKNOWN_PREFIX} are answered with 404.
+ */
+@Slf4j
+public final class YahooStubServer implements AutoCloseable {
+
+    public static final LocalDate FIRST_DAY = LocalDate.parse("1990-01-01");
+
+    public static final String UNKNOWN_PREFIX = "UNKNOWN";
+
+    private static final byte[] PRICE_HEADER = "Date,Open,High,Low,Close,Adj Close,Volume\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DIVIDEND_HEADER = "Date,Dividends\n".getBytes(StandardCharsets.US_ASCII);
+
+    /** Markup preceding the crumb, Yahoo's profile page is several hundred kilobytes */
+    private static final String PAGE_PREFIX = filler(64 * 1024);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final long crumbRotation;
+
+    private final LocalDate lastDay = LocalDate.now(ZoneOffset.UTC);
+
+    private final AtomicReference<String> crumb = new AtomicReference<>(newCrumb());
+    private final AtomicLong downloadsSinceRotation = new AtomicLong();
+
+    private final ConcurrentMap<String, Csv[]> histories = new ConcurrentHashMap<>();
+
+    private final LongAdder profiles = new LongAdder();
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder unauthorized = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    @Builder
+    private YahooStubServer(long latencyMillis, long jitterMillis, double errorRate, long crumbRotation) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.crumbRotation = crumbRotation;
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/quote/", logged(this::profile));
+        server.createContext("/v7/finance/download/", logged(this::download));
+        server.start();
+        log.info("Yahoo stub listening on {}", getBaseUrl());
+    }
+
+    /**
+     * Scheme, host and port to configure as both the download and the profile base URL
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long getProfiles() {
+        return profiles.sum();
+    }
+
+    public long getDownloads() {
+        return downloads.sum();
+    }
+
+    public long getUnauthorized() {
+        return unauthorized.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * The server drops the connection of a failing handler without a word, log why
+     */
+    private static HttpHandler logged(HttpHandler handler) {
+        return exchange -> {
+            try {
+                handler.handle(exchange);
+            }
+            catch (IOException | RuntimeException e) {
+                log.warn("Failed to answer {}", exchange.getRequestURI(), e);
+                throw e;
+            }
+        };
+    }
+
+    private void profile(HttpExchange exchange) throws IOException {
+        profiles.increment();
+        delay();
+        String page = PAGE_PREFIX
+                + "<script>root.App.main = {\"context\":{\"dispatcher\":{\"stores\":{\"CrumbStore\":{\"crumb\":\""
+                + crumb.get().replace("/", "\\u002F") + "\"}}}}};</script>\n</body></html>\n";
+        exchange.getResponseHeaders().add("Set-Cookie", "B=" + UUID.randomUUID() + "; path=/");
+        respond(exchange, 200, page.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void download(HttpExchange exchange) throws IOException {
+        downloads.increment();
+        delay();
+        String symbol = exchange.getRequestURI().getPath().substring("/v7/finance/download/".length());
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        String current = crumb.get();
+        if (!current.equals(query.get("crumb"))) {
+            unauthorized.increment();
+            respond(exchange, 401, "Invalid cookie".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (crumbRotation > 0 && downloadsSinceRotation.incrementAndGet() % crumbRotation == 0) {
+            crumb.compareAndSet(current, newCrumb());
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.increment();
+            respond(exchange, 503, "Service unavailable".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (symbol.startsWith(UNKNOWN_PREFIX)) {
+            respond(exchange, 404, "No data found".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+
+        long fromDay = Math.floorDiv(Long.parseLong(query.get("period1")), 86_400L);
+        // period2 is exclusive
+        long toDay = Math.floorDiv(Long.parseLong(query.get("period2")) - 1, 86_400L);
+        Csv[] csv = histories.computeIfAbsent(symbol, this::history);
+        Csv rows = "div".equals(query.get("events")) ? csv[1] : csv[0];
+
+        int from = rows.indexOnOrAfter(fromDay);
+        int to = rows.indexOnOrAfter(toDay + 1);
+        byte[] header = rows.header;
+        int length = rows.offsets[to] - rows.offsets[from];
+        exchange.sendResponseHeaders(200, header.length + length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(header);
+            // A fixed length stream refuses even an empty write once the length is reached
+            if (length > 0) {
+                stream.write(rows.bytes, rows.offsets[from], length);
+            }
+        }
+    }
+
+    /**
+     * Price and dividend rows of a symbol, the same on every call
+     */
+    private Csv[] history(String symbol) {
+        PriceSeries history = SyntheticMarketData.history(FIRST_DAY, lastDay, symbol.hashCode());
+        SplittableRandom volumes = new SplittableRandom(symbol.hashCode());
+        Csv prices = new Csv(PRICE_HEADER, history.size());
+        Csv dividends = new Csv(DIVIDEND_HEADER, history.size() / 60 + 1);
+        for (int i = 0; i < history.size(); i++) {
+            String date = history.tradeDate(i).toString();
+            prices.add(history.epochDay(i), date + ',' + decimal(history.open(i)) + ',' + decimal(history.high(i))
+                    + ',' + decimal(history.low(i)) + ',' + decimal(history.close(i)) + ',' + decimal(history.close(i))
+                    + ',' + volumes.nextInt(100_000, 10_000_000) + '\n');
+            if (history.dividend(i) != PriceSeries.NONE) {
+                dividends.add(history.epochDay(i), date + ',' + decimal(history.dividend(i)) + '\n');
+            }
+        }
+        return new Csv[] {prices.build(), dividends.build()};
+    }
+
+    private void delay() {
+        long millis = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(parameter.substring(0, separator),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8.name()));
+            }
+        }
+        return parameters;
+    }
+
+    private static String decimal(long value) {
+        return PriceSeries.toDecimal(value).toPlainString();
+    }
+
+    private static String newCrumb() {
+        return UUID.randomUUID().toString().substring(0, 8) + "/x";
+    }
+
+    private static String filler(int length) {
+        StringBuilder page = new StringBuilder(length + 64).append("<html><head><title>Profile</title></head><body>\n");
+        while (page.length() < length) {
+            page.append("<div class=\"filler\">Lorem ipsum dolor sit amet, consectetur adipiscing elit.</div>\n");
+        }
+        return page.toString();
+    }
+
+    /**
+     * CSV rows formatted up front, with the offset of every row so that a date range is a single slice
+     */
+    private static final class Csv {
+        private final byte[] header;
+        private int[] epochDays;
+        private int[] offsets;
+        private int size;
+        private ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        private byte[] bytes;
+
+        Csv(byte[] header, int expectedRows) {
+            this.header = header;
+            this.epochDays = new int[expectedRows];
+            this.offsets = new int[expectedRows + 1];
+        }
+
+        void add(int epochDay, String row) {
+            if (size == epochDays.length) {
+                int capacity = Math.max(16, size * 2);
+                epochDays = Arrays.copyOf(epochDays, capacity);
+                offsets = Arrays.copyOf(offsets, capacity + 1);
+            }
+            byte[] line = row.getBytes(StandardCharsets.US_ASCII);
+            epochDays[size++] = epochDay;
+            rows.write(line, 0, line.length);
+            offsets[size] = rows.size();
+        }
+
+        Csv build() {
+            epochDays = Arrays.copyOf(epochDays, size);
+            offsets = Arrays.copyOf(offsets, size + 1);
+            bytes = rows.toByteArray();
+            rows = null;
+            return this;
+        }
+
+        int indexOnOrAfter(long epochDay) {
+            int index = Arrays.binarySearch(epochDays, (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, epochDay)));
+            return (index >= 0) ? index : -index - 1;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.warpaint.challengeservice.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.warpaint.challengeservice.SyntheticMarketData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of a history as served by the historical endpoint, into a discarding stream
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingSerializationBenchmark {
+
+    @Param({"1", "10", "50"})
+    private int years;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final CountingOutputStream sink = new CountingOutputStream();
+    private PriceSeries history;
+
+    @Setup
+    public void setUp() {
+        history = SyntheticMarketData.history(years);
+    }
+
+    @Benchmark
+    public long serializePricingList() throws IOException {
+        sink.count = 0;
+        objectMapper.writeValue(sink, history.toPricingList());
+        return sink.count;
+    }
+
+    @Benchmark
+    public long encodeBinary() throws IOException {
+        sink.count = 0;
+        PriceSeriesCodec.encode(history, sink);
+        return sink.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            // Kept open across invocations
+        }
+    }
+}
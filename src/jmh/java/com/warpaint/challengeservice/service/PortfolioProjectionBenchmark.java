@@ -0,0 +1,79 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.SyntheticMarketData;
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calibration and correlated Monte Carlo simulation behind {@link ChallengeService#getProjectedPortfolioDataAsync},
+ * without the fetches, over 10 years of history
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PortfolioProjectionBenchmark {
+
+    @Param({"10", "100", "500"})
+    private int assets;
+
+    @Param({"2000"})
+    private int paths;
+
+    private final PortfolioEngine engine = new PortfolioEngine();
+    private List<PriceSeries> histories;
+    private double[] weights;
+    private PortfolioCalibration calibration;
+    private ProjectionParameters parameters;
+
+    @Setup
+    public void setUp() {
+        histories = new ArrayList<>(assets);
+        for (int asset = 0; asset < assets; asset++) {
+            histories.add(SyntheticMarketData.history(10, asset));
+        }
+        weights = new double[assets];
+        Arrays.fill(weights, 1);
+        calibration = PortfolioCalibration.of(histories);
+        parameters = ProjectionParameters.builder()
+                .paths(paths)
+                .horizonYears(10)
+                .lowerPercentile(5)
+                .upperPercentile(95)
+                .seed(1)
+                .build();
+    }
+
+    @Benchmark
+    public PortfolioCalibration calibrate() {
+        return PortfolioCalibration.of(histories);
+    }
+
+    @Benchmark
+    public double[][] cholesky() {
+        return PortfolioEngine.cholesky(calibration.getCovariance());
+    }
+
+    @Benchmark
+    public PriceSeries simulate() {
+        return engine.simulate(calibration, weights, parameters);
+    }
+}
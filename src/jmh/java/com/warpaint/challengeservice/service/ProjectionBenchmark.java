@@ -0,0 +1,57 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.SyntheticMarketData;
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calibration and Monte Carlo simulation behind {@link ChallengeService#getProjectedAssetData}, without the fetch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    @Param({"1", "10", "50"})
+    private int years;
+
+    @Param({"10000", "100000"})
+    private int paths;
+
+    private final ProjectionEngine engine = new ProjectionEngine();
+    private PriceSeries history;
+    private ProjectionParameters parameters;
+
+    @Setup
+    public void setUp() {
+        history = SyntheticMarketData.history(years);
+        parameters = ProjectionParameters.builder()
+                .paths(paths)
+                .horizonYears(10)
+                .lowerPercentile(5)
+                .upperPercentile(95)
+                .seed(1)
+                .build();
+    }
+
+    @Benchmark
+    public PriceSeries project() {
+        return engine.project(history, parameters);
+    }
+}
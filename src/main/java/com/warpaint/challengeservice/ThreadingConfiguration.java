@@ -0,0 +1,93 @@
+package com.warpaint.challengeservice;
+
+import com.warpaint.challengeservice.dataprovider.HttpHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads running requests and upstream fetches.
+ * <p>
+ * By default upstream fetches run on a pool as large as the connection pool allows for a single host, and
+ * requests on Tomcat's own pool. With {@code virtual-threads} enabled on Java 21 or later, fetches, request
+ * processing and streamed response bodies each get a new virtual thread instead, so callers blocked on Yahoo,
+ * the store or a slow client hold no platform thread. Upstream concurrency is still bounded by the limiter
+ * and the connection pool of {@link HttpHandler}. On older JDKs the setting is ignored with a warning.
+ */
+@Slf4j
+@Configuration
+public class ThreadingConfiguration extends WebMvcConfigurerAdapter {
+
+    private final boolean virtualThreads;
+
+    private ExecutorService fetchExecutor;
+
+    public ThreadingConfiguration(@Value("${com.warpaint.marketdata.virtual-threads:false}") boolean virtualThreads) {
+        if (virtualThreads && !VirtualThreads.isAvailable()) {
+            log.warn("Virtual threads are not available on Java {}, running on platform threads",
+                    System.getProperty("java.version"));
+        }
+        this.virtualThreads = virtualThreads && VirtualThreads.isAvailable();
+    }
+
+    /**
+     * Executor of concurrent upstream fetches, as large as the connection pool allows for a single host
+     */
+    @Bean(destroyMethod = "")
+    public ExecutorService fetchExecutor() {
+        fetchExecutor = virtualThreads
+                ? VirtualThreads.newThreadPerTaskExecutor("market-data-fetch-")
+                : Executors.newFixedThreadPool(HttpHandler.MAX_CONNECTIONS_PER_ROUTE, new CustomizableThreadFactory("market-data-fetch-"));
+        return fetchExecutor;
+    }
+
+    /**
+     * Shut down here rather than by a destroy method, the class of the virtual thread executor is not public
+     * and Spring cannot invoke its methods reflectively
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdown();
+        }
+    }
+
+    @Bean
+    public EmbeddedServletContainerCustomizer virtualThreadConnectors() {
+        return container -> {
+            if (virtualThreads && container instanceof TomcatEmbeddedServletContainerFactory) {
+                ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+                    ProtocolHandler protocol = connector.getProtocolHandler();
+                    if (protocol instanceof AbstractProtocol) {
+                        // Unbounded, maxThreads no longer applies; maxConnections still limits the open connections.
+                        // Never shut down, the virtual threads of requests still running at exit do not keep it alive
+                        ((AbstractProtocol<?>) protocol).setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-vt-"));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Streamed bodies write from their own thread, a new platform thread per response unless virtual
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        if (virtualThreads) {
+            configurer.setTaskExecutor(new TaskExecutorAdapter(VirtualThreads.newThreadPerTaskExecutor("mvc-async-vt-")));
+        }
+    }
+}
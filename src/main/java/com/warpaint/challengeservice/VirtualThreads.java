@@ -0,0 +1,71 @@
+package com.warpaint.challengeservice;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads of the running JDK, looked up reflectively since the service is built for Java 8.
+ * Available from Java 21 on, or 19 and 20 with {@code --enable-preview}.
+ */
+final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private VirtualThreads() {
+    }
+
+    static boolean isAvailable() {
+        if (OF_VIRTUAL == null || NEW_THREAD_PER_TASK_EXECUTOR == null) {
+            return false;
+        }
+        try {
+            OF_VIRTUAL.invoke(null);
+            return true;
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            // Preview API of Java 19 or 20 without --enable-preview
+            return false;
+        }
+    }
+
+    /**
+     * Factory of virtual threads named by the prefix and a counter, e.g. {@code market-data-fetch-1}
+     * @throws IllegalStateException unless {@link #isAvailable() available}
+     */
+    static ThreadFactory threadFactory(String prefix) {
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Virtual threads are not available on Java " + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * Executor starting a new virtual thread for every task
+     * @throws IllegalStateException unless {@link #isAvailable() available}
+     */
+    static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory(prefix));
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Virtual threads are not available on Java " + System.getProperty("java.version"), e);
+        }
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.warpaint.challengeservice.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of keys to nodes. Every node is placed on a ring of 64 bit hashes at {@code pointsPerNode}
+ * points, and a key belongs to the node of the first point at or after the hash of the key. Adding or removing a
+ * node therefore only moves the keys of its own arcs, about {@code 1 / nodes} of them.
+ * <p>
+ * The hash only depends on the characters of the names, so every replica configured with the same nodes, in
+ * whatever order, agrees on the owner of every key.
+ */
+final class HashRing {
+
+    private final long[] points;
+    private final String[] owners;
+
+    HashRing(Collection<String> nodes, int pointsPerNode) {
+        if (nodes.isEmpty() || pointsPerNode < 1) {
+            throw new IllegalArgumentException("A ring needs nodes and points: " + nodes + ", " + pointsPerNode);
+        }
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < pointsPerNode; i++) {
+                // A collision goes to the smaller name, independently of the configured order
+                ring.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        points = new long[ring.size()];
+        owners = new String[ring.size()];
+        int index = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[index] = point.getKey();
+            owners[index++] = point.getValue();
+        }
+    }
+
+    String ownerOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index < points.length ? index : 0];
+    }
+
+    /**
+     * 64 bit FNV-1a of the UTF-8 bytes, followed by the MurmurHash3 finalizer to spread similar names
+     * such as {@code node#1} and {@code node#2} over the whole ring
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,175 @@
+package com.warpaint.challengeservice.cluster;
+
+import com.warpaint.challengeservice.dataprovider.HttpHandler;
+import com.warpaint.challengeservice.dataprovider.UpstreamResponseException;
+import com.warpaint.challengeservice.dataprovider.UpstreamUnavailableException;
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.PriceSeriesCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Histories of symbols owned by other replicas of the service, so that each symbol is fetched from Yahoo by a
+ * single replica of the cluster.
+ * <p>
+ * The replicas are the static list of {@code peers.urls}, each replica also being told its own URL in
+ * {@code peers.self}, exactly as listed. Symbols are assigned to replicas by a {@link HashRing}, so replicas
+ * agree on the owner without talking to each other, and a replica joining or leaving moves few symbols.
+ * Without peers every symbol is owned locally.
+ * <p>
+ * Owners are asked on their internal endpoint {@code /market-data/peer/{symbol}/historical}, which serves the
+ * binary format of {@link PriceSeriesCodec} from the owner's own cache, store or Yahoo and never forwards.
+ */
+@Slf4j
+@Component
+public class PeerClient {
+
+    /** Histories asked from their owner, tagged by result: hit if served, error if the owner gave no answer */
+    static final String PEER_REQUESTS = "peer.requests";
+
+    private static final int POINTS_PER_PEER = 128;
+
+    private static final String PEER_PATH = "/market-data/peer/";
+
+    private final String self;
+
+    /** Null without peers */
+    private final HashRing ring;
+
+    /** Null without peers */
+    private final CloseableHttpAsyncClient client;
+
+    private final Counter hits;
+    private final Counter errors;
+
+    @Autowired
+    public PeerClient(@Value("${com.warpaint.marketdata.peers.self:}") String self,
+                      @Value("${com.warpaint.marketdata.peers.urls:}") String[] urls,
+                      @Value("${com.warpaint.marketdata.peers.timeout-ms:2000}") int timeoutMillis,
+                      MeterRegistry meterRegistry) {
+        List<String> peers = Arrays.stream(urls)
+                .map(PeerClient::normalize)
+                .filter(url -> !url.isEmpty())
+                .distinct()
+                .collect(toList());
+        this.self = normalize(self);
+        this.hits = meterRegistry.counter(PEER_REQUESTS, "result", "hit");
+        this.errors = meterRegistry.counter(PEER_REQUESTS, "result", "error");
+        if (peers.isEmpty()) {
+            this.ring = null;
+            this.client = null;
+            return;
+        }
+        if (!peers.contains(this.self)) {
+            throw new IllegalArgumentException("peers.self must be one of the peers.urls " + peers + ": " + self);
+        }
+        this.ring = new HashRing(peers, POINTS_PER_PEER);
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(timeoutMillis)
+                .setConnectionRequestTimeout(timeoutMillis)
+                .setSocketTimeout(timeoutMillis).build();
+        this.client = HttpAsyncClients.custom()
+                .setMaxConnPerRoute(HttpHandler.MAX_CONNECTIONS_PER_ROUTE)
+                .setMaxConnTotal(HttpHandler.MAX_CONNECTIONS_PER_ROUTE * peers.size())
+                .setDefaultRequestConfig(config).build();
+        this.client.start();
+        log.info("Sharing histories with peers {} as {}", peers, this.self);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * URL of the replica owning the symbol, {@code null} if it is this replica or there are no peers
+     */
+    public String ownerOf(String symbol) {
+        if (ring == null) {
+            return null;
+        }
+        String owner = ring.ownerOf(symbol);
+        return owner.equals(self) ? null : owner;
+    }
+
+    /**
+     * Daily history between the two dates, both inclusive, as served by the owner. Fails with
+     * {@link UpstreamUnavailableException}, {@link UpstreamResponseException} or {@link IllegalArgumentException}
+     * if the owner answered so, and with {@link PeerUnavailableException} if it did not give an answer.
+     */
+    public CompletableFuture<PriceSeries> fetch(String owner, String symbol, LocalDate from, LocalDate to) {
+        HttpGet request = new HttpGet(owner + PEER_PATH + HttpHandler.urlEncodeString(symbol)
+                + "/historical?from=" + from + "&to=" + to);
+        request.setHeader(HttpHeaders.ACCEPT, PriceSeriesCodec.MEDIA_TYPE);
+        CompletableFuture<PriceSeries> result = new CompletableFuture<>();
+        client.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    int status = response.getStatusLine().getStatusCode();
+                    if (status == 200) {
+                        PriceSeries series = PriceSeriesCodec.decode(response.getEntity().getContent());
+                        hits.increment();
+                        result.complete(series);
+                    } else if (status == 503) {
+                        result.completeExceptionally(new UpstreamUnavailableException(owner + ": " + body(response)));
+                    } else if (status == 502) {
+                        result.completeExceptionally(new UpstreamResponseException(owner + ": " + body(response)));
+                    } else if (status == 400) {
+                        result.completeExceptionally(new IllegalArgumentException(body(response)));
+                    } else {
+                        failed(new IOException("Status " + status + ": " + body(response)));
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    failed(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                errors.increment();
+                result.completeExceptionally(new PeerUnavailableException(
+                        "Failed to fetch " + symbol + " from " + owner + ": " + e.getMessage(), e));
+            }
+
+            @Override
+            public void cancelled() {
+                failed(new IOException("Cancelled"));
+            }
+        });
+        return result;
+    }
+
+    private static String body(HttpResponse response) throws IOException {
+        return (response.getEntity() != null) ? EntityUtils.toString(response.getEntity()) : "";
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
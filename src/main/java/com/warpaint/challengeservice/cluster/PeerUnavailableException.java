@@ -0,0 +1,16 @@
+package com.warpaint.challengeservice.cluster;
+
+/**
+ * The replica owning a symbol could not be asked or did not give a usable answer. Unlike an answer of the owner,
+ * such as Yahoo being unavailable there too, this lets the caller fetch the symbol by itself.
+ */
+public class PeerUnavailableException extends RuntimeException {
+
+    public PeerUnavailableException(String message) {
+        super(message);
+    }
+
+    public PeerUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
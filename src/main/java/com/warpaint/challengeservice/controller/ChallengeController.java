@@ -1,27 +1,318 @@
 package com.warpaint.challengeservice.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.warpaint.challengeservice.dataprovider.UpstreamResponseException;
+import com.warpaint.challengeservice.dataprovider.UpstreamUnavailableException;
 import com.warpaint.challengeservice.model.Asset;
+import com.warpaint.challengeservice.model.AssetAnalytics;
+import com.warpaint.challengeservice.model.AssetHistory;
+import com.warpaint.challengeservice.model.HistoricalDataRequest;
+import com.warpaint.challengeservice.model.Interval;
+import com.warpaint.challengeservice.model.PortfolioProjectionRequest;
+import com.warpaint.challengeservice.model.PriceSeries;
 import com.warpaint.challengeservice.model.Pricing;
+import com.warpaint.challengeservice.model.ProjectionParameters;
 import com.warpaint.challengeservice.service.ChallengeService;
 import lombok.AllArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.stream.Collectors.toList;
 
 @RestController
 @AllArgsConstructor
 @RequestMapping("market-data")
 public class ChallengeController {
 
+    private static final String GZIP = "gzip";
+
     private final ChallengeService challengeService;
 
+    private final ObjectMapper objectMapper;
+
+    private final CompressedBodyCache compressedBodies;
+
+    /**
+     * History as a JSON array. Clients accepting gzip get a body compressed once per version of the data and
+     * then served from the {@link CompressedBodyCache}.
+     */
     @RequestMapping("{asset}/historical")
-    public List<Pricing> getHistoricalAssetData(@PathVariable Asset asset) {
-        return challengeService.getHistoricalAssetData(asset);
+    public CompletableFuture<ResponseEntity<?>> getHistoricalAssetData(@PathVariable Asset asset,
+                                                                      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+                                                                      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+                                                                      @RequestParam(required = false) String interval,
+                                                                      @RequestParam(required = false) Integer maxPoints,
+                                                                      WebRequest request) {
+        boolean gzip = acceptsGzip(request);
+        Interval resampling = resampling(interval);
+        return history(asset, from, to, resampling, maxPoints).thenApply(series -> {
+            String etag = etag(gzip ? "json-gzip" : "json", series);
+            long lastModified = lastModified(series, resampling, from);
+            if (isNotModified(request, etag, lastModified)) {
+                return validated(HttpStatus.NOT_MODIFIED, etag, lastModified).build();
+            }
+            if (!gzip) {
+                return validated(HttpStatus.OK, etag, lastModified).varyBy(HttpHeaders.ACCEPT_ENCODING).body(series.toPricingList());
+            }
+            byte[] body;
+            try {
+                body = compressedBodies.get(etag, stream -> objectMapper.writeValue(stream, series.toPricingList()));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return validated(HttpStatus.OK, etag, lastModified)
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .header(HttpHeaders.CONTENT_ENCODING, GZIP)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .body(body);
+        });
+    }
+
+    /**
+     * Same history in the binary columnar format, selected with {@code Accept: application/vnd.warpaint.price-series}
+     * @see PriceSeriesHttpMessageConverter
+     */
+    @RequestMapping(value = "{asset}/historical", produces = PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES_VALUE)
+    public CompletableFuture<ResponseEntity<PriceSeries>> getHistoricalAssetSeries(@PathVariable Asset asset,
+                                                                                   @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+                                                                                   @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+                                                                                   @RequestParam(required = false) String interval,
+                                                                                   @RequestParam(required = false) Integer maxPoints,
+                                                                                   WebRequest request) {
+        Interval resampling = resampling(interval);
+        return history(asset, from, to, resampling, maxPoints).thenApply(series -> {
+            String etag = etag("binary", series);
+            long lastModified = lastModified(series, resampling, from);
+            return isNotModified(request, etag, lastModified)
+                    ? validated(HttpStatus.NOT_MODIFIED, etag, lastModified).<PriceSeries>build()
+                    : validated(HttpStatus.OK, etag, lastModified).body(series);
+        });
+    }
+
+    /**
+     * Same history as newline delimited JSON, written row by row, selected with {@code Accept: application/x-ndjson}
+     */
+    @RequestMapping(value = "{asset}/historical", produces = NdjsonPriceSeriesBody.APPLICATION_NDJSON_VALUE)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamHistoricalAssetData(@PathVariable Asset asset,
+                                                                                            @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+                                                                                            @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+                                                                                            @RequestParam(required = false) String interval,
+                                                                                            @RequestParam(required = false) Integer maxPoints,
+                                                                                            WebRequest request) {
+        Interval resampling = resampling(interval);
+        return history(asset, from, to, resampling, maxPoints).thenApply(series -> {
+            String etag = etag("ndjson", series);
+            long lastModified = lastModified(series, resampling, from);
+            return isNotModified(request, etag, lastModified)
+                    ? validated(HttpStatus.NOT_MODIFIED, etag, lastModified).<StreamingResponseBody>build()
+                    : validated(HttpStatus.OK, etag, lastModified)
+                            .contentType(NdjsonPriceSeriesBody.APPLICATION_NDJSON)
+                            .body(new NdjsonPriceSeriesBody(series, objectMapper));
+        });
+    }
+
+    /**
+     * Streaming variant selected with {@code ?stream=true}, for clients that cannot set the Accept header
+     */
+    @RequestMapping(value = "{asset}/historical", params = "stream=true")
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamHistoricalAssetDataOnRequest(@PathVariable Asset asset,
+                                                                                                     @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+                                                                                                     @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+                                                                                                     @RequestParam(required = false) String interval,
+                                                                                                     @RequestParam(required = false) Integer maxPoints,
+                                                                                                     WebRequest request) {
+        return streamHistoricalAssetData(asset, from, to, interval, maxPoints, request);
+    }
+
+    /**
+     * Internal endpoint of the cluster: history of a symbol this replica owns, in the binary format, for the replica
+     * that was asked for it. Served from this replica's cache, store or Yahoo, never forwarded to another replica.
+     * @see com.warpaint.challengeservice.cluster.PeerClient
+     */
+    @RequestMapping(value = "peer/{asset}/historical", produces = PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES_VALUE)
+    public CompletableFuture<PriceSeries> getOwnedHistoricalAssetSeries(@PathVariable Asset asset,
+                                                                        @RequestParam @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+                                                                        @RequestParam @DateTimeFormat(iso = ISO.DATE) LocalDate to) {
+        return challengeService.getOwnedHistoricalAssetDataAsync(asset, from, to);
+    }
+
+    /**
+     * Interval of the optional {@code interval} parameter (1d, 1w, 1mo or 1y), daily by default
+     */
+    private static Interval resampling(String interval) {
+        return (interval != null) ? Interval.of(interval) : Interval.DAY;
+    }
+
+    /**
+     * History resampled to {@code resampling} and then downsampled to at most {@code maxPoints} rows, if given.
+     * Invalid values are rejected before anything is fetched.
+     */
+    private CompletableFuture<PriceSeries> history(Asset asset, LocalDate from, LocalDate to, Interval resampling, Integer maxPoints) {
+        if (maxPoints != null && maxPoints < PriceSeries.MIN_DOWNSAMPLED_POINTS) {
+            throw new IllegalArgumentException("maxPoints must be at least " + PriceSeries.MIN_DOWNSAMPLED_POINTS);
+        }
+        return challengeService.getHistoricalAssetDataAsync(asset, from, to).thenApply(series -> {
+            PriceSeries resampled = series.resample(resampling);
+            return (maxPoints != null) ? resampled.downsample(maxPoints) : resampled;
+        });
+    }
+
+    /**
+     * Strong entity tag of a history in one representation, derived from every row of the history. A poller
+     * sending it back in {@code If-None-Match} gets a 304 as long as the data did not change.
+     */
+    private static String etag(String representation, PriceSeries series) {
+        return "\"" + representation + "-" + Long.toHexString(series.fingerprint()) + "\"";
+    }
+
+    /**
+     * Whether the request's preconditions spare sending the history again, checked before anything is serialized
+     */
+    private static boolean isNotModified(WebRequest request, String etag, long lastModified) {
+        return request.checkNotModified(etag, lastModified);
+    }
+
+    /**
+     * Response carrying the entity tag and, once the history is final, the modification date
+     */
+    private static ResponseEntity.BodyBuilder validated(HttpStatus status, String etag, long lastModified) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status).eTag(etag);
+        return (lastModified >= 0) ? response.lastModified(lastModified) : response;
+    }
+
+    /**
+     * Start of the day after the period of the last bar, from when on the history can no longer change; -1 while
+     * that period lasts until today and its bar still moves, in which case only the entity tag validates the
+     * response. Resampled bars are dated on the first day of their period, so it is not the last bar's date.
+     * Without an explicit {@code from} the default window moves forward every day, dropping its first rows while
+     * the last bar stays the same, so only the entity tag validates such a response either.
+     */
+    private static long lastModified(PriceSeries series, Interval resampling, LocalDate from) {
+        if (series.isEmpty() || from == null) {
+            return -1;
+        }
+        LocalDate periodEnd = resampling.periodEnd(series.tradeDate(series.size() - 1));
+        if (!periodEnd.isBefore(LocalDate.now())) {
+            return -1;
+        }
+        return periodEnd.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
     }
 
+    private static boolean acceptsGzip(WebRequest request) {
+        String accepted = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (accepted == null) {
+            return false;
+        }
+        for (String coding : accepted.split(",")) {
+            String[] parameters = coding.split(";");
+            if (parameters[0].trim().equalsIgnoreCase(GZIP)) {
+                // gzip;q=0 explicitly refuses it
+                return parameters.length == 1 || !parameters[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Histories of several assets over the same date range, keyed by symbol; failures are reported per symbol
+     */
+    @RequestMapping(value = "historical", method = RequestMethod.POST)
+    public CompletableFuture<Map<String, AssetHistory>> getHistoricalAssetData(@RequestBody HistoricalDataRequest request) {
+        if (request.getSymbols() == null || request.getSymbols().isEmpty()) {
+            throw new IllegalArgumentException("symbols must not be empty");
+        }
+        List<Asset> assets = request.getSymbols().stream().map(Asset::new).collect(toList());
+        return challengeService.getHistoricalAssetDataAsync(assets, request.getFrom(), request.getTo());
+    }
+
+    /**
+     * Monthly projection: close is the median, low and high are the lower and upper percentile of the simulated prices
+     */
     @RequestMapping("{asset}/projected")
-    public List<Pricing> getProjectedAssetData(@PathVariable Asset asset) {
-        return challengeService.getProjectedAssetData(asset);
+    public CompletableFuture<List<Pricing>> getProjectedAssetData(@PathVariable Asset asset,
+                                                                  @RequestParam(defaultValue = "10000") int paths,
+                                                                  @RequestParam(defaultValue = "10") int horizonYears,
+                                                                  @RequestParam(defaultValue = "5") double lowerPercentile,
+                                                                  @RequestParam(defaultValue = "95") double upperPercentile,
+                                                                  @RequestParam(defaultValue = "1") long seed) {
+        ProjectionParameters parameters = ProjectionParameters.builder()
+                .paths(paths)
+                .horizonYears(horizonYears)
+                .lowerPercentile(lowerPercentile)
+                .upperPercentile(upperPercentile)
+                .seed(seed)
+                .build();
+        return challengeService.getProjectedAssetDataAsync(asset, parameters).thenApply(PriceSeries::toPricingList);
+    }
+
+    /**
+     * Monthly projection of the value of a portfolio holding the requested value of every asset: close is the
+     * median, low and high are the lower and upper percentile of the simulated portfolio values
+     */
+    @RequestMapping(value = "portfolio/projected", method = RequestMethod.POST)
+    public CompletableFuture<List<Pricing>> getProjectedPortfolioData(@RequestBody PortfolioProjectionRequest request,
+                                                                      @RequestParam(defaultValue = "2000") int paths,
+                                                                      @RequestParam(defaultValue = "10") int horizonYears,
+                                                                      @RequestParam(defaultValue = "5") double lowerPercentile,
+                                                                      @RequestParam(defaultValue = "95") double upperPercentile,
+                                                                      @RequestParam(defaultValue = "1") long seed) {
+        if (request.getWeights() == null || request.getWeights().isEmpty()) {
+            throw new IllegalArgumentException("weights must not be empty");
+        }
+        ProjectionParameters parameters = ProjectionParameters.builder()
+                .paths(paths)
+                .horizonYears(horizonYears)
+                .lowerPercentile(lowerPercentile)
+                .upperPercentile(upperPercentile)
+                .seed(seed)
+                .build();
+        return challengeService.getProjectedPortfolioDataAsync(request.getWeights(), parameters)
+                .thenApply(PriceSeries::toPricingList);
+    }
+
+    /**
+     * Moving averages, volatility and returns over each of the {@code windows} trailing trading days, plus the
+     * drawdown, of the daily history between the two dates
+     */
+    @RequestMapping("{asset}/analytics")
+    public CompletableFuture<AssetAnalytics> getAssetAnalytics(@PathVariable Asset asset,
+                                                               @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+                                                               @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+                                                               @RequestParam(defaultValue = "20,50,200") int[] windows) {
+        return challengeService.getAssetAnalyticsAsync(asset, from, to, windows);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String handleIllegalArgument(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+
+    @ExceptionHandler(UpstreamResponseException.class)
+    @ResponseStatus(HttpStatus.BAD_GATEWAY)
+    public String handleUpstreamResponse(UpstreamResponseException e) {
+        return e.getMessage();
+    }
+
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handleUpstreamUnavailable(UpstreamUnavailableException e) {
+        return e.getMessage();
     }
 }
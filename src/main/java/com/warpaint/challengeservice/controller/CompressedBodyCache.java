@@ -0,0 +1,89 @@
+package com.warpaint.challengeservice.controller;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compressed response bodies keyed by their entity tag, so a hot history is serialized and compressed
+ * once per version of its data rather than once per request. Since the tag is derived from the content, an
+ * entry never has to be invalidated; bodies of outdated data are simply evicted in least-recently-used order
+ * once the cached bodies exceed {@code max-bytes}.
+ */
+@Component
+public class CompressedBodyCache implements MeterBinder {
+
+    @FunctionalInterface
+    interface Body {
+        void writeTo(OutputStream stream) throws IOException;
+    }
+
+    private final long maxBytes;
+
+    // Access ordered for LRU eviction, guarded by itself
+    private final LinkedHashMap<String, byte[]> bodies = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long cachedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Autowired
+    public CompressedBodyCache(@Value("${com.warpaint.marketdata.compressed-body-cache.max-bytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Compressed body of the given entity tag, written and compressed only if it is not cached
+     */
+    byte[] get(String etag, Body body) throws IOException {
+        synchronized (bodies) {
+            byte[] cached = bodies.get(etag);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(8192);
+        try (GZIPOutputStream stream = new GZIPOutputStream(compressed, 8192)) {
+            body.writeTo(stream);
+        }
+        byte[] bytes = compressed.toByteArray();
+        if (bytes.length <= maxBytes) {
+            synchronized (bodies) {
+                byte[] previous = bodies.put(etag, bytes);
+                cachedBytes += bytes.length - (previous != null ? previous.length : 0);
+                Iterator<byte[]> eldest = bodies.values().iterator();
+                while (cachedBytes > maxBytes) {
+                    cachedBytes -= eldest.next().length;
+                    eldest.remove();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("compressed.body.cache.requests", hits, LongAdder::doubleValue).tag("result", "hit").register(registry);
+        FunctionCounter.builder("compressed.body.cache.requests", misses, LongAdder::doubleValue).tag("result", "miss").register(registry);
+        Gauge.builder("compressed.body.cache.bytes", this, cache -> {
+            synchronized (cache.bodies) {
+                return cache.cachedBytes;
+            }
+        }).register(registry);
+    }
+}
@@ -0,0 +1,46 @@
+package com.warpaint.challengeservice.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.Pricing;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Newline delimited JSON body: one {@link Pricing} object per line, written row by row through a single
+ * Jackson generator. Rows are materialised one at a time, so the memory used per response does not depend
+ * on the length of the history.
+ */
+class NdjsonPriceSeriesBody implements StreamingResponseBody {
+
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+    private final PriceSeries series;
+    private final ObjectMapper objectMapper;
+
+    NdjsonPriceSeriesBody(PriceSeries series, ObjectMapper objectMapper) {
+        this.series = series;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        // The generator buffers and flushes in chunks, rows are not flushed one by one
+        ObjectWriter writer = objectMapper.writerFor(Pricing.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            for (int i = 0; i < series.size(); i++) {
+                writer.writeValue(generator, series.toPricing(i));
+                generator.writeRaw('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.warpaint.challengeservice.controller;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.PriceSeriesCodec;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes a {@link PriceSeries} in the binary columnar format of {@link PriceSeriesCodec}.
+ * Picked up by Spring Boot next to the Jackson converter and chosen when the client accepts
+ * {@value #APPLICATION_PRICE_SERIES_VALUE}.
+ */
+@Component
+public class PriceSeriesHttpMessageConverter extends AbstractHttpMessageConverter<PriceSeries> {
+
+    public static final String APPLICATION_PRICE_SERIES_VALUE = PriceSeriesCodec.MEDIA_TYPE;
+    public static final MediaType APPLICATION_PRICE_SERIES = MediaType.parseMediaType(APPLICATION_PRICE_SERIES_VALUE);
+
+    public PriceSeriesHttpMessageConverter() {
+        super(APPLICATION_PRICE_SERIES);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PriceSeries.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected PriceSeries readInternal(Class<? extends PriceSeries> clazz, HttpInputMessage inputMessage) throws IOException {
+        try {
+            return PriceSeriesCodec.decode(inputMessage.getBody());
+        }
+        catch (IllegalArgumentException e) {
+            throw new HttpMessageNotReadableException("Invalid price series: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void writeInternal(PriceSeries series, HttpOutputMessage outputMessage) throws IOException {
+        PriceSeriesCodec.encode(series, outputMessage.getBody());
+    }
+}
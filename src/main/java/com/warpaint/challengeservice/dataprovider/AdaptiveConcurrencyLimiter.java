@@ -0,0 +1,161 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Concurrency limit of upstream requests adjusted by additive increase, multiplicative decrease (AIMD).
+ * <p>
+ * Every response received within the latency target raises the limit by {@code 1 / limit}, so roughly by one
+ * per round of requests, while the limit is actually in use. A slow response, an error or a rejection by the
+ * upstream server cuts the limit by {@value #BACKOFF_RATIO}. Requests above the limit wait in a bounded FIFO
+ * queue rather than holding pooled connections while Yahoo is slow.
+ */
+final class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final int maxQueued;
+
+    // Guarded by this
+    private double limit;
+    private int inFlight;
+    private final ArrayDeque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyTargetNanos, int maxQueued) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = latencyTargetNanos;
+        this.maxQueued = maxQueued;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Permit to send one request, granted immediately below the limit and otherwise once earlier requests
+     * complete. Fails with {@link UpstreamUnavailableException} if too many requests are waiting already.
+     * A cancelled future gives up its place in the queue.
+     */
+    CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> permit = new CompletableFuture<>();
+        synchronized (this) {
+            if (waiting.isEmpty() && inFlight < getLimit()) {
+                inFlight++;
+                permit.complete(new Permit());
+                return permit;
+            }
+            if (waiting.size() >= maxQueued) {
+                permit.completeExceptionally(new UpstreamUnavailableException(
+                        "Too many pending upstream requests (" + waiting.size() + ")"));
+                return permit;
+            }
+            waiting.add(permit);
+        }
+        return permit;
+    }
+
+    /**
+     * Permit granted only if the limit has room right now, {@code null} otherwise
+     */
+    synchronized Permit tryAcquire() {
+        if (!waiting.isEmpty() || inFlight >= getLimit()) {
+            return null;
+        }
+        inFlight++;
+        return new Permit();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getQueued() {
+        return waiting.size();
+    }
+
+    private void release(long latencyNanos, boolean dropped, boolean measured) {
+        synchronized (this) {
+            if (measured) {
+                if (dropped || latencyNanos > latencyTargetNanos) {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                } else if (inFlight * 2 >= limit) {
+                    // Only grow while the limit is the bottleneck, an idle limit says nothing about capacity
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+            inFlight--;
+        }
+        grantWaiting();
+    }
+
+    private void grantWaiting() {
+        while (true) {
+            CompletableFuture<Permit> next;
+            Permit permit;
+            synchronized (this) {
+                if (waiting.isEmpty() || inFlight >= getLimit()) {
+                    return;
+                }
+                next = waiting.poll();
+                inFlight++;
+                permit = new Permit();
+            }
+            // Completed outside the lock, the waiter sends its request from here
+            if (!next.complete(permit)) {
+                // Cancelled while waiting, hand the permit to the next one
+                synchronized (this) {
+                    inFlight--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Right to one in-flight request, released exactly once by reporting how it went
+     */
+    final class Permit {
+        private boolean released;
+
+        /**
+         * The upstream server answered after the given latency
+         */
+        void success(long latencyNanos) {
+            if (markReleased()) {
+                release(latencyNanos, false, true);
+            }
+        }
+
+        /**
+         * The request failed, timed out or the upstream server rejected it as overloaded
+         */
+        void dropped() {
+            if (markReleased()) {
+                release(0, true, true);
+            }
+        }
+
+        /**
+         * The request was abandoned without telling anything about the upstream server
+         */
+        void ignore() {
+            if (markReleased()) {
+                release(0, false, false);
+            }
+        }
+
+        private synchronized boolean markReleased() {
+            boolean first = !released;
+            released = true;
+            return first;
+        }
+    }
+}
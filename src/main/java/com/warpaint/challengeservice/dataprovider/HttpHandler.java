@@ -1,56 +1,465 @@
 package com.warpaint.challengeservice.dataprovider;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpException;
 import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Component;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @Slf4j
 public class HttpHandler {
 
-    private static int MAX_CONNECTIONS = 100;
+    private static final int MAX_CONNECTIONS = 100;
+
+    /** Connections available to a single upstream host, the useful bound for concurrent fetches */
+    public static final int MAX_CONNECTIONS_PER_ROUTE = MAX_CONNECTIONS / 2;
+
+    /** Upstream latency, tagged by endpoint type and status code */
+    static final String UPSTREAM_TIMER = "yahoo.requests";
+
+    private static final String POOL_GAUGE_PREFIX = "yahoo.pool.";
+
+    /** Requests refused without being sent, tagged by reason */
+    static final String REJECTED_REQUESTS = "yahoo.requests.rejected";
+    private static final String REJECTED_CIRCUIT_OPEN = "circuit_open";
+    private static final String REJECTED_OVERLOADED = "overloaded";
+
+    /** Second attempts sent for slow requests */
+    static final String HEDGED_REQUESTS = "yahoo.requests.hedged";
+
+    private static final int INITIAL_CONCURRENCY_LIMIT = 20;
+    private static final int MAX_QUEUED_REQUESTS = 2048;
+
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final int LATENCY_WINDOW = 256;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final ResponseContentEncoding RESPONSE_CONTENT_ENCODING = new ResponseContentEncoding();
 
     private final HttpClient httpClient;
 
+    private final CloseableHttpAsyncClient asyncClient;
+
     @Getter
     private final BasicCookieStore cookieStore;
 
-    public HttpHandler(@Value("${com.warpaint.marketdata.yahoo.timeout:5}") int timeoutSeconds) {
+    private final MeterRegistry meterRegistry;
+
+    private final int timeoutSeconds;
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW, MIN_LATENCY_SAMPLES, HEDGE_PERCENTILE);
+
+    /** Null unless hedging is enabled */
+    private final ScheduledExecutorService hedgeScheduler;
+
+    @Autowired
+    public HttpHandler(@Value("${com.warpaint.marketdata.yahoo.timeout:5}") int timeoutSeconds,
+                       @Value("${com.warpaint.marketdata.yahoo.latency-target-ms:2000}") long latencyTargetMillis,
+                       @Value("${com.warpaint.marketdata.yahoo.circuit-breaker.failure-threshold:5}") int failureThreshold,
+                       @Value("${com.warpaint.marketdata.yahoo.circuit-breaker.open-seconds:30}") long openSeconds,
+                       @Value("${com.warpaint.marketdata.yahoo.hedging:false}") boolean hedging,
+                       MeterRegistry meterRegistry) {
+        this(timeoutSeconds,
+                new AdaptiveConcurrencyLimiter(INITIAL_CONCURRENCY_LIMIT, 1, MAX_CONNECTIONS_PER_ROUTE,
+                        TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis), MAX_QUEUED_REQUESTS),
+                new CircuitBreaker(failureThreshold, Duration.ofSeconds(openSeconds), Clock.systemUTC()),
+                hedging, meterRegistry);
+    }
+
+    HttpHandler(int timeoutSeconds, AdaptiveConcurrencyLimiter limiter, CircuitBreaker circuitBreaker, boolean hedging,
+                MeterRegistry meterRegistry) {
+        this.timeoutSeconds = timeoutSeconds;
+        this.limiter = limiter;
+        this.circuitBreaker = circuitBreaker;
+        this.meterRegistry = meterRegistry;
+        if (hedging) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("yahoo-hedge-");
+            threadFactory.setDaemon(true);
+            this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        } else {
+            this.hedgeScheduler = null;
+        }
         RequestConfig config = RequestConfig.custom()
                 .setConnectTimeout(timeoutSeconds * 1000)
                 .setConnectionRequestTimeout(timeoutSeconds * 1000)
                 .setSocketTimeout(timeoutSeconds * 1000).build();
 
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        registerPoolGauges("blocking", connectionManager);
+
+        PoolingNHttpClientConnectionManager asyncConnectionManager;
+        try {
+            asyncConnectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor());
+        }
+        catch (IOReactorException e) {
+            throw new IllegalStateException("Failed to create the HTTP I/O reactor", e);
+        }
+        asyncConnectionManager.setMaxTotal(MAX_CONNECTIONS);
+        asyncConnectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        registerPoolGauges("async", asyncConnectionManager);
+        registerResilienceGauges();
+
         this.cookieStore = new BasicCookieStore();
         this.httpClient = HttpClientBuilder.create()
-                .setMaxConnTotal(MAX_CONNECTIONS)
-                .setMaxConnPerRoute(MAX_CONNECTIONS/2)
+                .setConnectionManager(connectionManager)
+                .setDefaultCookieStore(cookieStore)
+                .setDefaultRequestConfig(config).build();
+
+        // The blocking client asks for compressed responses and decompresses them by default, the async one only
+        // asks here; its responses are decompressed once complete, see decompress(HttpResponse)
+        this.asyncClient = HttpAsyncClients.custom()
+                .setConnectionManager(asyncConnectionManager)
                 .setDefaultCookieStore(cookieStore)
+                .addInterceptorLast(new RequestAcceptEncoding())
                 .setDefaultRequestConfig(config).build();
+        this.asyncClient.start();
+    }
+
+    /**
+     * Leased, available and pending (waiting for a connection) counts of a connection pool
+     */
+    private void registerPoolGauges(String client, ConnPoolControl<?> pool) {
+        Gauge.builder(POOL_GAUGE_PREFIX + "leased", pool, control -> control.getTotalStats().getLeased())
+                .tag("client", client)
+                .register(meterRegistry);
+        Gauge.builder(POOL_GAUGE_PREFIX + "available", pool, control -> control.getTotalStats().getAvailable())
+                .tag("client", client)
+                .register(meterRegistry);
+        Gauge.builder(POOL_GAUGE_PREFIX + "pending", pool, control -> control.getTotalStats().getPending())
+                .tag("client", client)
+                .register(meterRegistry);
+    }
+
+    private void registerResilienceGauges() {
+        Gauge.builder("yahoo.limiter.limit", limiter, AdaptiveConcurrencyLimiter::getLimit).register(meterRegistry);
+        Gauge.builder("yahoo.limiter.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight).register(meterRegistry);
+        Gauge.builder("yahoo.limiter.queued", limiter, AdaptiveConcurrencyLimiter::getQueued).register(meterRegistry);
+        // 0 closed, 1 open, 2 half open
+        Gauge.builder("yahoo.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal()).register(meterRegistry);
     }
 
+    @PreDestroy
+    public void close() throws IOException {
+        if (hedgeScheduler != null) {
+            hedgeScheduler.shutdownNow();
+        }
+        asyncClient.close();
+    }
+
+    /**
+     * Execute the request once the concurrency limit and the circuit breaker allow it. The recorded latency ends
+     * when the response headers are received.
+     * @throws UpstreamUnavailableException if the request is refused without being sent, or answered with a server
+     * error or rate limiting
+     */
     public HttpResponse fetchResponse(HttpUriRequest request) {
+        AdaptiveConcurrencyLimiter.Permit permit = awaitPermit(request);
+        if (!circuitBreaker.tryAcquire()) {
+            permit.ignore();
+            throw reject(REJECTED_CIRCUIT_OPEN, request);
+        }
+        long start = System.nanoTime();
+        HttpResponse response;
         try {
             log.debug("{}: {}", request.getMethod(), request.getURI());
-            HttpResponse response = httpClient.execute(request);
-            log.debug("{}({}): {}", request.getMethod(), response.getStatusLine().getStatusCode(), request.getURI());
-            return response;
+            response = httpClient.execute(request);
         }
         catch (IOException e) {
+            record(request, "IO_ERROR", start);
+            onError(permit);
             throw new RuntimeException("Failed " + request.getMethod() + ": " + request.getURI(), e);
         }
+        catch (RuntimeException e) {
+            permit.ignore();
+            circuitBreaker.onIgnored();
+            throw e;
+        }
+        int status = response.getStatusLine().getStatusCode();
+        log.debug("{}({}): {}", request.getMethod(), status, request.getURI());
+        record(request, String.valueOf(status), start);
+        if (!onResponse(permit, status, System.nanoTime() - start)) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            throw unavailable(status, request);
+        }
+        return response;
+    }
+
+    /**
+     * Wait for a permit of the concurrency limiter, at most as long as for a pooled connection
+     */
+    private AdaptiveConcurrencyLimiter.Permit awaitPermit(HttpUriRequest request) {
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> pending = limiter.acquire();
+        try {
+            return pending.get(timeoutSeconds, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e) {
+            if (pending.cancel(false)) {
+                throw reject(REJECTED_OVERLOADED, request);
+            }
+            // Granted in the meantime
+            return pending.join();
+        }
+        catch (ExecutionException e) {
+            throw reject(REJECTED_OVERLOADED, request);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!pending.cancel(false)) {
+                pending.join().ignore();
+            }
+            throw new IllegalStateException("Interrupted waiting to send " + request.getURI(), e);
+        }
+    }
+
+    /**
+     * Execute the request without blocking the calling thread. The response entity is buffered in memory,
+     * the future completes on an I/O dispatcher thread and must not be used to block. The recorded latency
+     * includes reading the entity.
+     * <p>
+     * Requests above the concurrency limit wait for earlier ones to complete. With hedging enabled, a GET
+     * still running after the recent {@value #HEDGE_PERCENTILE} latency percentile is sent a second time if the
+     * limit has room, and the first response wins. The future fails with {@link UpstreamUnavailableException}
+     * if the request is refused without being sent, or if every attempt is answered with a server error or rate
+     * limiting.
+     */
+    public CompletableFuture<HttpResponse> fetchResponseAsync(HttpUriRequest request) {
+        Exchange exchange = new Exchange(request);
+        limiter.acquire().whenComplete((permit, error) -> {
+            if (error != null) {
+                exchange.result.completeExceptionally(reject(REJECTED_OVERLOADED, request));
+            } else if (exchange.send(request, permit) && hedgeScheduler != null && "GET".equals(request.getMethod())) {
+                scheduleHedge(exchange);
+            }
+        });
+        return exchange.result;
+    }
+
+    private void scheduleHedge(Exchange exchange) {
+        long delay = latencies.percentileNanos();
+        if (delay < 0) {
+            // Not enough latencies recorded yet to tell what is slow
+            return;
+        }
+        ScheduledFuture<?> hedge = hedgeScheduler.schedule(exchange::hedge,
+                Math.max(delay, MIN_HEDGE_DELAY_NANOS), TimeUnit.NANOSECONDS);
+        exchange.result.whenComplete((response, error) -> hedge.cancel(false));
+    }
+
+    /**
+     * One logical request, sent once or, when hedged, twice; completed by the first response
+     */
+    private final class Exchange {
+        private final HttpUriRequest request;
+        private final CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        private final List<Future<HttpResponse>> attempts = new CopyOnWriteArrayList<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private Exchange(HttpUriRequest request) {
+            this.request = request;
+            // Abort the attempt still running once the other one answered
+            result.whenComplete((response, error) -> attempts.forEach(attempt -> attempt.cancel(true)));
+        }
+
+        /**
+         * Send an attempt holding the permit, false if the circuit breaker refused it
+         */
+        private boolean send(HttpUriRequest attempt, AdaptiveConcurrencyLimiter.Permit permit) {
+            if (!circuitBreaker.tryAcquire()) {
+                permit.ignore();
+                if (outstanding.get() == 0) {
+                    result.completeExceptionally(reject(REJECTED_CIRCUIT_OPEN, attempt));
+                }
+                return false;
+            }
+            outstanding.incrementAndGet();
+            long start = System.nanoTime();
+            log.debug("{}: {}", attempt.getMethod(), attempt.getURI());
+            Future<HttpResponse> future = asyncClient.execute(attempt, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    int status = response.getStatusLine().getStatusCode();
+                    log.debug("{}({}): {}", attempt.getMethod(), status, attempt.getURI());
+                    record(attempt, String.valueOf(status), start);
+                    if (onResponse(permit, status, System.nanoTime() - start)) {
+                        outstanding.decrementAndGet();
+                        result.complete(decompress(response));
+                    } else if (outstanding.decrementAndGet() == 0) {
+                        // Otherwise the other attempt may still succeed
+                        result.completeExceptionally(unavailable(status, attempt));
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    record(attempt, "IO_ERROR", start);
+                    onError(permit);
+                    if (outstanding.decrementAndGet() == 0) {
+                        result.completeExceptionally(new RuntimeException("Failed " + attempt.getMethod() + ": " + attempt.getURI(), e));
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    permit.ignore();
+                    circuitBreaker.onIgnored();
+                    if (outstanding.decrementAndGet() == 0) {
+                        result.cancel(false);
+                    }
+                }
+            });
+            attempts.add(future);
+            if (result.isDone()) {
+                future.cancel(true);
+            }
+            return true;
+        }
+
+        /**
+         * Send the request a second time, only if it is still running and the limit has room for it
+         */
+        private void hedge() {
+            if (result.isDone()) {
+                return;
+            }
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+            if (permit == null) {
+                return;
+            }
+            HttpGet copy = new HttpGet(request.getURI());
+            copy.setHeaders(request.getAllHeaders());
+            log.debug("Hedging slow request {}", request.getURI());
+            if (send(copy, permit)) {
+                meterRegistry.counter(HEDGED_REQUESTS, "endpoint", endpointOf(request)).increment();
+            }
+        }
+    }
+
+    /**
+     * Replace a compressed entity by one inflating the buffered bytes while it is read. Asynchronous responses are
+     * buffered only after the response interceptors ran, so the entity cannot be wrapped by an interceptor.
+     */
+    private static HttpResponse decompress(HttpResponse response) {
+        try {
+            RESPONSE_CONTENT_ENCODING.process(response, new BasicHttpContext());
+        }
+        catch (HttpException | IOException e) {
+            // Unsupported content coding, left as it is
+            log.warn("Failed to decompress response: {}", e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * Feed the outcome of a response to the limiter and the circuit breaker. Server errors and rate limiting
+     * count against the upstream server; any other status, including 401 and 404, shows it is healthy.
+     * @return whether the upstream server is healthy
+     */
+    private boolean onResponse(AdaptiveConcurrencyLimiter.Permit permit, int status, long latencyNanos) {
+        if (status >= 500 || status == 429) {
+            permit.dropped();
+            circuitBreaker.onFailure();
+            return false;
+        }
+        permit.success(latencyNanos);
+        circuitBreaker.onSuccess();
+        latencies.record(latencyNanos);
+        return true;
+    }
+
+    private void onError(AdaptiveConcurrencyLimiter.Permit permit) {
+        permit.dropped();
+        circuitBreaker.onFailure();
+    }
+
+    private static UpstreamUnavailableException unavailable(int status, HttpUriRequest request) {
+        return new UpstreamUnavailableException("Yahoo Finance answered " + status + " to " + request.getMethod()
+                + ": " + request.getURI());
+    }
+
+    private UpstreamUnavailableException reject(String reason, HttpUriRequest request) {
+        meterRegistry.counter(REJECTED_REQUESTS, "reason", reason).increment();
+        String message = REJECTED_CIRCUIT_OPEN.equals(reason)
+                ? "Yahoo Finance is unavailable, not sending " + request.getURI()
+                : "Too many pending requests to Yahoo Finance, not sending " + request.getURI();
+        log.debug(message);
+        return new UpstreamUnavailableException(message);
+    }
+
+    private void record(HttpUriRequest request, String status, long start) {
+        Timer.builder(UPSTREAM_TIMER)
+                .tag("endpoint", endpointOf(request))
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Type of the Yahoo endpoint a request goes to, a bounded tag value unlike the URI
+     */
+    static String endpointOf(HttpUriRequest request) {
+        String path = request.getURI().getRawPath();
+        String query = request.getURI().getRawQuery();
+        if (path != null && path.endsWith("/profile")) {
+            return "profile";
+        }
+        if (query != null && query.contains("events=div")) {
+            return "dividends";
+        }
+        if (query != null && query.contains("events=history")) {
+            return "prices";
+        }
+        return "other";
     }
 
     public static String urlEncodeString(String string) {
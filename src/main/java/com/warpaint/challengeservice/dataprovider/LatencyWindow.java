@@ -0,0 +1,51 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import java.util.Arrays;
+
+/**
+ * Percentile of the most recent upstream latencies, the delay after which a request is hedged.
+ * The percentile is recomputed every {@value #RECOMPUTE_INTERVAL} samples rather than on every read.
+ */
+final class LatencyWindow {
+
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    private final double percentile;
+    private final int minSamples;
+
+    // Guarded by this
+    private final long[] samples;
+    private int count;
+    private int next;
+    private int sinceRecompute;
+    private long cached = -1;
+
+    LatencyWindow(int size, int minSamples, double percentile) {
+        this.samples = new long[size];
+        this.minSamples = minSamples;
+        this.percentile = percentile;
+    }
+
+    synchronized void record(long latencyNanos) {
+        samples[next] = latencyNanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+        sinceRecompute++;
+    }
+
+    /**
+     * Percentile of the window in nanoseconds, -1 until enough latencies were recorded
+     */
+    synchronized long percentileNanos() {
+        if (count < minSamples) {
+            return -1;
+        }
+        if (cached < 0 || sinceRecompute >= RECOMPUTE_INTERVAL) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            cached = sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+            sinceRecompute = 0;
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,11 @@
+package com.warpaint.challengeservice.dataprovider;
+
+/**
+ * Yahoo has no prices for the symbol at all. Such a symbol has an empty history, which is not worth storing.
+ */
+public class SymbolNotFoundException extends RuntimeException {
+
+    public SymbolNotFoundException(String message) {
+        super(message);
+    }
+}
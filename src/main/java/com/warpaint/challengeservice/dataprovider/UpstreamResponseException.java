@@ -0,0 +1,16 @@
+package com.warpaint.challengeservice.dataprovider;
+
+/**
+ * Yahoo answered a download with an unexpected status, or the answer could not be read. Unlike an empty download,
+ * this says nothing about the history of the symbol, so nothing of it may be cached or stored.
+ */
+public class UpstreamResponseException extends RuntimeException {
+
+    public UpstreamResponseException(String message) {
+        super(message);
+    }
+
+    public UpstreamResponseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,13 @@
+package com.warpaint.challengeservice.dataprovider;
+
+/**
+ * Request to Yahoo refused without sending it, because the circuit breaker is open or too many requests
+ * are already waiting, or answered with a server error or rate limiting. Callers may fall back to data they
+ * already have.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
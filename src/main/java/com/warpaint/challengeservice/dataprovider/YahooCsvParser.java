@@ -0,0 +1,265 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Single pass, allocation-light parser for the CSV downloads served by Yahoo Finance.
+ * <p>
+ * Rows are decoded straight from a fixed size byte buffer: dates become epoch days and decimals
+ * become fixed-point longs with {@link PriceSeries#SCALE} decimal places. No {@code String} is created
+ * per line or per field, so memory use is constant regardless of the size of the download.
+ * Rows with a wrong number of columns, a malformed date or a malformed number are skipped.
+ */
+@Slf4j
+final class YahooCsvParser {
+
+    private static final int PRICE_SCALE = PriceSeries.SCALE;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L};
+
+    /** Integer digits allowed before the scaled value could overflow a long */
+    private static final int MAX_INTEGER_DIGITS = 12;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int PRICE_COLUMNS = 7; // Date,Open,High,Low,Close,Adj Close,Volume
+    private static final int DIVIDEND_COLUMNS = 2; // Date,Dividends
+
+    @FunctionalInterface
+    interface PriceRowHandler {
+        void onRow(int epochDay, long open, long high, long low, long close);
+    }
+
+    @FunctionalInterface
+    interface DividendRowHandler {
+        void onRow(int epochDay, long dividend);
+    }
+
+    private final InputStream stream;
+    private final int expectedColumns;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    // Per-row decoding state, reset at every line break
+    private final long[] values;
+    private int column;
+    private int fieldLength;
+    private boolean rowValid;
+    private boolean negative;
+    private boolean seenPoint;
+    private int integerDigits;
+    private int fractionDigits;
+    private long unscaled;
+    private int dateYear;
+    private int dateMonth;
+    private int dateDay;
+
+    private int line;
+    private int skipped;
+
+    private YahooCsvParser(InputStream stream, int expectedColumns) {
+        this.stream = stream;
+        this.expectedColumns = expectedColumns;
+        this.values = new long[expectedColumns];
+    }
+
+    /**
+     * Parse a price download (Date,Open,High,Low,Close,Adj Close,Volume) and hand every valid row to the handler
+     * @return the number of rows handed to the handler
+     */
+    static int parsePrices(InputStream stream, PriceRowHandler handler) throws IOException {
+        YahooCsvParser parser = new YahooCsvParser(stream, PRICE_COLUMNS);
+        return parser.parse(values -> handler.onRow((int) values[0], values[1], values[2], values[3], values[4]));
+    }
+
+    /**
+     * Parse a dividend download (Date,Dividends) and hand every valid row to the handler
+     * @return the number of rows handed to the handler
+     */
+    static int parseDividends(InputStream stream, DividendRowHandler handler) throws IOException {
+        YahooCsvParser parser = new YahooCsvParser(stream, DIVIDEND_COLUMNS);
+        return parser.parse(values -> handler.onRow((int) values[0], values[1]));
+    }
+
+    @FunctionalInterface
+    private interface RowSink {
+        void accept(long[] values);
+    }
+
+    private int parse(RowSink sink) throws IOException {
+        int rows = 0;
+        startRow();
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                if (b == '\n') {
+                    if (endRow()) {
+                        sink.accept(values);
+                        rows++;
+                    }
+                    startRow();
+                } else if (b == ',') {
+                    endField();
+                } else if (b != '\r') {
+                    onByte(b);
+                }
+            }
+        }
+        // Last line without trailing line break
+        if ((column > 0 || fieldLength > 0) && endRow()) {
+            sink.accept(values);
+            rows++;
+        }
+        if (skipped > 0) {
+            log.debug("Skipped {} malformed rows", skipped);
+        }
+        return rows;
+    }
+
+    private void startRow() {
+        column = 0;
+        rowValid = true;
+        startField();
+    }
+
+    private void startField() {
+        fieldLength = 0;
+        negative = false;
+        seenPoint = false;
+        integerDigits = 0;
+        fractionDigits = 0;
+        unscaled = 0;
+        dateYear = 0;
+        dateMonth = 0;
+        dateDay = 0;
+    }
+
+    private boolean isDateColumn() {
+        return column == 0;
+    }
+
+    private boolean isDecodedColumn() {
+        // Only the leading columns are needed: Date, Open, High, Low, Close (or Date, Dividends)
+        return column < Math.min(expectedColumns, 5);
+    }
+
+    private void onByte(byte b) {
+        int position = fieldLength++;
+        if (!rowValid || !isDecodedColumn()) {
+            return;
+        }
+        if (isDateColumn()) {
+            onDateByte(b, position);
+        } else {
+            onDecimalByte(b, position);
+        }
+    }
+
+    private void onDateByte(byte b, int position) {
+        // yyyy-MM-dd
+        if (position == 4 || position == 7) {
+            rowValid = b == '-';
+            return;
+        }
+        if (position > 9 || b < '0' || b > '9') {
+            rowValid = false;
+            return;
+        }
+        int digit = b - '0';
+        if (position < 4) {
+            dateYear = dateYear * 10 + digit;
+        } else if (position < 7) {
+            dateMonth = dateMonth * 10 + digit;
+        } else {
+            dateDay = dateDay * 10 + digit;
+        }
+    }
+
+    private void onDecimalByte(byte b, int position) {
+        if (b >= '0' && b <= '9') {
+            if (seenPoint) {
+                if (fractionDigits < PRICE_SCALE) {
+                    unscaled = unscaled * 10 + (b - '0');
+                    fractionDigits++;
+                }
+                // Digits beyond the supported scale are truncated
+            } else if (++integerDigits <= MAX_INTEGER_DIGITS) {
+                unscaled = unscaled * 10 + (b - '0');
+            } else {
+                rowValid = false;
+            }
+        } else if (b == '.' && !seenPoint) {
+            seenPoint = true;
+        } else if (b == '-' && position == 0) {
+            negative = true;
+        } else {
+            rowValid = false;
+        }
+    }
+
+    private void endField() {
+        if (rowValid && isDecodedColumn()) {
+            if (isDateColumn()) {
+                if (fieldLength != 10) {
+                    rowValid = false;
+                } else {
+                    values[0] = toEpochDay(dateYear, dateMonth, dateDay);
+                    rowValid = values[0] != Long.MIN_VALUE;
+                }
+            } else if (integerDigits + fractionDigits == 0) {
+                rowValid = false;
+            } else {
+                long value = unscaled * POWERS_OF_TEN[PRICE_SCALE - fractionDigits];
+                values[column] = negative ? -value : value;
+            }
+        }
+        column++;
+        startField();
+    }
+
+    private boolean endRow() {
+        endField();
+        line++;
+        boolean valid = rowValid && column == expectedColumns;
+        if (!valid && line > 1) {
+            // The first line is the header and is expected to be rejected
+            skipped++;
+        }
+        return valid;
+    }
+
+    /**
+     * Days since 1970-01-01 for a proleptic Gregorian date, or {@code Long.MIN_VALUE} if the date does not exist.
+     * Equivalent to {@code LocalDate.of(year, month, day).toEpochDay()} without the allocation or the exception.
+     */
+    static long toEpochDay(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            return Long.MIN_VALUE;
+        }
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+}
@@ -1,20 +1,25 @@
 package com.warpaint.challengeservice.dataprovider;
 
+import com.warpaint.challengeservice.model.PriceSeries;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
-import java.util.List;
-
-import static java.util.Collections.emptyList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Stable client libraries (e.g. https://financequotes-api.com/) are broken since Yahoo discontinued
@@ -25,79 +30,215 @@ import static java.util.Collections.emptyList;
 @Slf4j
 public class YahooFinanceClient {
 
-	private static final String PRICE_FORMAT_URL = "https://query1.finance.yahoo.com/v7/finance/download/%s?period1=%d&period2=%d&interval=1d&events=history&interval=1d&crumb=%s";
-	private static final String DIVIDEND_FORMAT_URL = "https://query1.finance.yahoo.com/v7/finance/download/%s?period1=%d&period2=%d&interval=1d&events=div&interval=1d&crumb=%s";
+	public static final String DEFAULT_DOWNLOAD_BASE_URL = "https://query1.finance.yahoo.com";
+
+	private static final String PRICE_FORMAT_PATH = "/v7/finance/download/%s?period1=%d&period2=%d&interval=1d&events=history&interval=1d&crumb=%s";
+	private static final String DIVIDEND_FORMAT_PATH = "/v7/finance/download/%s?period1=%d&period2=%d&interval=1d&events=div&interval=1d&crumb=%s";
+
+	/** Downloads retried with a fresh crumb after an unauthorized response */
+	static final String UNAUTHORIZED_RETRIES = "yahoo.unauthorized.retries";
+
+	private final String priceFormatUrl;
+	private final String dividendFormatUrl;
 
 	@Setter
 	private YahooFinanceSession session;
 	private HttpHandler httpHandler;
-
-	public YahooFinanceClient(HttpHandler httpHandler) {
+	private MeterRegistry meterRegistry;
+	/** Parses the downloads, off the I/O threads of the HTTP client and off the common pool */
+	private final Executor fetchExecutor;
+
+	/**
+	 * @param downloadBaseUrl scheme and host of the CSV downloads
+	 * @param profileBaseUrl scheme and host of the profile page holding the crumb
+	 */
+	public YahooFinanceClient(HttpHandler httpHandler, MeterRegistry meterRegistry, ExecutorService fetchExecutor,
+							  @Value("${com.warpaint.marketdata.yahoo.download-base-url:" + DEFAULT_DOWNLOAD_BASE_URL + "}") String downloadBaseUrl,
+							  @Value("${com.warpaint.marketdata.yahoo.profile-base-url:" + YahooFinanceSession.DEFAULT_PROFILE_BASE_URL + "}") String profileBaseUrl) {
 	    this.httpHandler = httpHandler;
+	    this.meterRegistry = meterRegistry;
+	    this.fetchExecutor = fetchExecutor;
+	    this.priceFormatUrl = downloadBaseUrl + PRICE_FORMAT_PATH;
+	    this.dividendFormatUrl = downloadBaseUrl + DIVIDEND_FORMAT_PATH;
 
-		this.session = new YahooFinanceSession(httpHandler);
+		this.session = new YahooFinanceSession(httpHandler, meterRegistry, profileBaseUrl);
 	}
 
 	private String constructURL(String formatURL, String ticker, LocalDate from, LocalDate to) {
 		long fromEpoch = from.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
-		long toEpoch = to.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+		// period2 is exclusive, include the bar of the last requested day
+		long toEpoch = to.plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
 		String crumb = (session.getCrumb() != null) ? HttpHandler.urlEncodeString(session.getCrumb()) : "";
 		String encodedTicker = HttpHandler.urlEncodeString(ticker);
 		return String.format(formatURL, encodedTicker, fromEpoch, toEpoch, crumb);
 	}
 
-    private HttpEntity fetchURL(String url, String symbol, LocalDate fromDate, LocalDate toDate) {
-
-        HttpGet request = new HttpGet(url);
-        HttpResponse response = httpHandler.fetchResponse(request);
-        HttpStatus statusCode = HttpStatus.valueOf(response.getStatusLine().getStatusCode());
-        if (statusCode == HttpStatus.UNAUTHORIZED) {
-            log.debug("Unauthorized response using crumb and cookies:");
-            log.debug("crumb: {} cookies: {}", session.getCrumb(), httpHandler.getCookieStore().getCookies());
-            session.invalidate();
-            session.acquireCrumbWithTicker(symbol);
-            log.info("Retrying connection after unauthorized response");
-
-            request.setURI(URI.create(constructURL(PRICE_FORMAT_URL, symbol, fromDate, toDate))); // Acquire new crumb
-            request.reset();
-            EntityUtils.consumeQuietly(response.getEntity());
-            response = httpHandler.fetchResponse(request);
-        } else if (statusCode == HttpStatus.NOT_FOUND) {
-            EntityUtils.consumeQuietly(response.getEntity());
-            return null;
-        }
-        return response.getEntity();
-    }
-
-
-	public List<?> fetchPriceData(String symbol, LocalDate fromDate, LocalDate toDate) {
+	/**
+	 * Fetch a download, retrying once with a fresh crumb after an unauthorized response
+	 */
+	private HttpEntity fetchURL(String formatURL, String symbol, LocalDate fromDate, LocalDate toDate) {
+		long crumbVersion = session.getCrumbVersion();
+		HttpGet request = new HttpGet(constructURL(formatURL, symbol, fromDate, toDate));
+		HttpResponse response = httpHandler.fetchResponse(request);
+		HttpStatus statusCode = HttpStatus.valueOf(response.getStatusLine().getStatusCode());
+		if (statusCode == HttpStatus.UNAUTHORIZED) {
+			log.debug("Unauthorized response using crumb and cookies:");
+			log.debug("crumb: {} cookies: {}", session.getCrumb(), httpHandler.getCookieStore().getCookies());
+			EntityUtils.consumeQuietly(response.getEntity());
+			meterRegistry.counter(UNAUTHORIZED_RETRIES, "endpoint", endpointOf(formatURL)).increment();
+			// Only the first of several concurrent unauthorized responses drops the session
+			session.invalidate(crumbVersion);
+			session.acquireCrumbWithTicker(symbol);
+			log.info("Retrying connection after unauthorized response");
+
+			request.setURI(URI.create(constructURL(formatURL, symbol, fromDate, toDate))); // Acquire new crumb
+			request.reset();
+			response = httpHandler.fetchResponse(request);
+			statusCode = HttpStatus.valueOf(response.getStatusLine().getStatusCode());
+		}
+		return entityOf(response, statusCode, symbol);
+	}
+
+	/**
+	 * Entity of a successful download, {@code null} if Yahoo does not know the symbol
+	 * @throws UpstreamResponseException for any other status, a second unauthorized response included
+	 */
+	private static HttpEntity entityOf(HttpResponse response, HttpStatus statusCode, String symbol) {
+		if (statusCode.is2xxSuccessful()) {
+			return response.getEntity();
+		}
+		EntityUtils.consumeQuietly(response.getEntity());
+		if (statusCode == HttpStatus.NOT_FOUND) {
+			return null;
+		}
+		throw new UpstreamResponseException("Unexpected status " + statusCode.value() + " downloading " + symbol);
+	}
+
+
+	/**
+	 * @throws SymbolNotFoundException if Yahoo does not know the symbol
+	 * @throws UpstreamResponseException if the download failed
+	 */
+	public PriceSeries fetchPriceData(String symbol, LocalDate fromDate, LocalDate toDate) {
 		log.info("Acquiring price data for {} from {} to {}", symbol, fromDate, toDate);
 		session.acquireCrumbWithTicker(symbol);
 
-		String priceURL = constructURL(PRICE_FORMAT_URL, symbol, fromDate, toDate);
-		HttpEntity entity = fetchURL(priceURL, symbol, fromDate, toDate);
-		if (entity == null) {
-            log.warn("No price data available for {} from {} to {}", symbol, fromDate, toDate);
-            return emptyList();
-        }
-
-        //TODO parse entity.getContent() and return data
-        return emptyList();
+		HttpEntity entity = fetchURL(priceFormatUrl, symbol, fromDate, toDate);
+		return parsePrices(entity, symbol, fromDate, toDate);
 	}
 
 
-	public List<?> fetchDividendData(String symbol, LocalDate fromDate, LocalDate toDate) {
+	/**
+	 * Dividends of the symbol, empty if Yahoo does not know it
+	 * @throws UpstreamResponseException if the download failed
+	 */
+	public PriceSeries fetchDividendData(String symbol, LocalDate fromDate, LocalDate toDate) {
 		log.info("Acquiring dividend data for {} from {} to {}", symbol, fromDate, toDate);
 		session.acquireCrumbWithTicker(symbol);
 
-		String dividendURL = constructURL(DIVIDEND_FORMAT_URL, symbol, fromDate, toDate);
-        HttpEntity entity = fetchURL(dividendURL, symbol, fromDate, toDate);
-        if (entity == null) {
-            log.warn("No dividend data available for {} from {} to {}", symbol, fromDate, toDate);
-            return emptyList();
-        }
+		HttpEntity entity = fetchURL(dividendFormatUrl, symbol, fromDate, toDate);
+		return parseDividends(entity, symbol, fromDate, toDate);
+	}
+
+	/**
+	 * Non-blocking variant of {@link #fetchPriceData(String, LocalDate, LocalDate)}
+	 */
+	public CompletableFuture<PriceSeries> fetchPriceDataAsync(String symbol, LocalDate fromDate, LocalDate toDate) {
+		log.info("Acquiring price data for {} from {} to {}", symbol, fromDate, toDate);
+		return fetchURLAsync(priceFormatUrl, symbol, fromDate, toDate)
+				.thenApplyAsync(entity -> parsePrices(entity, symbol, fromDate, toDate), fetchExecutor);
+	}
+
+	/**
+	 * Non-blocking variant of {@link #fetchDividendData(String, LocalDate, LocalDate)}
+	 */
+	public CompletableFuture<PriceSeries> fetchDividendDataAsync(String symbol, LocalDate fromDate, LocalDate toDate) {
+		log.info("Acquiring dividend data for {} from {} to {}", symbol, fromDate, toDate);
+		return fetchURLAsync(dividendFormatUrl, symbol, fromDate, toDate)
+				.thenApplyAsync(entity -> parseDividends(entity, symbol, fromDate, toDate), fetchExecutor);
+	}
+
+	/**
+	 * Prices with their dividends: both downloads run concurrently and are merge-joined on the trade date
+	 * @see PriceSeries#withDividends(PriceSeries)
+	 */
+	public CompletableFuture<PriceSeries> fetchPriceAndDividendDataAsync(String symbol, LocalDate fromDate, LocalDate toDate) {
+		CompletableFuture<PriceSeries> prices = fetchPriceDataAsync(symbol, fromDate, toDate);
+		CompletableFuture<PriceSeries> dividends = fetchDividendDataAsync(symbol, fromDate, toDate);
+		return prices.thenCombine(dividends, PriceSeries::withDividends);
+	}
+
+	private CompletableFuture<HttpEntity> fetchURLAsync(String formatURL, String symbol, LocalDate fromDate, LocalDate toDate) {
+		long[] crumbVersion = new long[1];
+		return session.acquireCrumbWithTickerAsync(symbol)
+				.thenCompose(acquired -> {
+					crumbVersion[0] = session.getCrumbVersion();
+					return httpHandler.fetchResponseAsync(new HttpGet(constructURL(formatURL, symbol, fromDate, toDate)));
+				})
+				.thenCompose(response -> {
+					HttpStatus statusCode = HttpStatus.valueOf(response.getStatusLine().getStatusCode());
+					if (statusCode == HttpStatus.UNAUTHORIZED) {
+						log.debug("Unauthorized response using crumb: {}", session.getCrumb());
+						EntityUtils.consumeQuietly(response.getEntity());
+						meterRegistry.counter(UNAUTHORIZED_RETRIES, "endpoint", endpointOf(formatURL)).increment();
+						session.invalidate(crumbVersion[0]);
+						log.info("Retrying connection after unauthorized response");
+						return session.acquireCrumbWithTickerAsync(symbol)
+								.thenCompose(acquired -> httpHandler.fetchResponseAsync(new HttpGet(constructURL(formatURL, symbol, fromDate, toDate))))
+								.thenApply(retried -> entityOf(retried, HttpStatus.valueOf(retried.getStatusLine().getStatusCode()), symbol));
+					}
+					return CompletableFuture.completedFuture(entityOf(response, statusCode, symbol));
+				});
+	}
+
+	private String endpointOf(String formatURL) {
+		return formatURL.equals(dividendFormatUrl) ? "dividends" : "prices";
+	}
+
+	static PriceSeries parsePrices(HttpEntity entity, String symbol, LocalDate fromDate, LocalDate toDate) {
+		if (entity == null) {
+			throw new SymbolNotFoundException("No price data available for " + symbol);
+		}
+
+		PriceSeries.Builder prices = PriceSeries.builder(expectedRows(fromDate, toDate));
+		try (InputStream stream = entity.getContent()) {
+			YahooCsvParser.parsePrices(stream, (epochDay, open, high, low, close) -> {
+				if (epochDay > prices.lastEpochDay()) {
+					prices.add(epochDay, open, high, low, close, PriceSeries.NONE);
+				}
+			});
+		}
+		catch (IOException e) {
+			throw new UpstreamResponseException("Failed to read price data for " + symbol + ": " + e.getLocalizedMessage(), e);
+		}
+		return prices.build();
+	}
+
+	static PriceSeries parseDividends(HttpEntity entity, String symbol, LocalDate fromDate, LocalDate toDate) {
+		if (entity == null) {
+			log.warn("No dividend data available for {} from {} to {}", symbol, fromDate, toDate);
+			return PriceSeries.empty();
+		}
+
+		PriceSeries.Builder dividends = PriceSeries.builder();
+		try (InputStream stream = entity.getContent()) {
+			YahooCsvParser.parseDividends(stream, (epochDay, dividend) -> {
+				if (epochDay > dividends.lastEpochDay()) {
+					dividends.add(epochDay, PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, dividend);
+				}
+			});
+		}
+		catch (IOException e) {
+			throw new UpstreamResponseException("Failed to read dividend data for " + symbol + ": " + e.getLocalizedMessage(), e);
+		}
+		return dividends.build();
+	}
 
-        //TODO parse entity.getContent() and return data
-        return emptyList();
+	/**
+	 * Upper bound of the number of daily bars between two dates, used to size the columns up front
+	 */
+	private static int expectedRows(LocalDate fromDate, LocalDate toDate) {
+		long days = toDate.toEpochDay() - fromDate.toEpochDay() + 1;
+		return (int) Math.max(1, Math.min(days * 5 / 7 + 1, 1 << 16));
 	}
 }
@@ -1,87 +1,243 @@
 package com.warpaint.challengeservice.dataprovider;
 
 import com.warpaint.challengeservice.dataprovider.HttpHandler;
-import lombok.Getter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Cookie and crumb pair authorizing the download requests.
+ * <p>
+ * The crumb is published together with a version that increases on every refresh. Requests remember the
+ * version they were built with, so a late unauthorized response only invalidates the crumb it was sent with
+ * and never a newer one. Concurrent callers missing a crumb share a single refresh, whether blocking or not.
+ */
 @Slf4j
 public class YahooFinanceSession {
 
-	private static final String PROFILE_BASE_URL = "https://finance.yahoo.com/quote/%s/profile?p=%s";
+	public static final String DEFAULT_PROFILE_BASE_URL = "https://finance.yahoo.com";
 
-	private static final String CRUMB_REGEX = "CrumbStore\":\\{\"crumb\":\"(.*?)\"}";
+	private static final String PROFILE_PATH = "/quote/%s/profile?p=%s";
+
+	private static final Pattern CRUMB_PATTERN = Pattern.compile("CrumbStore\":\\{\"crumb\":\"(.*?)\"}");
+
+	/** Crumbs fetched from the profile page, whether one was found or not */
+	static final String CRUMB_REFRESHES = "yahoo.crumb.refreshes";
 
 	private final HttpHandler httpHandler;
 
-	@Getter
-	private String crumb;
+	private final String profileFormatUrl;
+
+	private final Counter refreshes;
+
+	private final AtomicReference<Crumb> crumb = new AtomicReference<>(Crumb.NONE);
 
-	YahooFinanceSession(HttpHandler httpHandler) {
+	// Refresh in progress, shared by every caller missing a crumb
+	private final AtomicReference<CompletableFuture<Crumb>> refresh = new AtomicReference<>();
+
+	YahooFinanceSession(HttpHandler httpHandler, MeterRegistry meterRegistry, String profileBaseUrl) {
 		this.httpHandler = httpHandler;
+		this.profileFormatUrl = profileBaseUrl + PROFILE_PATH;
+		this.refreshes = meterRegistry.counter(CRUMB_REFRESHES);
+	}
+
+	public String getCrumb() {
+		return crumb.get().value;
+	}
+
+	/**
+	 * Version of the current crumb, to be passed to {@link #invalidate(long)} after an unauthorized response
+	 */
+	public long getCrumbVersion() {
+		return crumb.get().version;
 	}
 
 	public void acquireCrumbWithTicker(String ticker) {
-		if (crumb == null) {
-			String url = getProfileURL(ticker);
-			HttpGet request = new HttpGet(url);
-			try {
-				HttpResponse response = httpHandler.fetchResponse(request);
-                crumb = extractCrumbFromStream(response.getEntity().getContent());
-                log.debug("Fetched session crumb: {}", crumb);
-			}
-            catch (IOException e) {
-                log.error("Failed to fetch session crumb: {}", e.getLocalizedMessage());
-            }
-			finally {
-				request.releaseConnection();
+		if (getCrumb() != null) {
+			log.debug("Session crumb already acquired");
+			return;
+		}
+		CompletableFuture<Crumb> pending = new CompletableFuture<>();
+		CompletableFuture<Crumb> running = startRefresh(pending);
+		if (running != pending || pending.isDone()) {
+			await(running);
+			return;
+		}
+
+		HttpGet request = new HttpGet(getProfileURL(ticker));
+		try {
+			HttpResponse response = httpHandler.fetchResponse(request);
+			String value = extractCrumbFromStream(response.getEntity().getContent());
+			if (value != null) {
+				// The rest of the page is not needed, drop the connection rather than draining it
+				request.abort();
+			} else {
+				EntityUtils.consumeQuietly(response.getEntity());
 			}
-		} else {
+			publish(pending, value);
+		}
+		catch (IOException e) {
+			log.error("Failed to fetch session crumb: {}", e.getLocalizedMessage());
+			publish(pending, null);
+		}
+		catch (RuntimeException e) {
+			fail(pending, e);
+			throw e;
+		}
+		finally {
+			request.releaseConnection();
+		}
+	}
+
+	/**
+	 * Non-blocking variant of {@link #acquireCrumbWithTicker(String)}
+	 */
+	public CompletableFuture<Void> acquireCrumbWithTickerAsync(String ticker) {
+		if (getCrumb() != null) {
 			log.debug("Session crumb already acquired");
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<Crumb> pending = new CompletableFuture<>();
+		CompletableFuture<Crumb> running = startRefresh(pending);
+		if (running == pending && !pending.isDone()) {
+			HttpGet request = new HttpGet(getProfileURL(ticker));
+			httpHandler.fetchResponseAsync(request).whenComplete((response, error) -> {
+				if (error != null) {
+					fail(pending, error);
+					return;
+				}
+				try {
+					publish(pending, extractCrumbFromStream(response.getEntity().getContent()));
+				}
+				catch (IOException e) {
+					log.error("Failed to fetch session crumb: {}", e.getLocalizedMessage());
+					publish(pending, null);
+				}
+				catch (RuntimeException e) {
+					fail(pending, e);
+				}
+			});
 		}
+		return running.thenApply(refreshed -> null);
 	}
 
+	/**
+	 * Drop the cookies and the crumb, whatever their version
+	 */
 	public void invalidate() {
 		httpHandler.getCookieStore().clear();
-		crumb = null;
+		crumb.updateAndGet(current -> new Crumb(null, current.version));
+	}
+
+	/**
+	 * Drop the cookies and the crumb if the crumb still has the given version
+	 * @return false if the crumb was already invalidated or refreshed since
+	 */
+	public boolean invalidate(long version) {
+		Crumb current = crumb.get();
+		if (current.version != version || current.value == null
+				|| !crumb.compareAndSet(current, new Crumb(null, version))) {
+			return false;
+		}
+		httpHandler.getCookieStore().clear();
+		return true;
+	}
+
+	/**
+	 * Register the pending refresh unless one is already running
+	 * @return the refresh to wait for, the given one if the caller has to perform it
+	 */
+	private CompletableFuture<Crumb> startRefresh(CompletableFuture<Crumb> pending) {
+		while (true) {
+			CompletableFuture<Crumb> running = refresh.get();
+			if (running != null) {
+				return running;
+			}
+			if (refresh.compareAndSet(null, pending)) {
+				Crumb current = crumb.get();
+				if (current.value != null) {
+					// Another refresh completed between the first check and winning the slot
+					refresh.compareAndSet(pending, null);
+					pending.complete(current);
+				}
+				return pending;
+			}
+		}
+	}
+
+	private void publish(CompletableFuture<Crumb> pending, String value) {
+		Crumb published = crumb.updateAndGet(current -> new Crumb(value, current.version + 1));
+		refreshes.increment();
+		log.debug("Fetched session crumb: {} (version {})", value, published.version);
+		refresh.compareAndSet(pending, null);
+		pending.complete(published);
 	}
 
-	private static String getProfileURL(String ticker) {
+	private void fail(CompletableFuture<Crumb> pending, Throwable error) {
+		refresh.compareAndSet(pending, null);
+		pending.completeExceptionally(error);
+	}
+
+	private static void await(CompletableFuture<Crumb> refresh) {
+		try {
+			refresh.join();
+		}
+		catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof RuntimeException) ? (RuntimeException) cause : e;
+		}
+	}
+
+	private String getProfileURL(String ticker) {
 		String encodedTicker = HttpHandler.urlEncodeString(ticker);
-		return String.format(PROFILE_BASE_URL, encodedTicker.toUpperCase(), encodedTicker.toUpperCase());
+		return String.format(profileFormatUrl, encodedTicker.toUpperCase(), encodedTicker.toUpperCase());
 	}
 
 	/**
-	 * Find session crumb information in a string stream
+	 * Find session crumb information in a string stream. Reading stops at the line holding the crumb,
+	 * the stream is left open so the caller decides whether to drain or abort the connection.
 	 */
-	private static String extractCrumbFromStream(InputStream stream) {
-		String crumb = null;
-		Pattern pattern = Pattern.compile(CRUMB_REGEX);
-		try (InputStreamReader reader = new InputStreamReader(stream);
-			 BufferedReader br = new BufferedReader(reader))
-		{
+	static String extractCrumbFromStream(InputStream stream) {
+		BufferedReader br = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+		try {
 			String line;
 			while ( ( line = br.readLine() ) != null ) {
-				Matcher matcher = pattern.matcher(line);
+				Matcher matcher = CRUMB_PATTERN.matcher(line);
 				if (matcher.find()) {
-					crumb = matcher.group(1);
-					crumb = crumb.replace("\\u002F", "/");
-					break;
+					return matcher.group(1).replace("\\u002F", "/");
 				}
 			}
 		}
 		catch (IOException e) {
 			log.error("Failed to fetch session crumb: {}", e.getLocalizedMessage());
 		}
-		return crumb;
+		return null;
+	}
+
+	private static final class Crumb {
+		private static final Crumb NONE = new Crumb(null, 0);
+
+		private final String value;
+		private final long version;
+
+		private Crumb(String value, long version) {
+			this.value = value;
+			this.version = version;
+		}
 	}
 
 }
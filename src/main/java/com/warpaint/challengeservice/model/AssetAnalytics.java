@@ -0,0 +1,115 @@
+package com.warpaint.challengeservice.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Rolling indicators of an asset, one column per indicator aligned with the trade dates. Values that are not
+ * defined yet, e.g. a 50 day average during the first 49 days, are written as {@code null}.
+ */
+@Value
+@Builder
+@JsonPropertyOrder({"tradeDates", "close", "drawdown", "maxDrawdown", "indicators"})
+public class AssetAnalytics {
+
+    @JsonIgnore
+    int[] epochDays;
+
+    @JsonSerialize(using = NanAsNullSerializer.class)
+    double[] close;
+
+    /** Decline of the close from the highest close so far, 0 at a new high and -0.25 a quarter below it */
+    @JsonSerialize(using = NanAsNullSerializer.class)
+    double[] drawdown;
+
+    Drawdown maxDrawdown;
+
+    List<Rolling> indicators;
+
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    public List<LocalDate> getTradeDates() {
+        return new AbstractList<LocalDate>() {
+            @Override
+            public LocalDate get(int index) {
+                return LocalDate.ofEpochDay(epochDays[index]);
+            }
+
+            @Override
+            public int size() {
+                return epochDays.length;
+            }
+        };
+    }
+
+    /**
+     * Largest decline from a peak to a later trough
+     */
+    @Value
+    public static class Drawdown {
+        double value;
+        @JsonFormat(pattern = "yyyy-MM-dd")
+        LocalDate peakDate;
+        @JsonFormat(pattern = "yyyy-MM-dd")
+        LocalDate troughDate;
+    }
+
+    /**
+     * Indicators over the trailing {@code window} trading days
+     */
+    @Value
+    @Builder
+    public static class Rolling {
+        int window;
+
+        /** Simple moving average of the close */
+        @JsonSerialize(using = NanAsNullSerializer.class)
+        double[] sma;
+
+        /** Exponential moving average of the close with smoothing 2 / (window + 1), starting from the first average */
+        @JsonSerialize(using = NanAsNullSerializer.class)
+        double[] ema;
+
+        /** Annualized standard deviation of the daily log returns */
+        @JsonSerialize(using = NanAsNullSerializer.class)
+        double[] volatility;
+
+        /** Return of the close over the window */
+        @JsonSerialize(using = NanAsNullSerializer.class)
+        double[] returns;
+    }
+
+    /**
+     * Writes a {@code double[]} with {@code NaN} as {@code null}, JSON has no number for it
+     */
+    static class NanAsNullSerializer extends StdSerializer<double[]> {
+
+        NanAsNullSerializer() {
+            super(double[].class);
+        }
+
+        @Override
+        public void serialize(double[] values, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartArray(values.length);
+            for (double value : values) {
+                if (Double.isNaN(value)) {
+                    generator.writeNull();
+                } else {
+                    generator.writeNumber(value);
+                }
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.warpaint.challengeservice.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * History of one asset in a batch response: either the prices or the reason they could not be fetched
+ */
+@Value
+@JsonInclude(Include.NON_NULL)
+public class AssetHistory {
+
+    @JsonIgnore
+    PriceSeries series;
+    String error;
+
+    public static AssetHistory of(PriceSeries series) {
+        return new AssetHistory(series, null);
+    }
+
+    public static AssetHistory failed(String error) {
+        return new AssetHistory(null, error);
+    }
+
+    /**
+     * Rows are only materialised while the response is written
+     */
+    public List<Pricing> getPrices() {
+        return (series != null) ? series.toPricingList() : null;
+    }
+}
@@ -0,0 +1,24 @@
+package com.warpaint.challengeservice.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Historical data request for several assets over the same date range
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoricalDataRequest {
+
+    private List<String> symbols;
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate from;
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate to;
+}
@@ -0,0 +1,75 @@
+package com.warpaint.challengeservice.model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Bar interval of a resampled history, named like the intervals of Yahoo Finance
+ * @see PriceSeries#resample(Interval)
+ */
+public enum Interval {
+
+    DAY("1d"),
+    WEEK("1w"),
+    MONTH("1mo"),
+    YEAR("1y");
+
+    private final String code;
+
+    Interval(String code) {
+        this.code = code;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Interval of a code such as {@code 1w}
+     * @throws IllegalArgumentException for an unknown code
+     */
+    public static Interval of(String code) {
+        for (Interval interval : values()) {
+            if (interval.code.equalsIgnoreCase(code)) {
+                return interval;
+            }
+        }
+        throw new IllegalArgumentException("interval must be one of 1d, 1w, 1mo or 1y");
+    }
+
+    /**
+     * First day of the period containing the given day: the day itself, its week's Monday, or the first day of
+     * its month or year
+     */
+    int periodStart(int epochDay) {
+        switch (this) {
+            case DAY:
+                return epochDay;
+            case WEEK:
+                // The epoch started on a Thursday
+                return epochDay - Math.floorMod(epochDay + 3, 7);
+            case MONTH:
+                return (int) LocalDate.ofEpochDay(epochDay).withDayOfMonth(1).toEpochDay();
+            default:
+                return (int) LocalDate.ofEpochDay(epochDay).with(TemporalAdjusters.firstDayOfYear()).toEpochDay();
+        }
+    }
+
+    /**
+     * Last day of the period containing the given day: the day itself, its week's Sunday, or the last day of its
+     * month or year
+     */
+    public LocalDate periodEnd(LocalDate day) {
+        switch (this) {
+            case DAY:
+                return day;
+            case WEEK:
+                return day.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+            case MONTH:
+                return day.with(TemporalAdjusters.lastDayOfMonth());
+            default:
+                return day.with(TemporalAdjusters.lastDayOfYear());
+        }
+    }
+}
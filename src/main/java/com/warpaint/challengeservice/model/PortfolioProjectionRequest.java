@@ -0,0 +1,18 @@
+package com.warpaint.challengeservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Projection request for a portfolio, holding the given value of every asset keyed by symbol
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PortfolioProjectionRequest {
+
+    private Map<String, Double> weights;
+}
@@ -0,0 +1,113 @@
+package com.warpaint.challengeservice.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Immutable fixed-point price: a long number of units of 10^-{@value PriceSeries#SCALE}, the representation of
+ * the {@link PriceSeries} columns.
+ * <p>
+ * Written as a plain JSON number without insignificant trailing zeros, e.g. {@code 100}, {@code 100.5} or
+ * {@code 0.000125}, exactly as the {@link PriceSeries#toDecimal(long) decimal} of the same units. The digits
+ * go straight into the generator, neither a {@code String} nor a {@code BigDecimal} is created.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonSerialize(using = Price.Serializer.class)
+public class Price {
+
+    /** Sign, 13 integer digits, the point and 6 decimals of the largest value */
+    private static final int MAX_LENGTH = 21;
+
+    private static final long UNIT = 1_000_000L;
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[MAX_LENGTH]);
+
+    long units;
+
+    public static Price of(long units) {
+        if (units == PriceSeries.NONE) {
+            throw new IllegalArgumentException("Missing value is not a price");
+        }
+        return new Price(units);
+    }
+
+    /**
+     * Price of a fixed-point value, {@code null} for {@link PriceSeries#NONE}
+     */
+    public static Price orNull(long units) {
+        return units == PriceSeries.NONE ? null : new Price(units);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return PriceSeries.toDecimal(units);
+    }
+
+    @Override
+    public String toString() {
+        char[] buffer = new char[MAX_LENGTH];
+        int start = format(units, buffer);
+        return new String(buffer, start, MAX_LENGTH - start);
+    }
+
+    /**
+     * Write the decimal digits right-aligned into a buffer of {@value #MAX_LENGTH} characters
+     * @return index of the first character
+     */
+    static int format(long units, char[] buffer) {
+        boolean negative = units < 0;
+        long magnitude = negative ? -units : units;
+        long integer = magnitude / UNIT;
+        long fraction = magnitude % UNIT;
+        int position = MAX_LENGTH;
+        if (fraction != 0) {
+            int digits = PriceSeries.SCALE;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            for (int i = 0; i < digits; i++) {
+                buffer[--position] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            buffer[--position] = '.';
+        }
+        do {
+            buffer[--position] = (char) ('0' + integer % 10);
+            integer /= 10;
+        } while (integer != 0);
+        if (negative) {
+            buffer[--position] = '-';
+        }
+        return position;
+    }
+
+    /**
+     * Writes the digits from a per-thread buffer, as a raw number or a string if numbers are quoted
+     */
+    static class Serializer extends StdSerializer<Price> {
+
+        Serializer() {
+            super(Price.class);
+        }
+
+        @Override
+        public void serialize(Price price, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            char[] buffer = BUFFER.get();
+            int start = format(price.units, buffer);
+            if (generator.isEnabled(JsonGenerator.Feature.WRITE_NUMBERS_AS_STRINGS)) {
+                generator.writeString(buffer, start, MAX_LENGTH - start);
+            } else {
+                generator.writeRawValue(buffer, start, MAX_LENGTH - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.warpaint.challengeservice.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Immutable, columnar daily price history of a single asset, sorted by trade date.
+ * <p>
+ * Trade dates are stored as epoch days and prices as fixed-point longs with {@link #SCALE} decimal places,
+ * one primitive array per column. A missing value (e.g. the dividend on a day without distribution) is
+ * stored as {@link #NONE}. {@link Pricing} objects are only materialised on demand through
+ * {@link #toPricing(int)}, {@link #stream()} or {@link #toPricingList()}.
+ * <p>
+ * Slices share the underlying arrays, so they are cheap to create.
+ */
+public final class PriceSeries {
+
+    /** Number of decimal places of every fixed-point value */
+    public static final int SCALE = 6;
+
+    /** Marker of a missing value in a price or dividend column */
+    public static final long NONE = Long.MIN_VALUE;
+
+    /** Smallest number of rows {@link #downsample(int)} reduces a series to: first, last and one in between */
+    public static final int MIN_DOWNSAMPLED_POINTS = 3;
+
+    private static final double UNIT = 1_000_000d;
+
+    private static final PriceSeries EMPTY = new PriceSeries(new int[0], new long[0], new long[0], new long[0],
+            new long[0], new long[0], 0, 0);
+
+    private final int[] epochDays;
+    private final long[] open;
+    private final long[] high;
+    private final long[] low;
+    private final long[] close;
+    private final long[] dividend;
+    private final int offset;
+    private final int size;
+
+    private PriceSeries(int[] epochDays, long[] open, long[] high, long[] low, long[] close, long[] dividend,
+                        int offset, int size) {
+        this.epochDays = epochDays;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.dividend = dividend;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public static PriceSeries empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder(64);
+    }
+
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int epochDay(int index) {
+        return epochDays[offset + checkIndex(index)];
+    }
+
+    public LocalDate tradeDate(int index) {
+        return LocalDate.ofEpochDay(epochDay(index));
+    }
+
+    public long open(int index) {
+        return open[offset + checkIndex(index)];
+    }
+
+    public long high(int index) {
+        return high[offset + checkIndex(index)];
+    }
+
+    public long low(int index) {
+        return low[offset + checkIndex(index)];
+    }
+
+    public long close(int index) {
+        return close[offset + checkIndex(index)];
+    }
+
+    public long dividend(int index) {
+        return dividend[offset + checkIndex(index)];
+    }
+
+    /**
+     * Closing price as a double, for analytics that do not need exact decimals
+     */
+    public double closeAsDouble(int index) {
+        return close(index) / UNIT;
+    }
+
+    /**
+     * 64-bit hash of every row, equal for series with the same rows whatever the arrays they are sliced from.
+     * Used as an entity tag, so it walks all columns rather than trusting the last trade date.
+     */
+    public long fingerprint() {
+        long hash = size;
+        for (int i = offset; i < offset + size; i++) {
+            hash = mix(hash, epochDays[i]);
+            hash = mix(hash, open[i]);
+            hash = mix(hash, high[i]);
+            hash = mix(hash, low[i]);
+            hash = mix(hash, close[i]);
+            hash = mix(hash, dividend[i]);
+        }
+        // Final avalanche of MurmurHash3
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return Long.rotateLeft(hash ^ (value * 0x9e3779b97f4a7c15L), 31) * 0xc2b2ae3d27d4eb4fL;
+    }
+
+    public int firstEpochDay() {
+        return epochDay(0);
+    }
+
+    public int lastEpochDay() {
+        return epochDay(size - 1);
+    }
+
+    /**
+     * Index of the first row traded on or after the given day, {@link #size()} if there is none
+     */
+    public int indexOnOrAfter(long epochDay) {
+        int lowIndex = offset;
+        int highIndex = offset + size;
+        while (lowIndex < highIndex) {
+            int mid = (lowIndex + highIndex) >>> 1;
+            if (epochDays[mid] < epochDay) {
+                lowIndex = mid + 1;
+            } else {
+                highIndex = mid;
+            }
+        }
+        return lowIndex - offset;
+    }
+
+    /**
+     * Rows traded between the two dates, both inclusive. The slice shares the arrays of this series.
+     */
+    public PriceSeries slice(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            return EMPTY;
+        }
+        int fromIndex = indexOnOrAfter(from.toEpochDay());
+        int toIndex = indexOnOrAfter(to.toEpochDay() + 1);
+        return slice(fromIndex, toIndex);
+    }
+
+    /**
+     * Rows at positions {@code fromIndex} (inclusive) to {@code toIndex} (exclusive)
+     */
+    public PriceSeries slice(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Invalid slice [" + fromIndex + ", " + toIndex + ") of " + size);
+        }
+        if (fromIndex == 0 && toIndex == size) {
+            return this;
+        }
+        if (fromIndex == toIndex) {
+            return EMPTY;
+        }
+        return new PriceSeries(epochDays, open, high, low, close, dividend, offset + fromIndex, toIndex - fromIndex);
+    }
+
+    /**
+     * Merge-join the dividends of a dividend-only series into the bars of this series in one linear pass.
+     * Bars without a distribution keep a {@link #NONE} dividend; a dividend dated on a day without a bar
+     * (e.g. an ex-date falling on a holiday) is added to the next bar, and dividends after the last bar are
+     * dropped. Both series must be sorted, as every {@code PriceSeries} is.
+     */
+    public PriceSeries withDividends(PriceSeries dividends) {
+        if (dividends.isEmpty()) {
+            return this;
+        }
+        Builder merged = new Builder(size);
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            int day = epochDay(i);
+            long paid = dividend(i);
+            while (next < dividends.size() && dividends.epochDay(next) <= day) {
+                long distribution = dividends.dividend(next++);
+                if (distribution != NONE) {
+                    paid = (paid == NONE) ? distribution : paid + distribution;
+                }
+            }
+            merged.add(day, open(i), high(i), low(i), close(i), paid);
+        }
+        return merged.build();
+    }
+
+    /**
+     * Bars aggregated per week, month or year in one linear pass. Each bar is dated on the first day of its
+     * period and has the first open, the highest high, the lowest low and the last close of the period, with
+     * the dividends of the period summed up. Missing values are skipped.
+     */
+    public PriceSeries resample(Interval interval) {
+        if (interval == Interval.DAY || size == 0) {
+            return this;
+        }
+        Builder resampled = new Builder(size / 4 + 1);
+        int period = interval.periodStart(epochDay(0));
+        long periodOpen = NONE;
+        long periodHigh = NONE;
+        long periodLow = NONE;
+        long periodClose = NONE;
+        long periodDividend = NONE;
+        for (int i = 0; i < size; i++) {
+            int start = interval.periodStart(epochDay(i));
+            if (start != period) {
+                resampled.add(period, periodOpen, periodHigh, periodLow, periodClose, periodDividend);
+                period = start;
+                periodOpen = NONE;
+                periodHigh = NONE;
+                periodLow = NONE;
+                periodClose = NONE;
+                periodDividend = NONE;
+            }
+            int row = offset + i;
+            if (periodOpen == NONE) {
+                periodOpen = open[row];
+            }
+            // NONE is the smallest long, so it never wins the maximum
+            periodHigh = Math.max(periodHigh, high[row]);
+            if (low[row] != NONE && (periodLow == NONE || low[row] < periodLow)) {
+                periodLow = low[row];
+            }
+            if (close[row] != NONE) {
+                periodClose = close[row];
+            }
+            if (dividend[row] != NONE) {
+                periodDividend = (periodDividend == NONE) ? dividend[row] : periodDividend + dividend[row];
+            }
+        }
+        resampled.add(period, periodOpen, periodHigh, periodLow, periodClose, periodDividend);
+        return resampled.build();
+    }
+
+    /**
+     * At most {@code maxPoints} rows chosen by Largest-Triangle-Three-Buckets on the closing prices, which keeps
+     * the visual shape of the series. The first and last rows are always kept; the rows in between are split
+     * in {@code maxPoints - 2} buckets, and each bucket keeps the row forming the largest triangle with the row
+     * kept from the previous bucket and the average of the next bucket. Rows are kept whole, so one linear pass
+     * returns real bars rather than interpolated ones.
+     * @throws IllegalArgumentException if {@code maxPoints} is less than {@value #MIN_DOWNSAMPLED_POINTS}
+     */
+    public PriceSeries downsample(int maxPoints) {
+        if (maxPoints < MIN_DOWNSAMPLED_POINTS) {
+            throw new IllegalArgumentException("maxPoints must be at least " + MIN_DOWNSAMPLED_POINTS);
+        }
+        if (size <= maxPoints) {
+            return this;
+        }
+        Builder sampled = new Builder(maxPoints);
+        addRow(sampled, 0);
+        double bucketSize = (double) (size - 2) / (maxPoints - 2);
+        int previous = 0;
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            int from = (int) (bucket * bucketSize) + 1;
+            int to = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextTo = Math.min((int) ((bucket + 2) * bucketSize) + 1, size);
+
+            double nextX = 0;
+            double nextY = 0;
+            int nextCount = 0;
+            for (int i = to; i < nextTo; i++) {
+                if (close(i) != NONE) {
+                    nextX += epochDay(i);
+                    nextY += close(i);
+                    nextCount++;
+                }
+            }
+            nextX /= nextCount;
+            nextY /= nextCount;
+
+            // Rows without a close or without any neighbour to compare with make NaN areas and are only kept by default
+            double previousX = epochDay(previous);
+            double previousY = (close(previous) != NONE) ? close(previous) : Double.NaN;
+            int kept = from;
+            double largestArea = -1;
+            for (int i = from; i < to; i++) {
+                double y = (close(i) != NONE) ? close(i) : Double.NaN;
+                double area = Math.abs((previousX - nextX) * (y - previousY) - (previousX - epochDay(i)) * (nextY - previousY));
+                if (area > largestArea) {
+                    largestArea = area;
+                    kept = i;
+                }
+            }
+            addRow(sampled, kept);
+            previous = kept;
+        }
+        addRow(sampled, size - 1);
+        return sampled.build();
+    }
+
+    private void addRow(Builder builder, int index) {
+        builder.add(epochDay(index), open(index), high(index), low(index), close(index), dividend(index));
+    }
+
+    public Pricing toPricing(int index) {
+        return Pricing.builder()
+                .tradeDate(tradeDate(index))
+                .openPrice(Price.orNull(open(index)))
+                .highPrice(Price.orNull(high(index)))
+                .lowPrice(Price.orNull(low(index)))
+                .closePrice(Price.orNull(close(index)))
+                .dividend(Price.orNull(dividend(index)))
+                .build();
+    }
+
+    /**
+     * Lazily materialised {@link Pricing} rows
+     */
+    public Stream<Pricing> stream() {
+        return IntStream.range(0, size).mapToObj(this::toPricing);
+    }
+
+    /**
+     * List view creating each {@link Pricing} row when it is accessed
+     */
+    public List<Pricing> toPricingList() {
+        return new AbstractList<Pricing>() {
+            @Override
+            public Pricing get(int index) {
+                return toPricing(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Decimal value of a fixed-point value without insignificant trailing zeros, {@code null} for {@link #NONE}
+     */
+    public static BigDecimal toDecimal(long value) {
+        if (value == NONE) {
+            return null;
+        }
+        BigDecimal decimal = BigDecimal.valueOf(value, SCALE).stripTrailingZeros();
+        return decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return isEmpty() ? "PriceSeries[]"
+                : "PriceSeries[" + size + " rows, " + tradeDate(0) + " to " + tradeDate(size - 1) + "]";
+    }
+
+    /**
+     * Append-only builder; rows must be added in ascending trade date order
+     */
+    public static final class Builder {
+
+        private int[] epochDays;
+        private long[] open;
+        private long[] high;
+        private long[] low;
+        private long[] close;
+        private long[] dividend;
+        private int size;
+
+        private Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 1);
+            this.epochDays = new int[capacity];
+            this.open = new long[capacity];
+            this.high = new long[capacity];
+            this.low = new long[capacity];
+            this.close = new long[capacity];
+            this.dividend = new long[capacity];
+        }
+
+        public Builder add(int epochDay, long open, long high, long low, long close, long dividend) {
+            if (size > 0 && epochDay <= epochDays[size - 1]) {
+                throw new IllegalArgumentException("Trade dates must be strictly ascending: "
+                        + LocalDate.ofEpochDay(epochDay) + " after " + LocalDate.ofEpochDay(epochDays[size - 1]));
+            }
+            if (size == epochDays.length) {
+                grow();
+            }
+            this.epochDays[size] = epochDay;
+            this.open[size] = open;
+            this.high[size] = high;
+            this.low[size] = low;
+            this.close[size] = close;
+            this.dividend[size] = dividend;
+            size++;
+            return this;
+        }
+
+        /**
+         * Append the rows of a series starting after the last row of this builder
+         */
+        public Builder addAll(PriceSeries series) {
+            for (int i = 0; i < series.size(); i++) {
+                add(series.epochDay(i), series.open(i), series.high(i), series.low(i), series.close(i), series.dividend(i));
+            }
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Trade date of the last added row, {@code Integer.MIN_VALUE} if there is none
+         */
+        public int lastEpochDay() {
+            return size == 0 ? Integer.MIN_VALUE : epochDays[size - 1];
+        }
+
+        private void grow() {
+            int capacity = epochDays.length + (epochDays.length >> 1) + 1;
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            open = Arrays.copyOf(open, capacity);
+            high = Arrays.copyOf(high, capacity);
+            low = Arrays.copyOf(low, capacity);
+            close = Arrays.copyOf(close, capacity);
+            dividend = Arrays.copyOf(dividend, capacity);
+        }
+
+        public PriceSeries build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            if (size == epochDays.length) {
+                return new PriceSeries(epochDays, open, high, low, close, dividend, 0, size);
+            }
+            return new PriceSeries(Arrays.copyOf(epochDays, size), Arrays.copyOf(open, size), Arrays.copyOf(high, size),
+                    Arrays.copyOf(low, size), Arrays.copyOf(close, size), Arrays.copyOf(dividend, size), 0, size);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.warpaint.challengeservice.model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Compact binary columnar encoding of a {@link PriceSeries}.
+ * <pre>
+ * magic    4 bytes  "WPSC"
+ * version  1 byte   1
+ * scale    1 byte   {@link PriceSeries#SCALE}
+ * count    varint   number of rows
+ * days     count values: the first epoch day as zigzag varint, then the gap to the previous day as varint
+ * columns  open, high, low, close and dividend, each made of
+ *          flag     1 byte   0 every row has a value, 1 a presence bitmap follows, 2 no row has a value
+ *          bitmap   (count + 7) / 8 bytes, bit i (least significant first) set if row i has a value
+ *          values   zigzag varint difference to the previous value of the column (the first to 0)
+ * </pre>
+ * Varints are unsigned LEB128, as in Protocol Buffers. Missing values ({@link PriceSeries#NONE}) are only
+ * recorded in the bitmap, so a column without any dividend costs a single byte.
+ */
+public final class PriceSeriesCodec {
+
+    /** Media type of the encoding over HTTP */
+    public static final String MEDIA_TYPE = "application/vnd.warpaint.price-series";
+
+    private static final byte[] MAGIC = {'W', 'P', 'S', 'C'};
+    private static final int VERSION = 1;
+
+    private static final int ALL_PRESENT = 0;
+    private static final int BITMAP = 1;
+    private static final int NONE_PRESENT = 2;
+
+    private static final int COLUMNS = 5;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private PriceSeriesCodec() {
+    }
+
+    /**
+     * Write the series to the stream, which is flushed but not closed
+     */
+    public static void encode(PriceSeries series, OutputStream stream) throws IOException {
+        Writer out = new Writer(stream);
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(PriceSeries.SCALE);
+        int count = series.size();
+        out.writeVarint(count);
+
+        int previousDay = 0;
+        for (int i = 0; i < count; i++) {
+            int day = series.epochDay(i);
+            out.writeVarint(i == 0 ? zigzag(day) : (long) day - previousDay);
+            previousDay = day;
+        }
+
+        for (int column = 0; column < COLUMNS; column++) {
+            int present = 0;
+            for (int i = 0; i < count; i++) {
+                if (value(series, column, i) != PriceSeries.NONE) {
+                    present++;
+                }
+            }
+            if (present == 0) {
+                out.write(NONE_PRESENT);
+                continue;
+            }
+            if (present == count) {
+                out.write(ALL_PRESENT);
+            } else {
+                out.write(BITMAP);
+                for (int from = 0; from < count; from += 8) {
+                    int bits = 0;
+                    for (int i = from; i < Math.min(from + 8, count); i++) {
+                        if (value(series, column, i) != PriceSeries.NONE) {
+                            bits |= 1 << (i - from);
+                        }
+                    }
+                    out.write(bits);
+                }
+            }
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                long value = value(series, column, i);
+                if (value != PriceSeries.NONE) {
+                    out.writeVarint(zigzag(value - previous));
+                    previous = value;
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Read a series written by {@link #encode(PriceSeries, OutputStream)}
+     * @throws IllegalArgumentException if the stream does not hold a valid encoding
+     */
+    public static PriceSeries decode(InputStream stream) throws IOException {
+        Reader in = new Reader(stream);
+        for (byte expected : MAGIC) {
+            if (in.read() != expected) {
+                throw new IllegalArgumentException("Not an encoded price series");
+            }
+        }
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported price series encoding version " + version);
+        }
+        int scale = in.read();
+        if (scale != PriceSeries.SCALE) {
+            throw new IllegalArgumentException("Unsupported price series scale " + scale);
+        }
+        long count = in.readVarint();
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid price series size " + count);
+        }
+        int size = (int) count;
+
+        // Grown while reading rather than trusting the declared size up front
+        int[] days = new int[Math.min(size, BUFFER_SIZE)];
+        long day = 0;
+        for (int i = 0; i < size; i++) {
+            long varint = in.readVarint();
+            day = (i == 0) ? unzigzag(varint) : day + varint;
+            if (day < Integer.MIN_VALUE || day > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid epoch day " + day);
+            }
+            if (i == days.length) {
+                days = Arrays.copyOf(days, Math.min(size, days.length * 2));
+            }
+            days[i] = (int) day;
+        }
+
+        long[][] columns = new long[COLUMNS][];
+        for (int column = 0; column < COLUMNS; column++) {
+            long[] values = new long[size];
+            int flag = in.read();
+            if (flag == NONE_PRESENT) {
+                Arrays.fill(values, PriceSeries.NONE);
+            } else if (flag == ALL_PRESENT || flag == BITMAP) {
+                if (flag == BITMAP) {
+                    for (int from = 0; from < size; from += 8) {
+                        int bits = in.read();
+                        for (int i = from; i < Math.min(from + 8, size); i++) {
+                            values[i] = ((bits >>> (i - from)) & 1) != 0 ? 0 : PriceSeries.NONE;
+                        }
+                    }
+                }
+                long previous = 0;
+                for (int i = 0; i < size; i++) {
+                    if (values[i] != PriceSeries.NONE) {
+                        previous += unzigzag(in.readVarint());
+                        values[i] = previous;
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Invalid column flag " + flag);
+            }
+            columns[column] = values;
+        }
+
+        PriceSeries.Builder builder = PriceSeries.builder(size);
+        for (int i = 0; i < size; i++) {
+            builder.add(days[i], columns[0][i], columns[1][i], columns[2][i], columns[3][i], columns[4][i]);
+        }
+        return builder.build();
+    }
+
+    private static long value(PriceSeries series, int column, int index) {
+        switch (column) {
+            case 0:
+                return series.open(index);
+            case 1:
+                return series.high(index);
+            case 2:
+                return series.low(index);
+            case 3:
+                return series.close(index);
+            default:
+                return series.dividend(index);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private final OutputStream stream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+
+        private Writer(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        void write(int b) throws IOException {
+            if (position == buffer.length) {
+                drain();
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            for (byte b : bytes) {
+                write(b);
+            }
+        }
+
+        void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void flush() throws IOException {
+            drain();
+            stream.flush();
+        }
+
+        private void drain() throws IOException {
+            stream.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private static final class Reader {
+        private final InputStream stream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        private Reader(InputStream stream) {
+            this.stream = stream;
+        }
+
+        int read() throws IOException {
+            if (position == limit) {
+                limit = stream.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    throw new EOFException("Truncated price series");
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
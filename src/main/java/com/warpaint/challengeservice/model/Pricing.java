@@ -7,7 +7,6 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Value;
 
-import java.math.BigDecimal;
 import java.time.LocalDate;
 
 @Value
@@ -16,11 +15,11 @@ import java.time.LocalDate;
 @JsonInclude( Include.NON_EMPTY )
 public class Pricing {
 
-    private BigDecimal openPrice;
-    private BigDecimal closePrice;
-    private BigDecimal lowPrice;
-    private BigDecimal highPrice;
-    private BigDecimal dividend;
+    private Price openPrice;
+    private Price closePrice;
+    private Price lowPrice;
+    private Price highPrice;
+    private Price dividend;
     @JsonFormat(pattern = "yyyy-MM-dd")
     private LocalDate tradeDate;
 }
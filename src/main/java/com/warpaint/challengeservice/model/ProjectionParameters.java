@@ -0,0 +1,39 @@
+package com.warpaint.challengeservice.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Parameters of a Monte Carlo price projection
+ */
+@Value
+@Builder(toBuilder = true)
+public class ProjectionParameters {
+
+    /** Number of simulated paths */
+    int paths;
+
+    /** Projection horizon in years, projected prices are reported monthly */
+    int horizonYears;
+
+    /** Percentile reported as the low price of every projected month */
+    double lowerPercentile;
+
+    /** Percentile reported as the high price of every projected month */
+    double upperPercentile;
+
+    /** Seed of the random number generator, equal seeds give equal projections */
+    long seed;
+
+    public void validate() {
+        if (paths < 1 || paths > 1_000_000) {
+            throw new IllegalArgumentException("paths must be between 1 and 1000000");
+        }
+        if (horizonYears < 1 || horizonYears > 50) {
+            throw new IllegalArgumentException("horizonYears must be between 1 and 50");
+        }
+        if (!(lowerPercentile > 0 && lowerPercentile <= 50 && upperPercentile >= 50 && upperPercentile < 100)) {
+            throw new IllegalArgumentException("percentiles must satisfy 0 < lower <= 50 <= upper < 100");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.AssetAnalytics;
+import com.warpaint.challengeservice.model.PriceSeries;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rolling indicators of a price history: simple and exponential moving averages, volatility and returns over
+ * several windows, plus the drawdown.
+ * <p>
+ * All windows are computed together in a single pass over the closes. Every window keeps a running sum of its
+ * closes and a running mean and sum of squared deviations of its log returns, which are updated in O(1) as a day
+ * enters and the day {@code window} rows earlier leaves, reading the leaving values back from the primitive
+ * input arrays. Rows without a close are skipped.
+ */
+@Component
+public class AnalyticsEngine {
+
+    private static final int MAX_WINDOWS = 10;
+    private static final int MAX_WINDOW = 10 * ProjectionEngine.TRADING_DAYS_PER_YEAR;
+
+    private static final double ANNUALIZATION = Math.sqrt(ProjectionEngine.TRADING_DAYS_PER_YEAR);
+
+    /**
+     * @throws IllegalArgumentException unless there are 1 to {@value #MAX_WINDOWS} windows of 2 to
+     * {@value #MAX_WINDOW} days
+     */
+    public static void validate(int[] windows) {
+        if (windows == null || windows.length < 1 || windows.length > MAX_WINDOWS) {
+            throw new IllegalArgumentException("between 1 and " + MAX_WINDOWS + " windows must be requested");
+        }
+        for (int window : windows) {
+            if (window < 2 || window > MAX_WINDOW) {
+                throw new IllegalArgumentException("windows must be between 2 and " + MAX_WINDOW + " days");
+            }
+        }
+    }
+
+    public AssetAnalytics analyze(PriceSeries history, int[] windows) {
+        validate(windows);
+
+        int count = 0;
+        int[] epochDays = new int[history.size()];
+        double[] closes = new double[history.size()];
+        for (int i = 0; i < history.size(); i++) {
+            if (history.close(i) > 0) {
+                epochDays[count] = history.epochDay(i);
+                closes[count++] = history.closeAsDouble(i);
+            }
+        }
+        epochDays = Arrays.copyOf(epochDays, count);
+        closes = Arrays.copyOf(closes, count);
+
+        int windowCount = windows.length;
+        double[][] sma = new double[windowCount][count];
+        double[][] ema = new double[windowCount][count];
+        double[][] volatility = new double[windowCount][count];
+        double[][] returns = new double[windowCount][count];
+        double[] drawdown = new double[count];
+        double[] logReturns = new double[count];
+
+        double[] sums = new double[windowCount];
+        double[] averages = new double[windowCount];
+        double[] returnMeans = new double[windowCount];
+        double[] returnSquares = new double[windowCount];
+
+        double peak = Double.NaN;
+        int peakIndex = 0;
+        double maxDrawdown = 0;
+        int maxPeakIndex = 0;
+        int maxTroughIndex = 0;
+
+        for (int i = 0; i < count; i++) {
+            double close = closes[i];
+            logReturns[i] = (i > 0) ? Math.log(close / closes[i - 1]) : Double.NaN;
+
+            if (!(close <= peak)) {
+                peak = close;
+                peakIndex = i;
+            }
+            drawdown[i] = close / peak - 1;
+            if (drawdown[i] < maxDrawdown) {
+                maxDrawdown = drawdown[i];
+                maxPeakIndex = peakIndex;
+                maxTroughIndex = i;
+            }
+
+            for (int k = 0; k < windowCount; k++) {
+                int window = windows[k];
+
+                sums[k] += close;
+                if (i >= window) {
+                    sums[k] -= closes[i - window];
+                }
+                sma[k][i] = (i >= window - 1) ? sums[k] / window : Double.NaN;
+
+                if (i == window - 1) {
+                    averages[k] = sma[k][i];
+                } else if (i >= window) {
+                    averages[k] += 2.0 / (window + 1) * (close - averages[k]);
+                }
+                ema[k][i] = (i >= window - 1) ? averages[k] : Double.NaN;
+
+                returns[k][i] = (i >= window) ? close / closes[i - window] - 1 : Double.NaN;
+
+                // Welford over the window's log returns, the return of day 0 is undefined
+                if (i > 0) {
+                    int inWindow = Math.min(i, window);
+                    double added = logReturns[i];
+                    if (i > window) {
+                        double removed = logReturns[i - window];
+                        double mean = returnMeans[k] + (added - removed) / window;
+                        returnSquares[k] += (added - removed) * (added - mean + removed - returnMeans[k]);
+                        returnMeans[k] = mean;
+                    } else {
+                        double delta = added - returnMeans[k];
+                        returnMeans[k] += delta / inWindow;
+                        returnSquares[k] += delta * (added - returnMeans[k]);
+                    }
+                }
+                volatility[k][i] = (i >= window)
+                        ? Math.sqrt(Math.max(0, returnSquares[k]) / (window - 1)) * ANNUALIZATION
+                        : Double.NaN;
+            }
+        }
+
+        List<AssetAnalytics.Rolling> indicators = new ArrayList<>(windowCount);
+        for (int k = 0; k < windowCount; k++) {
+            indicators.add(AssetAnalytics.Rolling.builder()
+                    .window(windows[k])
+                    .sma(sma[k])
+                    .ema(ema[k])
+                    .volatility(volatility[k])
+                    .returns(returns[k])
+                    .build());
+        }
+        return AssetAnalytics.builder()
+                .epochDays(epochDays)
+                .close(closes)
+                .drawdown(drawdown)
+                .maxDrawdown(count == 0 ? null : new AssetAnalytics.Drawdown(maxDrawdown,
+                        LocalDate.ofEpochDay(epochDays[maxPeakIndex]), LocalDate.ofEpochDay(epochDays[maxTroughIndex])))
+                .indicators(indicators)
+                .build();
+    }
+}
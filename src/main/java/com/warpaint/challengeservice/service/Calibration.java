@@ -0,0 +1,43 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import lombok.Value;
+
+/**
+ * Mean (drift) and standard deviation (volatility) of the daily log returns of an asset
+ */
+@Value
+class Calibration {
+
+    double drift;
+    double volatility;
+
+    /**
+     * Calibrate from consecutive closing prices, {@code null} with fewer than two positive closes
+     */
+    static Calibration of(PriceSeries history) {
+        int count = 0;
+        double mean = 0;
+        double sumOfSquares = 0;
+        double previous = Double.NaN;
+        for (int i = 0; i < history.size(); i++) {
+            long close = history.close(i);
+            if (close <= 0) {
+                continue;
+            }
+            double logClose = Math.log(close);
+            if (!Double.isNaN(previous)) {
+                double logReturn = logClose - previous;
+                count++;
+                double delta = logReturn - mean;
+                mean += delta / count;
+                sumOfSquares += delta * (logReturn - mean);
+            }
+            previous = logClose;
+        }
+        if (count < 1) {
+            return null;
+        }
+        return new Calibration(mean, count > 1 ? Math.sqrt(sumOfSquares / (count - 1)) : 0);
+    }
+}
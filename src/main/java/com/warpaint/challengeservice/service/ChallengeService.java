@@ -1,31 +1,297 @@
 package com.warpaint.challengeservice.service;
 
+import com.warpaint.challengeservice.cluster.PeerClient;
+import com.warpaint.challengeservice.cluster.PeerUnavailableException;
+import com.warpaint.challengeservice.dataprovider.SymbolNotFoundException;
+import com.warpaint.challengeservice.dataprovider.UpstreamUnavailableException;
 import com.warpaint.challengeservice.dataprovider.YahooFinanceClient;
 import com.warpaint.challengeservice.model.Asset;
-import com.warpaint.challengeservice.model.Pricing;
+import com.warpaint.challengeservice.model.AssetAnalytics;
+import com.warpaint.challengeservice.model.AssetHistory;
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import com.warpaint.challengeservice.store.ResidentPriceStore;
+import com.warpaint.challengeservice.store.StoredPrices;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
 
 @Service
 @Slf4j
 @AllArgsConstructor
 public class ChallengeService {
 
+    private static final Period DEFAULT_HISTORY = Period.ofYears(30);
+
+    private static final Period CALIBRATION_HISTORY = Period.ofYears(10);
+
+    private static final int MAX_BATCH_SIZE = 500;
+
     private final YahooFinanceClient dataProvider;
 
-    public List<Pricing> getHistoricalAssetData(Asset asset) {
-        log.info("Fetching historical price data");
-        // TODO Implement getHistoricalAssetData()
-        return null;
+    private final ResidentPriceStore priceStore;
+
+    private final PriceSeriesCache priceCache;
+
+    private final PeerClient peers;
+
+    private final ProjectionEngine projectionEngine;
+
+    private final ProjectionCache projectionCache;
+
+    private final AnalyticsEngine analyticsEngine;
+
+    private final PortfolioEngine portfolioEngine;
+
+    private final ExecutorService fetchExecutor;
+
+    private final Clock clock;
+
+    public PriceSeries getHistoricalAssetData(Asset asset) {
+        return getHistoricalAssetData(asset, null, null);
+    }
+
+    public PriceSeries getHistoricalAssetData(Asset asset, LocalDate fromDate, LocalDate toDate) {
+        return join(getHistoricalAssetDataAsync(asset, fromDate, toDate));
+    }
+
+    /**
+     * Daily history between the two dates, both inclusive. Without an end date the history runs
+     * up to today, without a start date it covers the {@link #DEFAULT_HISTORY} before the end date.
+     * Histories missing from the cache are asked from the replica owning the symbol, if it is not this one.
+     * @see PeerClient
+     */
+    public CompletableFuture<PriceSeries> getHistoricalAssetDataAsync(Asset asset, LocalDate fromDate, LocalDate toDate) {
+        return history(asset, fromDate, toDate, this::fetchFromOwner);
+    }
+
+    /**
+     * Same history served by this replica without asking any other, for the peers that route the symbol here
+     */
+    public CompletableFuture<PriceSeries> getOwnedHistoricalAssetDataAsync(Asset asset, LocalDate fromDate, LocalDate toDate) {
+        return history(asset, fromDate, toDate, this::fetchWithStore);
+    }
+
+    private CompletableFuture<PriceSeries> history(Asset asset, LocalDate fromDate, LocalDate toDate, PriceSeriesCache.Loader loader) {
+        LocalDate to = (toDate != null) ? toDate : LocalDate.now(clock);
+        LocalDate from = (fromDate != null) ? fromDate : to.minus(DEFAULT_HISTORY);
+        log.info("Fetching historical price data for {} from {} to {}", asset.getSymbol(), from, to);
+        return priceCache.get(asset.getSymbol(), from, to, loader)
+                .handle((series, error) -> (error == null)
+                        ? CompletableFuture.completedFuture(series)
+                        : serveStale(asset.getSymbol(), from, to, error))
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * While Yahoo is unavailable, serve the part of the range the local store holds rather than failing.
+     * The stale history bypasses the cache, so fresh data is fetched again as soon as Yahoo recovers.
+     */
+    private CompletableFuture<PriceSeries> serveStale(String symbol, LocalDate from, LocalDate to, Throwable error) {
+        if (unwrap(error) instanceof UpstreamUnavailableException) {
+            PriceSeries stale = priceStore.read(symbol, from, to).getSeries();
+            if (!stale.isEmpty()) {
+                log.warn("Serving stored prices of {} from {} to {}: {}", symbol, from, to, unwrap(error).getMessage());
+                return CompletableFuture.completedFuture(stale);
+            }
+        }
+        CompletableFuture<PriceSeries> failed = new CompletableFuture<>();
+        failed.completeExceptionally(error);
+        return failed;
+    }
+
+    /**
+     * Histories of several assets fetched concurrently, keyed by symbol in request order. Upstream fetches are
+     * bounded by the per-route connection limit of the HTTP client. A failure only affects its own symbol.
+     */
+    public CompletableFuture<Map<String, AssetHistory>> getHistoricalAssetDataAsync(List<Asset> assets,
+                                                                                   LocalDate fromDate, LocalDate toDate) {
+        if (assets.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " symbols can be requested at once");
+        }
+        Map<String, CompletableFuture<AssetHistory>> pending = new LinkedHashMap<>();
+        for (Asset asset : assets) {
+            pending.computeIfAbsent(asset.getSymbol(), symbol -> getHistoricalAssetDataAsync(asset, fromDate, toDate)
+                    .thenApply(AssetHistory::of)
+                    .exceptionally(e -> failed(symbol, e)));
+        }
+
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture[0])).thenApply(done -> {
+            Map<String, AssetHistory> histories = new LinkedHashMap<>();
+            pending.forEach((symbol, history) -> histories.put(symbol, history.join()));
+            return histories;
+        });
+    }
+
+    private static AssetHistory failed(String symbol, Throwable e) {
+        Throwable cause = unwrap(e);
+        log.warn("Failed to fetch historical price data for {}: {}", symbol, cause.getMessage());
+        return AssetHistory.failed(cause.getMessage());
+    }
+
+    /**
+     * Ask the owner of the symbol, or fetch it here if this replica owns it or the owner does not answer.
+     * An answer of the owner, such as Yahoo being unavailable there too, is final: asking Yahoo from every
+     * replica would multiply the very load the owner avoids.
+     */
+    private CompletableFuture<PriceSeries> fetchFromOwner(String symbol, LocalDate from, LocalDate to) {
+        String owner = peers.ownerOf(symbol);
+        if (owner == null) {
+            return fetchWithStore(symbol, from, to);
+        }
+        return peers.fetch(owner, symbol, from, to)
+                .handle((series, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(series);
+                    }
+                    if (unwrap(error) instanceof PeerUnavailableException) {
+                        log.warn("Fetching {} without its owner: {}", symbol, unwrap(error).getMessage());
+                        return fetchWithStore(symbol, from, to);
+                    }
+                    CompletableFuture<PriceSeries> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(error);
+                    return failed;
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Serve the history from the local store, resident in memory, and only fetch the date ranges it does not
+     * cover yet. Only days whose session has closed in New York are stored, the bar of a session still running
+     * is always fetched again.
+     */
+    private CompletableFuture<PriceSeries> fetchWithStore(String symbol, LocalDate from, LocalDate to) {
+        StoredPrices stored = priceStore.read(symbol, from, to);
+        if (stored.covers(from, to)) {
+            log.debug("Serving {} from {} to {} from the local store", symbol, from, to);
+            return CompletableFuture.completedFuture(stored.getSeries());
+        }
+
+        LocalDate lastCompleteDay = MarketHours.lastCompleteDay(clock.instant());
+        if (stored.isEmpty()) {
+            return fetchAndStore(symbol, from, to, lastCompleteDay);
+        }
+
+        // Gaps are fetched up to the stored range so that the stored history stays contiguous
+        CompletableFuture<PriceSeries> before = from.isBefore(stored.getCoveredFrom())
+                ? fetchAndStore(symbol, from, stored.getCoveredFrom().minusDays(1), lastCompleteDay)
+                : CompletableFuture.completedFuture(PriceSeries.empty());
+        CompletableFuture<PriceSeries> after = to.isAfter(stored.getCoveredTo())
+                ? fetchAndStore(symbol, stored.getCoveredTo().plusDays(1), to, lastCompleteDay)
+                : CompletableFuture.completedFuture(PriceSeries.empty());
+        return before.thenCombine(after, (beforeRows, afterRows) -> PriceSeries.builder(stored.getSeries().size())
+                .addAll(beforeRows.slice(from, to))
+                .addAll(stored.getSeries())
+                .addAll(afterRows.slice(from, to))
+                .build());
+    }
+
+    /**
+     * Only successful downloads are stored: a failed one fails the future, and the empty history of a symbol
+     * unknown to Yahoo is served without being stored.
+     */
+    private CompletableFuture<PriceSeries> fetchAndStore(String symbol, LocalDate from, LocalDate to, LocalDate lastCompleteDay) {
+        return dataProvider.fetchPriceAndDividendDataAsync(symbol, from, to).handleAsync((fetched, error) -> {
+            if (error != null) {
+                if (unwrap(error) instanceof SymbolNotFoundException) {
+                    log.warn(unwrap(error).getMessage());
+                    return PriceSeries.empty();
+                }
+                throw (error instanceof CompletionException) ? (CompletionException) error : new CompletionException(error);
+            }
+            priceStore.merge(symbol, fetched, from, min(to, lastCompleteDay));
+            return fetched;
+        }, fetchExecutor);
+    }
+
+    private static LocalDate min(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    public PriceSeries getProjectedAssetData(Asset asset, ProjectionParameters parameters) {
+        return join(getProjectedAssetDataAsync(asset, parameters));
+    }
+
+    /**
+     * Monthly projection calibrated on the last {@link #CALIBRATION_HISTORY} of daily closes. The calibration is
+     * updated incrementally and the projection reused as long as the history does not change.
+     * @see ProjectionCache
+     */
+    public CompletableFuture<PriceSeries> getProjectedAssetDataAsync(Asset asset, ProjectionParameters parameters) {
+        parameters.validate();
+        log.info("Generating projected price data for {}", asset.getSymbol());
+        LocalDate today = LocalDate.now(clock);
+        return getHistoricalAssetDataAsync(asset, today.minus(CALIBRATION_HISTORY), today)
+                .thenApplyAsync(history -> projectionCache.get(asset.getSymbol(), history, parameters,
+                        projectionEngine::simulate), fetchExecutor);
+    }
+
+    /**
+     * Monthly projection of the value of a portfolio holding the given value of every asset, calibrated on the
+     * last {@link #CALIBRATION_HISTORY} of the days all assets have a close. Histories are fetched concurrently,
+     * the portfolio fails if any of them does.
+     * @see PortfolioEngine
+     */
+    public CompletableFuture<PriceSeries> getProjectedPortfolioDataAsync(Map<String, Double> weights,
+                                                                        ProjectionParameters parameters) {
+        List<String> symbols = new ArrayList<>(weights.keySet());
+        double[] amounts = new double[symbols.size()];
+        for (int i = 0; i < amounts.length; i++) {
+            Double weight = weights.get(symbols.get(i));
+            amounts[i] = (weight != null) ? weight : Double.NaN;
+        }
+        PortfolioEngine.validate(amounts, parameters);
+        log.info("Generating projected portfolio data for {} assets", symbols.size());
+
+        LocalDate today = LocalDate.now(clock);
+        List<CompletableFuture<PriceSeries>> histories = new ArrayList<>(symbols.size());
+        for (String symbol : symbols) {
+            histories.add(getHistoricalAssetDataAsync(new Asset(symbol), today.minus(CALIBRATION_HISTORY), today));
+        }
+        return CompletableFuture.allOf(histories.toArray(new CompletableFuture[0])).thenApplyAsync(done ->
+                portfolioEngine.project(histories.stream().map(CompletableFuture::join).collect(toList()), amounts,
+                        parameters), fetchExecutor);
+    }
+
+    /**
+     * Rolling indicators over the given windows of trading days, computed on the daily history between the two
+     * dates like {@link #getHistoricalAssetDataAsync(Asset, LocalDate, LocalDate)}
+     */
+    public CompletableFuture<AssetAnalytics> getAssetAnalyticsAsync(Asset asset, LocalDate fromDate, LocalDate toDate,
+                                                                    int[] windows) {
+        AnalyticsEngine.validate(windows);
+        log.info("Computing analytics of {} over windows {}", asset.getSymbol(), Arrays.toString(windows));
+        return getHistoricalAssetDataAsync(asset, fromDate, toDate)
+                .thenApplyAsync(history -> analyticsEngine.analyze(history, windows), fetchExecutor);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : e;
+        }
     }
 
-    public List<Pricing> getProjectedAssetData(Asset asset) {
-        log.info("Generating projected price data");
-        // TODO Implement getProjectedAssetData()
-        return null;
+    private static Throwable unwrap(Throwable e) {
+        return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
     }
 
 }
@@ -0,0 +1,37 @@
+package com.warpaint.challengeservice.service;
+
+import java.util.SplittableRandom;
+
+/**
+ * Standard normal variates drawn from a {@link SplittableRandom} with the Marsaglia polar method.
+ * Not thread-safe, every parallel task uses its own instance.
+ */
+final class GaussianRandom {
+
+    private final SplittableRandom random;
+    private double spareGaussian;
+    private boolean hasSpare;
+
+    GaussianRandom(SplittableRandom random) {
+        this.random = random;
+    }
+
+    double next() {
+        if (hasSpare) {
+            hasSpare = false;
+            return spareGaussian;
+        }
+        double u;
+        double v;
+        double s;
+        do {
+            u = 2 * random.nextDouble() - 1;
+            v = 2 * random.nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        double scale = Math.sqrt(-2 * Math.log(s) / s);
+        spareGaussian = v * scale;
+        hasSpare = true;
+        return u * scale;
+    }
+}
@@ -0,0 +1,57 @@
+package com.warpaint.challengeservice.service;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Regular trading session of the US equity markets, 9:30 to 16:00 New York time on weekdays.
+ * Exchange holidays are not taken into account: on those days the market is considered open,
+ * which only makes cached data expire earlier than necessary.
+ */
+final class MarketHours {
+
+    private static final ZoneId EXCHANGE_ZONE = ZoneId.of("America/New_York");
+    private static final LocalTime OPEN = LocalTime.of(9, 30);
+    private static final LocalTime CLOSE = LocalTime.of(16, 0);
+
+    private MarketHours() {
+    }
+
+    static boolean isOpen(Instant instant) {
+        ZonedDateTime time = instant.atZone(EXCHANGE_ZONE);
+        LocalTime localTime = time.toLocalTime();
+        return isTradingDay(time.getDayOfWeek()) && !localTime.isBefore(OPEN) && localTime.isBefore(CLOSE);
+    }
+
+    /**
+     * Start of the next regular session strictly after the given instant
+     */
+    static Instant nextOpen(Instant instant) {
+        ZonedDateTime time = instant.atZone(EXCHANGE_ZONE);
+        ZonedDateTime open = time.toLocalDate().atTime(OPEN).atZone(EXCHANGE_ZONE);
+        if (!open.isAfter(time)) {
+            open = open.plusDays(1);
+        }
+        while (!isTradingDay(open.getDayOfWeek())) {
+            open = open.plusDays(1);
+        }
+        return open.toInstant();
+    }
+
+    /**
+     * Last day whose regular session has closed at the given instant, the day before during and before the
+     * session of a New York day
+     */
+    static LocalDate lastCompleteDay(Instant instant) {
+        ZonedDateTime time = instant.atZone(EXCHANGE_ZONE);
+        return time.toLocalTime().isBefore(CLOSE) ? time.toLocalDate().minusDays(1) : time.toLocalDate();
+    }
+
+    private static boolean isTradingDay(DayOfWeek day) {
+        return day != DayOfWeek.SATURDAY && day != DayOfWeek.SUNDAY;
+    }
+}
@@ -0,0 +1,166 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Mean (drift) and covariance of the daily log returns of several assets, calibrated on the days all of them
+ * have a close.
+ * <p>
+ * The covariance matrix is computed in parallel tiles of {@value #BLOCK} by {@value #BLOCK} assets, each tile
+ * walking the centered returns of its assets in slices of {@value #TIME_BLOCK} days, so that the returns a
+ * tile reads stay in the CPU cache while every pair of them is multiplied. Only the upper triangle is computed.
+ */
+@AllArgsConstructor
+@Getter
+class PortfolioCalibration {
+
+    static final int BLOCK = 64;
+    private static final int TIME_BLOCK = 512;
+
+    /** Last day all assets have a close, the start of a projection */
+    private final LocalDate lastDate;
+
+    private final double[] drift;
+
+    private final double[][] covariance;
+
+    /**
+     * Calibrate from the closes of the days all histories have in common, {@code null} with fewer than three
+     * such days
+     */
+    static PortfolioCalibration of(List<PriceSeries> histories) {
+        int[] days = commonDays(histories);
+        if (days.length < 3) {
+            return null;
+        }
+        int assets = histories.size();
+        double[] drift = new double[assets];
+        double[][] returns = new double[assets][];
+        IntStream.range(0, assets).parallel().forEach(asset -> {
+            returns[asset] = logReturns(histories.get(asset), days);
+            drift[asset] = center(returns[asset]);
+        });
+        return new PortfolioCalibration(LocalDate.ofEpochDay(days[days.length - 1]), drift, covariance(returns));
+    }
+
+    /**
+     * Sample covariance matrix of the given centered series, which all have the same length
+     */
+    static double[][] covariance(double[][] centered) {
+        int assets = centered.length;
+        int length = centered[0].length;
+        double[][] covariance = new double[assets][assets];
+
+        int blocks = (assets + BLOCK - 1) / BLOCK;
+        int[] tileRows = new int[blocks * (blocks + 1) / 2];
+        int[] tileColumns = new int[tileRows.length];
+        for (int row = 0, tile = 0; row < blocks; row++) {
+            for (int column = row; column < blocks; column++, tile++) {
+                tileRows[tile] = row * BLOCK;
+                tileColumns[tile] = column * BLOCK;
+            }
+        }
+
+        // Tiles write disjoint cells, they only share the read-only returns
+        IntStream.range(0, tileRows.length).parallel().forEach(tile -> {
+            int rowEnd = Math.min(assets, tileRows[tile] + BLOCK);
+            int columnEnd = Math.min(assets, tileColumns[tile] + BLOCK);
+            for (int from = 0; from < length; from += TIME_BLOCK) {
+                int to = Math.min(length, from + TIME_BLOCK);
+                for (int i = tileRows[tile]; i < rowEnd; i++) {
+                    double[] x = centered[i];
+                    double[] row = covariance[i];
+                    for (int j = Math.max(i, tileColumns[tile]); j < columnEnd; j++) {
+                        double[] y = centered[j];
+                        double sum = 0;
+                        for (int t = from; t < to; t++) {
+                            sum += x[t] * y[t];
+                        }
+                        row[j] += sum;
+                    }
+                }
+            }
+        });
+
+        for (int i = 0; i < assets; i++) {
+            for (int j = i; j < assets; j++) {
+                covariance[i][j] /= length - 1;
+                covariance[j][i] = covariance[i][j];
+            }
+        }
+        return covariance;
+    }
+
+    /**
+     * Ascending days on which every history has a positive close
+     */
+    private static int[] commonDays(List<PriceSeries> histories) {
+        int[] common = null;
+        for (PriceSeries history : histories) {
+            int[] days = new int[history.size()];
+            int count = 0;
+            int c = 0;
+            for (int i = 0; i < history.size(); i++) {
+                if (history.close(i) <= 0) {
+                    continue;
+                }
+                int day = history.epochDay(i);
+                if (common == null) {
+                    days[count++] = day;
+                    continue;
+                }
+                while (c < common.length && common[c] < day) {
+                    c++;
+                }
+                if (c < common.length && common[c] == day) {
+                    days[count++] = day;
+                }
+            }
+            common = Arrays.copyOf(days, count);
+        }
+        return (common != null) ? common : new int[0];
+    }
+
+    /**
+     * Log returns between the closes of consecutive common days
+     */
+    private static double[] logReturns(PriceSeries history, int[] days) {
+        double[] returns = new double[days.length - 1];
+        double previous = Double.NaN;
+        int i = 0;
+        for (int d = 0; d < days.length; d++) {
+            while (history.epochDay(i) < days[d]) {
+                i++;
+            }
+            double logClose = Math.log(history.close(i));
+            if (d > 0) {
+                returns[d - 1] = logClose - previous;
+            }
+            previous = logClose;
+        }
+        return returns;
+    }
+
+    /**
+     * Subtract the mean from every value
+     * @return the mean
+     */
+    private static double center(double[] values) {
+        double mean = 0;
+        for (double value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+        for (int i = 0; i < values.length; i++) {
+            values[i] -= mean;
+        }
+        return mean;
+    }
+}
@@ -0,0 +1,216 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Monte Carlo projection of the value of a buy-and-hold portfolio whose assets follow correlated geometric
+ * Brownian motions.
+ * <p>
+ * Drifts and the covariance matrix of the daily log returns are calibrated on the common history of the assets
+ * (see {@link PortfolioCalibration}), scaled to a month and factored with a Cholesky decomposition L, so that
+ * L times a vector of independent standard normals has the monthly covariance. Like {@link ProjectionEngine},
+ * paths are advanced one month at a time in fixed chunks on the fork/join pool, each with its own random
+ * stream. A chunk multiplies L with the normals of all its paths at once, {@value PortfolioCalibration#BLOCK}
+ * columns of L at a time, so that the inner loop runs over contiguous paths and the normals it reads stay in
+ * the CPU cache. Every month reports the median and the configured percentiles of the portfolio value.
+ */
+@Component
+@Slf4j
+public class PortfolioEngine {
+
+    public static final int MAX_ASSETS = 500;
+
+    /** Paths times assets, bounds the memory of the simulated log returns */
+    private static final long MAX_SIMULATED_RETURNS = 5_000_000L;
+
+    /** Paths per parallel chunk, fixed so that the random streams do not depend on the core count */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * @throws IllegalArgumentException unless there are 1 to {@value #MAX_ASSETS} positive finite weights and
+     * the paths times the assets do not exceed {@value #MAX_SIMULATED_RETURNS}
+     */
+    public static void validate(double[] weights, ProjectionParameters parameters) {
+        parameters.validate();
+        if (weights.length < 1 || weights.length > MAX_ASSETS) {
+            throw new IllegalArgumentException("a portfolio must hold between 1 and " + MAX_ASSETS + " assets");
+        }
+        for (double weight : weights) {
+            if (!(weight > 0) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("weights must be positive");
+            }
+        }
+        if ((long) parameters.getPaths() * weights.length > MAX_SIMULATED_RETURNS) {
+            throw new IllegalArgumentException("paths times assets must not exceed " + MAX_SIMULATED_RETURNS);
+        }
+    }
+
+    /**
+     * Project the monthly value of a portfolio holding the given value of every asset on the last common day of
+     * the histories, so the projection starts from the sum of the weights
+     * @return close as median, low and high as lower and upper percentile of the portfolio value of every
+     * projected month, empty if the common history is too short to calibrate
+     */
+    public PriceSeries project(List<PriceSeries> histories, double[] weights, ProjectionParameters parameters) {
+        validate(weights, parameters);
+        if (histories.size() != weights.length) {
+            throw new IllegalArgumentException("Expected one history per weight");
+        }
+        PortfolioCalibration calibration = PortfolioCalibration.of(histories);
+        if (calibration == null) {
+            log.warn("Not enough common history to calibrate a projection of {} assets", histories.size());
+            return PriceSeries.empty();
+        }
+        return simulate(calibration, weights, parameters);
+    }
+
+    PriceSeries simulate(PortfolioCalibration calibration, double[] weights, ProjectionParameters parameters) {
+        int assets = weights.length;
+        int months = parameters.getHorizonYears() * ProjectionEngine.MONTHS_PER_YEAR;
+        double[] monthlyDrift = new double[assets];
+        double[][] monthlyCovariance = new double[assets][assets];
+        for (int i = 0; i < assets; i++) {
+            monthlyDrift[i] = calibration.getDrift()[i] * ProjectionEngine.TRADING_DAYS_PER_MONTH;
+            for (int j = 0; j < assets; j++) {
+                monthlyCovariance[i][j] = calibration.getCovariance()[i][j] * ProjectionEngine.TRADING_DAYS_PER_MONTH;
+            }
+        }
+        double[][] factor = cholesky(monthlyCovariance);
+        log.debug("Simulating {} paths of {} assets over {} months", parameters.getPaths(), assets, months);
+
+        double[] values = new double[parameters.getPaths()];
+        Chunk[] chunks = Chunk.split(values.length, assets, new SplittableRandom(parameters.getSeed()));
+
+        int median = ProjectionEngine.rank(50, values.length);
+        int lower = ProjectionEngine.rank(parameters.getLowerPercentile(), values.length);
+        int upper = ProjectionEngine.rank(parameters.getUpperPercentile(), values.length);
+
+        LocalDate startDate = calibration.getLastDate();
+        PriceSeries.Builder projection = PriceSeries.builder(months);
+        for (int month = 1; month <= months; month++) {
+            IntStream.range(0, chunks.length).parallel()
+                    .forEach(chunk -> chunks[chunk].advance(values, monthlyDrift, factor, weights));
+
+            // Every chunk recomputes its values from its own log returns, so reordering them here is harmless
+            double medianValue = ProjectionEngine.select(values, 0, values.length - 1, median);
+            double lowerValue = ProjectionEngine.select(values, 0, median, lower);
+            double upperValue = ProjectionEngine.select(values, median, values.length - 1, upper);
+
+            projection.add((int) startDate.plusMonths(month).toEpochDay(),
+                    PriceSeries.NONE,
+                    ProjectionEngine.toFixed(upperValue),
+                    ProjectionEngine.toFixed(lowerValue),
+                    ProjectionEngine.toFixed(medianValue),
+                    PriceSeries.NONE);
+        }
+        return projection.build();
+    }
+
+    /**
+     * Lower triangular L with L times its transpose equal to the given symmetric positive semi-definite matrix.
+     * Rows are stored contiguously, so every entry is the dot product of two row prefixes. A column whose pivot
+     * vanishes, e.g. of an asset duplicating another, is left zero rather than failing.
+     */
+    static double[][] cholesky(double[][] matrix) {
+        int n = matrix.length;
+        double[][] factor = new double[n][n];
+        for (int j = 0; j < n; j++) {
+            double[] row = factor[j];
+            double pivot = matrix[j][j] - dot(row, row, j);
+            if (pivot <= 1e-12 * matrix[j][j] || pivot <= 0) {
+                continue;
+            }
+            double diagonal = Math.sqrt(pivot);
+            row[j] = diagonal;
+            for (int i = j + 1; i < n; i++) {
+                factor[i][j] = (matrix[i][j] - dot(factor[i], row, j)) / diagonal;
+            }
+        }
+        return factor;
+    }
+
+    private static double dot(double[] x, double[] y, int length) {
+        double sum = 0;
+        for (int k = 0; k < length; k++) {
+            sum += x[k] * y[k];
+        }
+        return sum;
+    }
+
+    /**
+     * Fixed range of paths sharing one random stream, with the log return of every asset on every path laid out
+     * asset by asset
+     */
+    private static final class Chunk {
+        private final int from;
+        private final GaussianRandom random;
+        private final double[][] logReturns;
+        private final double[][] normals;
+
+        private Chunk(int from, int to, int assets, SplittableRandom random) {
+            this.from = from;
+            this.random = new GaussianRandom(random);
+            this.logReturns = new double[assets][to - from];
+            this.normals = new double[assets][to - from];
+        }
+
+        static Chunk[] split(int paths, int assets, SplittableRandom seed) {
+            Chunk[] chunks = new Chunk[(paths + CHUNK_SIZE - 1) / CHUNK_SIZE];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new Chunk(i * CHUNK_SIZE, Math.min(paths, (i + 1) * CHUNK_SIZE), assets, seed.split());
+            }
+            return chunks;
+        }
+
+        void advance(double[] values, double[] drift, double[][] factor, double[] weights) {
+            int assets = logReturns.length;
+            int size = logReturns[0].length;
+            for (int asset = 0; asset < assets; asset++) {
+                double[] z = normals[asset];
+                double[] x = logReturns[asset];
+                for (int path = 0; path < size; path++) {
+                    z[path] = random.next();
+                    x[path] += drift[asset];
+                }
+            }
+
+            for (int blockStart = 0; blockStart < assets; blockStart += PortfolioCalibration.BLOCK) {
+                int blockEnd = Math.min(assets, blockStart + PortfolioCalibration.BLOCK);
+                for (int asset = blockStart; asset < assets; asset++) {
+                    double[] x = logReturns[asset];
+                    double[] row = factor[asset];
+                    int end = Math.min(blockEnd, asset + 1);
+                    for (int k = blockStart; k < end; k++) {
+                        double loading = row[k];
+                        if (loading == 0) {
+                            continue;
+                        }
+                        double[] z = normals[k];
+                        for (int path = 0; path < size; path++) {
+                            x[path] += loading * z[path];
+                        }
+                    }
+                }
+            }
+
+            for (int path = 0; path < size; path++) {
+                values[from + path] = 0;
+            }
+            for (int asset = 0; asset < assets; asset++) {
+                double[] x = logReturns[asset];
+                double weight = weights[asset];
+                for (int path = 0; path < size; path++) {
+                    values[from + path] += weight * Math.exp(x[path]);
+                }
+            }
+        }
+    }
+}
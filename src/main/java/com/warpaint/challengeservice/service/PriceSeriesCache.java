@@ -0,0 +1,246 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-memory cache of price histories keyed by symbol.
+ * <p>
+ * Each entry remembers the date range it was loaded for, so any sub-range is served by slicing the cached
+ * series. Entries are evicted in least-recently-used order once the total number of cached rows exceeds
+ * the configured weight. While the market is open entries live for a short TTL, outside market hours they
+ * stay valid until the next session opens. Concurrent misses for the same symbol share one load.
+ */
+@Component
+@Slf4j
+public class PriceSeriesCache implements MeterBinder {
+
+    @FunctionalInterface
+    public interface Loader {
+        CompletableFuture<PriceSeries> load(String symbol, LocalDate from, LocalDate to);
+    }
+
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    private final long maxRows;
+    private final Duration marketOpenTtl;
+    private final Clock clock;
+
+    // Access ordered for LRU eviction, guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedRows;
+
+    private final ConcurrentMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sharedLoads = new LongAdder();
+
+    @Autowired
+    public PriceSeriesCache(@Value("${com.warpaint.marketdata.cache.max-rows:2000000}") long maxRows,
+                            @Value("${com.warpaint.marketdata.cache.market-open-ttl-seconds:60}") long marketOpenTtlSeconds) {
+        this(maxRows, Duration.ofSeconds(marketOpenTtlSeconds), Clock.systemUTC());
+    }
+
+    PriceSeriesCache(long maxRows, Duration marketOpenTtl, Clock clock) {
+        this.maxRows = maxRows;
+        this.marketOpenTtl = marketOpenTtl;
+        this.clock = clock;
+    }
+
+    /**
+     * History of the symbol between the two dates, both inclusive, loading it on a miss
+     */
+    public CompletableFuture<PriceSeries> get(String symbol, LocalDate from, LocalDate to, Loader loader) {
+        return get(symbol, from, to, loader, 1);
+    }
+
+    private CompletableFuture<PriceSeries> get(String symbol, LocalDate from, LocalDate to, Loader loader, int attempt) {
+        Entry cached = lookup(symbol);
+        if (cached != null && cached.covers(from, to)) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached.series.slice(from, to));
+        }
+
+        // Extend the cached range rather than replacing it, the store behind the loader makes this cheap
+        LocalDate loadFrom = (cached != null && cached.from.isBefore(from)) ? cached.from : from;
+        LocalDate loadTo = (cached != null && cached.to.isAfter(to)) ? cached.to : to;
+        InFlight load = new InFlight(loadFrom, loadTo);
+        InFlight running = inFlight.putIfAbsent(symbol, load);
+        if (running == null) {
+            // A load completing between the lookup and here has already cached its entry and left inFlight
+            Entry loaded = lookup(symbol);
+            if (loaded != null && loaded.covers(load.from, load.to)) {
+                inFlight.remove(symbol, load);
+                load.future.complete(loaded);
+                hits.increment();
+                return CompletableFuture.completedFuture(loaded.series.slice(from, to));
+            }
+            misses.increment();
+            start(symbol, load, loader);
+            return load.future.thenApply(entry -> entry.series.slice(from, to));
+        }
+        if (running.covers(from, to)) {
+            log.debug("Sharing in-flight load of {}", symbol);
+            sharedLoads.increment();
+            return running.future.thenApply(entry -> entry.series.slice(from, to));
+        }
+        if (attempt == MAX_LOAD_ATTEMPTS) {
+            // Stop queueing behind loads of other ranges, load this one without caching it
+            return loader.load(symbol, from, to);
+        }
+        return running.future
+                .handle((entry, error) -> attempt)
+                .thenCompose(previous -> get(symbol, from, to, loader, previous + 1));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("price.cache.requests", hits, LongAdder::doubleValue).tag("result", "hit").register(registry);
+        FunctionCounter.builder("price.cache.requests", misses, LongAdder::doubleValue).tag("result", "miss").register(registry);
+        FunctionCounter.builder("price.cache.requests", sharedLoads, LongAdder::doubleValue).tag("result", "shared").register(registry);
+        Gauge.builder("price.cache.rows", this, PriceSeriesCache::getCachedRows).register(registry);
+    }
+
+    /**
+     * Drop every cached entry of the symbol. A load already in flight still serves its waiters but is not cached.
+     */
+    public void invalidate(String symbol) {
+        synchronized (entries) {
+            InFlight running = inFlight.get(symbol);
+            if (running != null) {
+                running.invalidated = true;
+            }
+            Entry removed = entries.remove(symbol);
+            if (removed != null) {
+                cachedRows -= removed.series.size();
+            }
+        }
+    }
+
+    long getCachedRows() {
+        synchronized (entries) {
+            return cachedRows;
+        }
+    }
+
+    private void start(String symbol, InFlight load, Loader loader) {
+        CompletableFuture<PriceSeries> loading;
+        try {
+            loading = loader.load(symbol, load.from, load.to);
+        }
+        catch (RuntimeException e) {
+            loading = new CompletableFuture<>();
+            loading.completeExceptionally(e);
+        }
+        loading.whenComplete((series, error) -> {
+            if (error != null) {
+                inFlight.remove(symbol, load);
+                load.future.completeExceptionally(error);
+                return;
+            }
+            Entry entry = new Entry(series, load.from, load.to, expiry());
+            put(symbol, load, entry);
+            inFlight.remove(symbol, load);
+            load.future.complete(entry);
+        });
+    }
+
+    private Entry lookup(String symbol) {
+        synchronized (entries) {
+            Entry entry = entries.get(symbol);
+            if (entry != null && !clock.instant().isBefore(entry.expiresAt)) {
+                entries.remove(symbol);
+                cachedRows -= entry.series.size();
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void put(String symbol, InFlight load, Entry entry) {
+        synchronized (entries) {
+            if (load.invalidated) {
+                log.debug("Not caching {} loaded before its invalidation", symbol);
+                return;
+            }
+            Entry previous = entries.remove(symbol);
+            if (previous != null) {
+                cachedRows -= previous.series.size();
+            }
+            if (entry.series.size() > maxRows) {
+                // A single series above the limit is still served, just not kept
+                return;
+            }
+            entries.put(symbol, entry);
+            cachedRows += entry.series.size();
+
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (cachedRows > maxRows) {
+                Map.Entry<String, Entry> evicted = eldest.next();
+                cachedRows -= evicted.getValue().series.size();
+                eldest.remove();
+                log.debug("Evicted {} from the price cache", evicted.getKey());
+            }
+        }
+    }
+
+    private Instant expiry() {
+        Instant now = clock.instant();
+        return MarketHours.isOpen(now) ? now.plus(marketOpenTtl) : MarketHours.nextOpen(now);
+    }
+
+    private static final class Entry {
+        private final PriceSeries series;
+        private final LocalDate from;
+        private final LocalDate to;
+        private final Instant expiresAt;
+
+        private Entry(PriceSeries series, LocalDate from, LocalDate to, Instant expiresAt) {
+            this.series = series;
+            this.from = from;
+            this.to = to;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean covers(LocalDate from, LocalDate to) {
+            return !from.isBefore(this.from) && !to.isAfter(this.to);
+        }
+    }
+
+    private static final class InFlight {
+        private final LocalDate from;
+        private final LocalDate to;
+        private final CompletableFuture<Entry> future = new CompletableFuture<>();
+        // Guarded by entries
+        private boolean invalidated;
+
+        private InFlight(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean covers(LocalDate from, LocalDate to) {
+            return !from.isBefore(this.from) && !to.isAfter(this.to);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Projections of recently requested symbols and the running calibration they were computed from.
+ * <p>
+ * Every symbol keeps a {@link RunningCalibration} that is moved forward with each calibration history, which
+ * costs only the bars added or dropped since the previous request. A projection is cached under the symbol,
+ * its parameters and the version of that calibration, so repeating a projection on unchanged data skips the
+ * simulation. At most {@code max-entries} projections and as many calibrations are kept, each evicted in
+ * least-recently-used order. A calibration created again after its eviction never matches the projections of the
+ * evicted one, which age out in turn.
+ */
+@Component
+@Slf4j
+public class ProjectionCache implements MeterBinder {
+
+    @FunctionalInterface
+    interface Simulation {
+        PriceSeries simulate(LocalDate startDate, double startPrice, Calibration calibration, ProjectionParameters parameters);
+    }
+
+    private final int maxEntries;
+
+    // Access ordered for LRU eviction, guarded by itself
+    private final LinkedHashMap<String, Calibrating> calibrations;
+
+    private final AtomicLong calibrationIds = new AtomicLong();
+
+    // Access ordered for LRU eviction, guarded by itself
+    private final LinkedHashMap<Key, PriceSeries> projections;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Autowired
+    public ProjectionCache(@Value("${com.warpaint.marketdata.projection-cache.max-entries:1000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.calibrations = new LinkedHashMap<String, Calibrating>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Calibrating> eldest) {
+                return size() > ProjectionCache.this.maxEntries;
+            }
+        };
+        this.projections = new LinkedHashMap<Key, PriceSeries>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PriceSeries> eldest) {
+                return size() > ProjectionCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Projection following the calibration history of the symbol, simulated only if the history changed since
+     * the same projection was last requested
+     * @return the projection, empty if the history is too short to calibrate
+     */
+    PriceSeries get(String symbol, PriceSeries history, ProjectionParameters parameters, Simulation simulation) {
+        Calibrating calibrating;
+        synchronized (calibrations) {
+            calibrating = calibrations.computeIfAbsent(symbol, key -> new Calibrating(calibrationIds.incrementAndGet()));
+        }
+        RunningCalibration running = calibrating.running;
+        Calibration calibration;
+        LocalDate startDate;
+        double startPrice;
+        Key key;
+        synchronized (running) {
+            running.update(history);
+            calibration = running.calibration();
+            if (calibration == null) {
+                log.warn("Not enough history to calibrate a projection of {}: {}", symbol, history);
+                return PriceSeries.empty();
+            }
+            startDate = running.lastDate();
+            startPrice = running.lastClose();
+            key = new Key(symbol, parameters, calibrating.id, running.version());
+        }
+
+        synchronized (projections) {
+            PriceSeries cached = projections.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        PriceSeries projection = simulation.simulate(startDate, startPrice, calibration, parameters);
+        synchronized (projections) {
+            projections.put(key, projection);
+        }
+        return projection;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("projection.cache.requests", hits, LongAdder::doubleValue).tag("result", "hit").register(registry);
+        FunctionCounter.builder("projection.cache.requests", misses, LongAdder::doubleValue).tag("result", "miss").register(registry);
+    }
+
+    long getCalibrationCount() {
+        synchronized (calibrations) {
+            return calibrations.size();
+        }
+    }
+
+    /**
+     * Running calibration of a symbol, identified apart from the calibrations of the symbol evicted before it
+     */
+    private static final class Calibrating {
+        private final long id;
+        private final RunningCalibration running = new RunningCalibration();
+
+        private Calibrating(long id) {
+            this.id = id;
+        }
+    }
+
+    @lombok.Value
+    private static class Key {
+        String symbol;
+        ProjectionParameters parameters;
+        long calibrationId;
+        long version;
+    }
+}
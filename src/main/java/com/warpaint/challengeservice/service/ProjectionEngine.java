@@ -0,0 +1,161 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Monte Carlo projection of future prices under geometric Brownian motion.
+ * <p>
+ * Drift and volatility of the daily log returns are calibrated from the historical closing prices.
+ * Paths are advanced one month at a time, which is exact for geometric Brownian motion, and every
+ * month reports the median and the configured percentile bands across all paths. Paths are split in
+ * fixed chunks advanced in parallel on the fork/join pool, each chunk drawing from its own
+ * {@link SplittableRandom} derived from the seed, so a given seed always yields the same projection
+ * regardless of scheduling. Simulating a month does not allocate.
+ */
+@Component
+@Slf4j
+public class ProjectionEngine {
+
+    static final int TRADING_DAYS_PER_YEAR = 252;
+    static final int MONTHS_PER_YEAR = 12;
+    static final double TRADING_DAYS_PER_MONTH = (double) TRADING_DAYS_PER_YEAR / MONTHS_PER_YEAR;
+
+    /** Paths per parallel chunk, fixed so that the random streams do not depend on the core count */
+    private static final int CHUNK_SIZE = 4096;
+
+    private static final double FIXED_POINT_UNIT = 1_000_000d;
+
+    /**
+     * Project monthly prices following the last row of the history
+     * @return close as median, low and high as lower and upper percentile of every projected month,
+     * empty if the history is too short to calibrate
+     */
+    public PriceSeries project(PriceSeries history, ProjectionParameters parameters) {
+        parameters.validate();
+        Calibration calibration = Calibration.of(history);
+        if (calibration == null) {
+            log.warn("Not enough history to calibrate a projection: {}", history);
+            return PriceSeries.empty();
+        }
+        int last = history.size() - 1;
+        return simulate(history.tradeDate(last), history.closeAsDouble(last), calibration, parameters);
+    }
+
+    PriceSeries simulate(LocalDate startDate, double startPrice, Calibration calibration, ProjectionParameters parameters) {
+        int months = parameters.getHorizonYears() * MONTHS_PER_YEAR;
+        double monthlyDrift = calibration.getDrift() * TRADING_DAYS_PER_MONTH;
+        double monthlyVolatility = calibration.getVolatility() * Math.sqrt(TRADING_DAYS_PER_MONTH);
+        log.debug("Simulating {} paths over {} months, monthly drift {} and volatility {}",
+                parameters.getPaths(), months, monthlyDrift, monthlyVolatility);
+
+        double[] logReturns = new double[parameters.getPaths()];
+        Chunk[] chunks = Chunk.split(logReturns.length, new SplittableRandom(parameters.getSeed()));
+
+        int median = rank(50, logReturns.length);
+        int lower = rank(parameters.getLowerPercentile(), logReturns.length);
+        int upper = rank(parameters.getUpperPercentile(), logReturns.length);
+
+        PriceSeries.Builder projection = PriceSeries.builder(months);
+        for (int month = 1; month <= months; month++) {
+            IntStream.range(0, chunks.length).parallel()
+                    .forEach(chunk -> chunks[chunk].advance(logReturns, monthlyDrift, monthlyVolatility));
+
+            // Paths are exchangeable, so reordering them while selecting does not bias the following months
+            double medianReturn = select(logReturns, 0, logReturns.length - 1, median);
+            double lowerReturn = select(logReturns, 0, median, lower);
+            double upperReturn = select(logReturns, median, logReturns.length - 1, upper);
+
+            projection.add((int) startDate.plusMonths(month).toEpochDay(),
+                    PriceSeries.NONE,
+                    toFixed(startPrice * Math.exp(upperReturn)),
+                    toFixed(startPrice * Math.exp(lowerReturn)),
+                    toFixed(startPrice * Math.exp(medianReturn)),
+                    PriceSeries.NONE);
+        }
+        return projection.build();
+    }
+
+    static int rank(double percentile, int count) {
+        return (int) Math.round(percentile / 100 * (count - 1));
+    }
+
+    static long toFixed(double price) {
+        return Math.round(price * FIXED_POINT_UNIT);
+    }
+
+    /**
+     * Quickselect: move the k-th smallest value of {@code values[from..to]} to index k and return it
+     */
+    static double select(double[] values, int from, int to, int k) {
+        int left = from;
+        int right = to;
+        while (left < right) {
+            double pivot = median(values[left], values[(left + right) >>> 1], values[right]);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /**
+     * Fixed range of paths sharing one random stream
+     */
+    private static final class Chunk {
+        private final int from;
+        private final int to;
+        private final GaussianRandom random;
+
+        private Chunk(int from, int to, SplittableRandom random) {
+            this.from = from;
+            this.to = to;
+            this.random = new GaussianRandom(random);
+        }
+
+        static Chunk[] split(int paths, SplittableRandom seed) {
+            Chunk[] chunks = new Chunk[(paths + CHUNK_SIZE - 1) / CHUNK_SIZE];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new Chunk(i * CHUNK_SIZE, Math.min(paths, (i + 1) * CHUNK_SIZE), seed.split());
+            }
+            return chunks;
+        }
+
+        void advance(double[] logReturns, double drift, double volatility) {
+            for (int path = from; path < to; path++) {
+                logReturns[path] += drift + volatility * random.next();
+            }
+        }
+    }
+}
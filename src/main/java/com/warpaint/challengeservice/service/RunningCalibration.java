@@ -0,0 +1,221 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+
+import java.time.LocalDate;
+
+/**
+ * {@link Calibration} of one symbol kept up to date as its history moves forward.
+ * <p>
+ * The positive closes of the calibration window are kept in a ring buffer together with Welford's running mean
+ * and sum of squared deviations of the log returns between them. Appending a new bar, dropping the oldest one
+ * as the window start moves, or replacing the provisional bar of the current session are each O(1), so an
+ * update only costs the bars that changed and a binary search to line the new history up with the kept one.
+ * The result equals {@link Calibration#of(PriceSeries)} of the same window up to rounding. The statistics are
+ * recomputed from scratch once as many bars were removed as the window holds, so rounding errors cannot pile up.
+ * <p>
+ * Not thread-safe, callers synchronize on the instance.
+ */
+final class RunningCalibration {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Ring buffer of the positive closes in the window, oldest first
+    private int[] days = new int[INITIAL_CAPACITY];
+    private long[] closes = new long[INITIAL_CAPACITY];
+    private double[] logCloses = new double[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+
+    // Welford state of the size - 1 log returns between consecutive closes
+    private double mean;
+    private double sumOfSquares;
+
+    private int removedSinceRebuild;
+
+    /** Incremented on every change of the window, identifies the data a projection was computed from */
+    private long version;
+
+    /**
+     * Move the window to the given history, which usually only differs from the previous one by a few bars at
+     * either end. Any other difference rebuilds the statistics from the history.
+     * @return whether the window changed
+     */
+    boolean update(PriceSeries history) {
+        int first = firstPositive(history);
+        if (first < 0) {
+            boolean changed = size > 0;
+            clear();
+            return bump(changed);
+        }
+        if (size == 0 || history.epochDay(first) < days[index(0)]) {
+            return rebuild(history, first);
+        }
+
+        // The last bar of the current session is provisional, its close may have changed since the last update
+        boolean changed = false;
+        int matched = matching(history);
+        if (matched < 0) {
+            removeLast();
+            changed = true;
+            matched = matching(history);
+            if (matched < 0) {
+                return rebuild(history, first);
+            }
+        }
+
+        for (int i = matched + 1; i < history.size(); i++) {
+            if (history.close(i) > 0) {
+                append(history.epochDay(i), history.close(i));
+                changed = true;
+            }
+        }
+        while (size > 0 && days[index(0)] < history.epochDay(first)) {
+            removeFirst();
+            changed = true;
+        }
+        if (removedSinceRebuild > size) {
+            return rebuild(history, first);
+        }
+        return bump(changed);
+    }
+
+    /**
+     * Drift and volatility of the window, {@code null} with fewer than two closes
+     */
+    Calibration calibration() {
+        if (size < 2) {
+            return null;
+        }
+        int count = size - 1;
+        return new Calibration(mean, count > 1 ? Math.sqrt(sumOfSquares / (count - 1)) : 0);
+    }
+
+    long version() {
+        return version;
+    }
+
+    LocalDate lastDate() {
+        return LocalDate.ofEpochDay(days[index(size - 1)]);
+    }
+
+    double lastClose() {
+        return closes[index(size - 1)] / 1_000_000d;
+    }
+
+    /**
+     * Index in the history of the last kept bar, -1 if the history does not hold it with the same close
+     */
+    private int matching(PriceSeries history) {
+        if (size == 0) {
+            return -1;
+        }
+        int last = index(size - 1);
+        int i = history.indexOnOrAfter(days[last]);
+        return (i < history.size() && history.epochDay(i) == days[last] && history.close(i) == closes[last]) ? i : -1;
+    }
+
+    private boolean rebuild(PriceSeries history, int first) {
+        clear();
+        for (int i = first; i < history.size(); i++) {
+            if (history.close(i) > 0) {
+                append(history.epochDay(i), history.close(i));
+            }
+        }
+        return bump(true);
+    }
+
+    private boolean bump(boolean changed) {
+        if (changed) {
+            version++;
+        }
+        return changed;
+    }
+
+    private void clear() {
+        head = 0;
+        size = 0;
+        mean = 0;
+        sumOfSquares = 0;
+        removedSinceRebuild = 0;
+    }
+
+    private void append(int day, long close) {
+        if (size == days.length) {
+            grow();
+        }
+        double logClose = Math.log(close);
+        if (size > 0) {
+            double logReturn = logClose - logCloses[index(size - 1)];
+            int count = size;
+            double delta = logReturn - mean;
+            mean += delta / count;
+            sumOfSquares += delta * (logReturn - mean);
+        }
+        int slot = index(size);
+        days[slot] = day;
+        closes[slot] = close;
+        logCloses[slot] = logClose;
+        size++;
+    }
+
+    private void removeFirst() {
+        if (size > 1) {
+            remove(logCloses[index(1)] - logCloses[index(0)]);
+        }
+        head = index(1);
+        size--;
+    }
+
+    private void removeLast() {
+        if (size > 1) {
+            remove(logCloses[index(size - 1)] - logCloses[index(size - 2)]);
+        }
+        size--;
+    }
+
+    /**
+     * Reverse Welford update, {@code size} still counts the close of the removed return
+     */
+    private void remove(double logReturn) {
+        int count = size - 1;
+        removedSinceRebuild++;
+        if (count == 1) {
+            mean = 0;
+            sumOfSquares = 0;
+            return;
+        }
+        double previousMean = (count * mean - logReturn) / (count - 1);
+        sumOfSquares = Math.max(0, sumOfSquares - (logReturn - mean) * (logReturn - previousMean));
+        mean = previousMean;
+    }
+
+    private int index(int offset) {
+        return (head + offset) % days.length;
+    }
+
+    private void grow() {
+        int capacity = days.length * 2;
+        int[] newDays = new int[capacity];
+        long[] newCloses = new long[capacity];
+        double[] newLogCloses = new double[capacity];
+        for (int i = 0; i < size; i++) {
+            newDays[i] = days[index(i)];
+            newCloses[i] = closes[index(i)];
+            newLogCloses[i] = logCloses[index(i)];
+        }
+        days = newDays;
+        closes = newCloses;
+        logCloses = newLogCloses;
+        head = 0;
+    }
+
+    private static int firstPositive(PriceSeries history) {
+        for (int i = 0; i < history.size(); i++) {
+            if (history.close(i) > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,152 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.Asset;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps the histories of a configured watchlist warm, so that requests for these symbols never wait for Yahoo.
+ * <p>
+ * Once the application has started, every symbol is loaded into the cache from the local store, fetching only
+ * the days the store does not hold yet. The application reports itself out of service until this warm-up is
+ * done. After every market close the watchlist is refreshed the same way, so the store stays current and the
+ * next day only fetches its own bar. Loads are started at most {@code rate-per-second} times a second.
+ */
+@Component
+@Slf4j
+public class WatchlistPrefetcher implements HealthIndicator {
+
+    private final ChallengeService challengeService;
+    private final PriceSeriesCache priceCache;
+    private final List<String> watchlist;
+    private final long intervalNanos;
+
+    private final ScheduledExecutorService pacer;
+
+    // Load of the watchlist started last, guarded by this
+    private CompletableFuture<Void> running;
+    private volatile boolean warm;
+    private final Set<String> failed = new ConcurrentSkipListSet<>();
+
+    @Autowired
+    public WatchlistPrefetcher(ChallengeService challengeService, PriceSeriesCache priceCache,
+                               @Value("${com.warpaint.marketdata.watchlist:}") String[] watchlist,
+                               @Value("${com.warpaint.marketdata.prefetch.rate-per-second:2}") double ratePerSecond) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Prefetch rate must be positive: " + ratePerSecond);
+        }
+        this.challengeService = challengeService;
+        this.priceCache = priceCache;
+        this.watchlist = Arrays.stream(watchlist)
+                .map(String::trim)
+                .filter(symbol -> !symbol.isEmpty())
+                .map(String::toUpperCase)
+                .distinct()
+                .collect(toList());
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("watchlist-prefetch-");
+        threadFactory.setDaemon(true);
+        this.pacer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    @PreDestroy
+    public void close() {
+        pacer.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        warmUp();
+    }
+
+    /**
+     * Load the whole watchlist, reporting the application ready once every symbol was attempted. A refresh
+     * already running is waited for instead.
+     */
+    CompletableFuture<Void> warmUp() {
+        log.info("Warming up {} watchlist symbols", watchlist.size());
+        return load(false).thenRun(() -> {
+            warm = true;
+            log.info("Watchlist warm, {} of {} symbols failed", failed.size(), watchlist.size());
+        });
+    }
+
+    /**
+     * Reload the watchlist including the bars of the session that just closed
+     */
+    @Scheduled(cron = "${com.warpaint.marketdata.prefetch.cron:0 30 16 * * MON-FRI}", zone = "America/New_York")
+    public void refresh() {
+        load(true);
+    }
+
+    private synchronized CompletableFuture<Void> load(boolean invalidate) {
+        if (running != null && !running.isDone()) {
+            log.info("Watchlist load already running, waiting for it");
+            return running;
+        }
+        List<CompletableFuture<Void>> loads = new ArrayList<>(watchlist.size());
+        for (int i = 0; i < watchlist.size(); i++) {
+            String symbol = watchlist.get(i);
+            CompletableFuture<Void> loaded = new CompletableFuture<>();
+            pacer.schedule(() -> loadSymbol(symbol, invalidate).whenComplete((done, error) -> loaded.complete(null)),
+                    i * intervalNanos, TimeUnit.NANOSECONDS);
+            loads.add(loaded);
+        }
+        running = CompletableFuture.allOf(loads.toArray(new CompletableFuture[0]));
+        return running;
+    }
+
+    private CompletableFuture<?> loadSymbol(String symbol, boolean invalidate) {
+        try {
+            if (invalidate) {
+                priceCache.invalidate(symbol);
+            }
+            return challengeService.getHistoricalAssetDataAsync(new Asset(symbol), null, null)
+                    .whenComplete((series, error) -> {
+                        if (error == null) {
+                            failed.remove(symbol);
+                        } else {
+                            failed.add(symbol);
+                            log.warn("Failed to prefetch {}: {}", symbol, error.getMessage());
+                        }
+                    });
+        }
+        catch (RuntimeException e) {
+            failed.add(symbol);
+            log.warn("Failed to prefetch {}: {}", symbol, e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Out of service until the warm-up is done, then up even if some symbols failed: they are served on demand
+     */
+    @Override
+    public Health health() {
+        Health.Builder health = warm ? Health.up() : Health.outOfService();
+        return health.withDetail("symbols", watchlist.size())
+                .withDetail("failed", new ArrayList<>(failed))
+                .build();
+    }
+}
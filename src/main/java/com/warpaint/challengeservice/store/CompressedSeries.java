@@ -0,0 +1,355 @@
+package com.warpaint.challengeservice.store;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Immutable compressed daily history of a symbol together with the date range it covers, like
+ * {@link StoredPrices}.
+ * <p>
+ * Rows are sealed into blocks of {@value #BLOCK_ROWS}; the last rows stay uncompressed in a tail until it fills
+ * up, so appending a day only copies the tail and the block references. Each block is a byte array of
+ * <pre>
+ * days     delta of delta of the epoch days as zigzag varints, after the first day kept next to the block;
+ *          weekdays cost a byte each, as do the gaps of weekends and holidays
+ * columns  open, high, low, close and dividend, each made of
+ *          flag     1 byte   0 every row has a value, 1 a presence bitmap follows, 2 no row has a value
+ *          bitmap   (count + 7) / 8 bytes, bit i (least significant first) set if row i has a value
+ *          values   zigzag varint difference to the previous value of the column (the first to 0)
+ * </pre>
+ * Prices are fixed-point longs, so plain deltas of consecutive values are small integers; XOR of the bits,
+ * the usual choice for floating-point series, gains nothing here. A range query only decodes the blocks
+ * overlapping the range, found by a binary search on their last days.
+ */
+final class CompressedSeries {
+
+    static final int BLOCK_ROWS = 256;
+
+    private static final int ALL_PRESENT = 0;
+    private static final int BITMAP = 1;
+    private static final int NONE_PRESENT = 2;
+
+    private static final int COLUMNS = 5;
+
+    /** Object header, fields and array header of a block on a 64 bit JVM with compressed references */
+    private static final int BLOCK_OVERHEAD = 48;
+    /** Epoch day and five values of an uncompressed tail row */
+    private static final int TAIL_ROW_BYTES = Integer.BYTES + COLUMNS * Long.BYTES;
+
+    static final CompressedSeries EMPTY = new CompressedSeries(new Block[0], PriceSeries.empty(), null, null);
+
+    private final Block[] blocks;
+    private final PriceSeries tail;
+    private final LocalDate coveredFrom;
+    private final LocalDate coveredTo;
+
+    private CompressedSeries(Block[] blocks, PriceSeries tail, LocalDate coveredFrom, LocalDate coveredTo) {
+        this.blocks = blocks;
+        this.tail = tail;
+        this.coveredFrom = coveredFrom;
+        this.coveredTo = coveredTo;
+    }
+
+    static CompressedSeries of(PriceSeries series, LocalDate coveredFrom, LocalDate coveredTo) {
+        return new CompressedSeries(new Block[0], PriceSeries.empty(), coveredFrom, coveredTo).append(series, coveredTo);
+    }
+
+    static CompressedSeries of(StoredPrices stored) {
+        return stored.isEmpty() ? EMPTY : of(stored.getSeries(), stored.getCoveredFrom(), stored.getCoveredTo());
+    }
+
+    /**
+     * Series extended by rows following the last one, now covering up to {@code coveredTo}
+     */
+    CompressedSeries append(PriceSeries rows, LocalDate coveredTo) {
+        PriceSeries pending = tail.isEmpty() ? rows : PriceSeries.builder(tail.size() + rows.size()).addAll(tail).addAll(rows).build();
+        int sealed = pending.size() / BLOCK_ROWS;
+        Block[] extended = Arrays.copyOf(blocks, blocks.length + sealed);
+        for (int i = 0; i < sealed; i++) {
+            extended[blocks.length + i] = Block.encode(pending.slice(i * BLOCK_ROWS, (i + 1) * BLOCK_ROWS));
+        }
+        PriceSeries remaining = pending.slice(sealed * BLOCK_ROWS, pending.size());
+        if (sealed > 0 || pending == rows) {
+            // A slice of the input shares its arrays, the tail gets its own so the input rows can be collected
+            remaining = PriceSeries.builder(remaining.size()).addAll(remaining).build();
+        }
+        return new CompressedSeries(extended, remaining, coveredFrom, coveredTo);
+    }
+
+    /**
+     * Series with freshly fetched rows covering {@code coveredFrom} to {@code coveredTo} merged in, by the rules of
+     * {@link PriceStore#merge}. Only a range starting before the covered one decodes and encodes everything again.
+     */
+    CompressedSeries merge(PriceSeries rows, LocalDate coveredFrom, LocalDate coveredTo) {
+        PriceSeries covered = rows.slice(coveredFrom, coveredTo);
+        if (covers(coveredFrom, coveredTo)) {
+            return this;
+        }
+        if (isEmpty()
+                || coveredTo.isBefore(this.coveredFrom.minusDays(1))
+                || coveredFrom.isAfter(this.coveredTo.plusDays(1))) {
+            return of(covered, coveredFrom, coveredTo);
+        }
+        if (!coveredFrom.isBefore(this.coveredFrom)) {
+            return append(covered.slice(this.coveredTo.plusDays(1), coveredTo), coveredTo);
+        }
+        // Fetched rows win over resident rows in the overlapping range
+        PriceSeries following = read(coveredTo.plusDays(1), this.coveredTo);
+        PriceSeries combined = PriceSeries.builder(covered.size() + following.size())
+                .addAll(covered)
+                .addAll(following)
+                .build();
+        return of(combined, coveredFrom, coveredTo.isAfter(this.coveredTo) ? coveredTo : this.coveredTo);
+    }
+
+    boolean isEmpty() {
+        return coveredFrom == null;
+    }
+
+    boolean covers(LocalDate from, LocalDate to) {
+        return !isEmpty() && !from.isBefore(coveredFrom) && !to.isAfter(coveredTo);
+    }
+
+    LocalDate getCoveredFrom() {
+        return coveredFrom;
+    }
+
+    LocalDate getCoveredTo() {
+        return coveredTo;
+    }
+
+    int size() {
+        return blocks.length * BLOCK_ROWS + tail.size();
+    }
+
+    /**
+     * Approximate heap size of the rows, blocks and tail included
+     */
+    long footprintBytes() {
+        long bytes = (long) tail.size() * TAIL_ROW_BYTES;
+        for (Block block : blocks) {
+            bytes += BLOCK_OVERHEAD + block.data.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Rows between the two dates, both inclusive, decoding only the blocks overlapping them
+     */
+    PriceSeries read(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            return PriceSeries.empty();
+        }
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        int first = firstBlockEndingOnOrAfter(fromDay);
+        int last = first;
+        while (last < blocks.length && blocks[last].firstDay <= toDay) {
+            last++;
+        }
+        PriceSeries tailRows = tail.slice(from, to);
+        if (last == first) {
+            return tailRows;
+        }
+        PriceSeries.Builder builder = PriceSeries.builder((last - first) * BLOCK_ROWS + tailRows.size());
+        for (int i = first; i < last; i++) {
+            blocks[i].decode(fromDay, toDay, builder);
+        }
+        return builder.addAll(tailRows).build();
+    }
+
+    private int firstBlockEndingOnOrAfter(long day) {
+        int low = 0;
+        int high = blocks.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blocks[middle].lastDay < day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long value(PriceSeries series, int column, int index) {
+        switch (column) {
+            case 0:
+                return series.open(index);
+            case 1:
+                return series.high(index);
+            case 2:
+                return series.low(index);
+            case 3:
+                return series.close(index);
+            default:
+                return series.dividend(index);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * {@value #BLOCK_ROWS} sealed rows, their first and last day kept outside the bytes for range lookups
+     */
+    private static final class Block {
+        private final int firstDay;
+        private final int lastDay;
+        private final byte[] data;
+
+        private Block(int firstDay, int lastDay, byte[] data) {
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+            this.data = data;
+        }
+
+        static Block encode(PriceSeries rows) {
+            int count = rows.size();
+            Output out = new Output(count * 8);
+            long previousDelta = 1;
+            for (int i = 1; i < count; i++) {
+                long delta = (long) rows.epochDay(i) - rows.epochDay(i - 1);
+                out.writeVarint(zigzag(delta - previousDelta));
+                previousDelta = delta;
+            }
+            for (int column = 0; column < COLUMNS; column++) {
+                int present = 0;
+                for (int i = 0; i < count; i++) {
+                    if (value(rows, column, i) != PriceSeries.NONE) {
+                        present++;
+                    }
+                }
+                if (present == 0) {
+                    out.write(NONE_PRESENT);
+                    continue;
+                }
+                if (present == count) {
+                    out.write(ALL_PRESENT);
+                } else {
+                    out.write(BITMAP);
+                    for (int from = 0; from < count; from += 8) {
+                        int bits = 0;
+                        for (int i = from; i < Math.min(from + 8, count); i++) {
+                            if (value(rows, column, i) != PriceSeries.NONE) {
+                                bits |= 1 << (i - from);
+                            }
+                        }
+                        out.write(bits);
+                    }
+                }
+                long previous = 0;
+                for (int i = 0; i < count; i++) {
+                    long value = value(rows, column, i);
+                    if (value != PriceSeries.NONE) {
+                        out.writeVarint(zigzag(value - previous));
+                        previous = value;
+                    }
+                }
+            }
+            return new Block(rows.epochDay(0), rows.epochDay(count - 1), out.toByteArray());
+        }
+
+        /**
+         * Add the rows between the two epoch days, both inclusive, to the builder
+         */
+        void decode(long fromDay, long toDay, PriceSeries.Builder builder) {
+            Input in = new Input(data);
+            int[] days = new int[BLOCK_ROWS];
+            days[0] = firstDay;
+            long delta = 1;
+            for (int i = 1; i < BLOCK_ROWS; i++) {
+                delta += unzigzag(in.readVarint());
+                days[i] = (int) (days[i - 1] + delta);
+            }
+            long[][] columns = new long[COLUMNS][BLOCK_ROWS];
+            for (int column = 0; column < COLUMNS; column++) {
+                long[] values = columns[column];
+                int flag = in.read();
+                if (flag == NONE_PRESENT) {
+                    Arrays.fill(values, PriceSeries.NONE);
+                    continue;
+                }
+                if (flag == BITMAP) {
+                    for (int from = 0; from < BLOCK_ROWS; from += 8) {
+                        int bits = in.read();
+                        for (int i = from; i < from + 8; i++) {
+                            values[i] = ((bits >>> (i - from)) & 1) != 0 ? 0 : PriceSeries.NONE;
+                        }
+                    }
+                }
+                long previous = 0;
+                for (int i = 0; i < BLOCK_ROWS; i++) {
+                    if (values[i] != PriceSeries.NONE) {
+                        previous += unzigzag(in.readVarint());
+                        values[i] = previous;
+                    }
+                }
+            }
+            for (int i = 0; i < BLOCK_ROWS; i++) {
+                if (days[i] >= fromDay && days[i] <= toDay) {
+                    builder.add(days[i], columns[0][i], columns[1][i], columns[2][i], columns[3][i], columns[4][i]);
+                }
+            }
+        }
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int position;
+
+        private Output(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (position == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        private Input(byte[] data) {
+            this.data = data;
+        }
+
+        int read() {
+            return data[position++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.warpaint.challengeservice.store;
+
+import com.warpaint.challengeservice.dataprovider.HttpHandler;
+import com.warpaint.challengeservice.model.PriceSeries;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local on-disk store of daily bars, one file per symbol.
+ * <p>
+ * Each file starts with a {@value #HEADER_SIZE} byte header (magic, version, covered date range, row count)
+ * followed by fixed-width {@value #RECORD_SIZE} byte records: the epoch day and the open, high, low, close
+ * and dividend fixed-point values of a {@link PriceSeries} row. Files are read through a read-only memory
+ * mapping; new bars after the covered range are appended in place, anything else rewrites the file atomically.
+ */
+@Component
+@Slf4j
+public class PriceStore {
+
+    private static final int MAGIC = 0x57505053; // "WPPS"
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = Integer.BYTES + 5 * Long.BYTES;
+
+    private static final int COVERED_FROM_OFFSET = 8;
+    private static final int COVERED_TO_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+
+    private static final String FILE_SUFFIX = ".prices";
+
+    @Getter
+    private final boolean enabled;
+    private final Path directory;
+
+    private final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    public PriceStore(@Value("${com.warpaint.marketdata.store.enabled:true}") boolean enabled,
+                      @Value("${com.warpaint.marketdata.store.directory:${java.io.tmpdir}/market-data}") String directory) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        if (enabled) {
+            try {
+                Files.createDirectories(this.directory);
+                log.info("Storing market data in {}", this.directory.toAbsolutePath());
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Failed to create market data store " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Stored history of a symbol, empty if nothing is stored yet
+     */
+    public StoredPrices read(String symbol) {
+        if (!enabled) {
+            return StoredPrices.empty();
+        }
+        Path file = fileOf(symbol);
+        if (!Files.exists(file)) {
+            return StoredPrices.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer.order(ByteOrder.LITTLE_ENDIAN), symbol);
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("Failed to read stored prices of {}: {}", symbol, e.getLocalizedMessage());
+            return StoredPrices.empty();
+        }
+    }
+
+    /**
+     * Merge freshly fetched bars covering {@code coveredFrom} to {@code coveredTo} into the stored history.
+     * A range directly following the stored one is appended in place; an overlapping or adjacent range is
+     * merged into a rewritten file, and a disjoint range replaces the stored history.
+     */
+    public void merge(String symbol, PriceSeries rows, LocalDate coveredFrom, LocalDate coveredTo) {
+        if (!enabled || coveredTo.isBefore(coveredFrom)) {
+            return;
+        }
+        PriceSeries covered = rows.slice(coveredFrom, coveredTo);
+        ReentrantLock lock = locks.computeIfAbsent(symbol, key -> new ReentrantLock());
+        lock.lock();
+        try {
+            StoredPrices stored = read(symbol);
+            if (stored.covers(coveredFrom, coveredTo)) {
+                return;
+            }
+            if (stored.isEmpty()
+                    || coveredTo.isBefore(stored.getCoveredFrom().minusDays(1))
+                    || coveredFrom.isAfter(stored.getCoveredTo().plusDays(1))) {
+                rewrite(symbol, new StoredPrices(covered, coveredFrom, coveredTo));
+            } else if (!coveredFrom.isBefore(stored.getCoveredFrom())) {
+                append(symbol, stored, covered, coveredTo);
+            } else {
+                rewrite(symbol, combine(stored, covered, coveredFrom, coveredTo));
+            }
+        }
+        catch (IOException e) {
+            log.error("Failed to store prices of {}: {}", symbol, e.getLocalizedMessage());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static StoredPrices combine(StoredPrices stored, PriceSeries rows, LocalDate coveredFrom, LocalDate coveredTo) {
+        PriceSeries existing = stored.getSeries();
+        // Fetched rows win over stored rows in the overlapping range
+        PriceSeries.Builder builder = PriceSeries.builder(existing.size() + rows.size())
+                .addAll(rows)
+                .addAll(existing.slice(coveredTo.plusDays(1), stored.getCoveredTo()));
+        LocalDate to = coveredTo.isAfter(stored.getCoveredTo()) ? coveredTo : stored.getCoveredTo();
+        return new StoredPrices(builder.build(), coveredFrom, to);
+    }
+
+    private void append(String symbol, StoredPrices stored, PriceSeries rows, LocalDate coveredTo) throws IOException {
+        PriceSeries newRows = rows.slice(stored.getCoveredTo().plusDays(1), coveredTo);
+        int count = stored.getSeries().size();
+        try (FileChannel channel = FileChannel.open(fileOf(symbol), StandardOpenOption.WRITE)) {
+            writeFully(channel, encodeRecords(newRows), HEADER_SIZE + (long) count * RECORD_SIZE);
+
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt((int) stored.getCoveredFrom().toEpochDay())
+                    .putInt((int) coveredTo.toEpochDay())
+                    .putInt(count + newRows.size())
+                    .flip();
+            writeFully(channel, header, COVERED_FROM_OFFSET);
+            channel.force(false);
+        }
+        log.debug("Appended {} rows to stored prices of {}", newRows.size(), symbol);
+    }
+
+    private void rewrite(String symbol, StoredPrices prices) throws IOException {
+        Path file = fileOf(symbol);
+        Path temporary = Files.createTempFile(directory, "prices", ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt((int) prices.getCoveredFrom().toEpochDay())
+                    .putInt((int) prices.getCoveredTo().toEpochDay())
+                    .putInt(prices.getSeries().size());
+            header.clear();
+            writeFully(channel, header, 0);
+            writeFully(channel, encodeRecords(prices.getSeries()), HEADER_SIZE);
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Stored {} rows of {} covering {} to {}", prices.getSeries().size(), symbol,
+                prices.getCoveredFrom(), prices.getCoveredTo());
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static ByteBuffer encodeRecords(PriceSeries rows) {
+        ByteBuffer buffer = ByteBuffer.allocate(rows.size() * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < rows.size(); i++) {
+            buffer.putInt(rows.epochDay(i))
+                    .putLong(rows.open(i))
+                    .putLong(rows.high(i))
+                    .putLong(rows.low(i))
+                    .putLong(rows.close(i))
+                    .putLong(rows.dividend(i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static StoredPrices decode(ByteBuffer buffer, String symbol) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("Unsupported store file of " + symbol);
+        }
+        LocalDate coveredFrom = LocalDate.ofEpochDay(buffer.getInt(COVERED_FROM_OFFSET));
+        LocalDate coveredTo = LocalDate.ofEpochDay(buffer.getInt(COVERED_TO_OFFSET));
+        int count = buffer.getInt(COUNT_OFFSET);
+        if (buffer.limit() < HEADER_SIZE + (long) count * RECORD_SIZE) {
+            throw new IllegalStateException("Truncated store file of " + symbol);
+        }
+        PriceSeries.Builder builder = PriceSeries.builder(count);
+        buffer.position(HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            builder.add(buffer.getInt(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+        return new StoredPrices(builder.build(), coveredFrom, coveredTo);
+    }
+
+    private Path fileOf(String symbol) {
+        return directory.resolve(HttpHandler.urlEncodeString(symbol.toUpperCase()) + FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,32 @@
+package com.warpaint.challengeservice.store;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import lombok.Value;
+
+import java.time.LocalDate;
+
+/**
+ * Locally stored history of a symbol together with the date range it covers. The covered range is
+ * wider than the range of the stored bars whenever it starts or ends on a non-trading day.
+ */
+@Value
+public class StoredPrices {
+
+    private static final StoredPrices EMPTY = new StoredPrices(PriceSeries.empty(), null, null);
+
+    PriceSeries series;
+    LocalDate coveredFrom;
+    LocalDate coveredTo;
+
+    public static StoredPrices empty() {
+        return EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return coveredFrom == null;
+    }
+
+    public boolean covers(LocalDate from, LocalDate to) {
+        return !isEmpty() && !from.isBefore(coveredFrom) && !to.isAfter(coveredTo);
+    }
+}
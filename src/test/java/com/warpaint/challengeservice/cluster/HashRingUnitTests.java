@@ -0,0 +1,66 @@
+package com.warpaint.challengeservice.cluster;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashRingUnitTests {
+
+    private static final int KEYS = 10_000;
+
+    private static String key(int i) {
+        return "SYM" + i;
+    }
+
+    @Test
+    public void testOwnerIndependentOfOrder() {
+        HashRing ring = new HashRing(Arrays.asList("http://a:8080", "http://b:8080", "http://c:8080"), 128);
+        HashRing reordered = new HashRing(Arrays.asList("http://c:8080", "http://a:8080", "http://b:8080"), 128);
+
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(ring.ownerOf(key(i)), reordered.ownerOf(key(i)));
+        }
+    }
+
+    @Test
+    public void testKeysSpreadEvenly() {
+        HashRing ring = new HashRing(Arrays.asList("http://a:8080", "http://b:8080", "http://c:8080"), 128);
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owned.merge(ring.ownerOf(key(i)), 1, Integer::sum);
+        }
+
+        assertEquals(3, owned.size());
+        for (int count : owned.values()) {
+            assertTrue("Owns " + count + " of " + KEYS, count > KEYS / 4 && count < KEYS * 5 / 12);
+        }
+    }
+
+    @Test
+    public void testRemovingNodeOnlyMovesItsKeys() {
+        HashRing ring = new HashRing(Arrays.asList("http://a:8080", "http://b:8080", "http://c:8080"), 128);
+        HashRing shrunk = new HashRing(Arrays.asList("http://a:8080", "http://b:8080"), 128);
+
+        for (int i = 0; i < KEYS; i++) {
+            String owner = ring.ownerOf(key(i));
+            if (!owner.equals("http://c:8080")) {
+                assertEquals(owner, shrunk.ownerOf(key(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testSingleNodeOwnsEverything() {
+        HashRing ring = new HashRing(Arrays.asList("http://a:8080"), 1);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("http://a:8080", ring.ownerOf(key(i)));
+        }
+    }
+}
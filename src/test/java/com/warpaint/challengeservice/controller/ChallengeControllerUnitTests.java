@@ -0,0 +1,291 @@
+package com.warpaint.challengeservice.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.warpaint.challengeservice.dataprovider.UpstreamUnavailableException;
+import com.warpaint.challengeservice.model.Asset;
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.PriceSeriesCodec;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import com.warpaint.challengeservice.service.AnalyticsEngine;
+import com.warpaint.challengeservice.service.ChallengeService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class ChallengeControllerUnitTests {
+
+    private static final LocalDate START = LocalDate.parse("2017-01-03");
+
+    private static final String NDJSON =
+            "{\"openPrice\":1,\"closePrice\":100.5,\"lowPrice\":0.5,\"highPrice\":2,\"tradeDate\":\"2017-01-03\"}\n"
+          + "{\"openPrice\":1,\"closePrice\":101.5,\"lowPrice\":0.5,\"highPrice\":2,\"dividend\":0.24,\"tradeDate\":\"2017-01-04\"}\n";
+
+    @Mock
+    private ChallengeService service;
+
+    private MockMvc mockMvc;
+
+    private PriceSeries series;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        mockMvc = MockMvcBuilders.standaloneSetup(new ChallengeController(service, objectMapper, new CompressedBodyCache(1 << 20)))
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), new PriceSeriesHttpMessageConverter(),
+                        new MappingJackson2HttpMessageConverter(objectMapper))
+                .build();
+
+        series = PriceSeries.builder()
+                .add((int) START.toEpochDay(), 1_000_000L, 2_000_000L, 500_000L, 100_500_000L, PriceSeries.NONE)
+                .add((int) START.plusDays(1).toEpochDay(), 1_000_000L, 2_000_000L, 500_000L, 101_500_000L, 240_000L)
+                .build();
+        doReturn(completedFuture(series)).when(service).getHistoricalAssetDataAsync(any(Asset.class), any(), any());
+    }
+
+    private MvcResult perform(RequestBuilder request) throws Exception {
+        MvcResult started = mockMvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+        MvcResult dispatched = mockMvc.perform(asyncDispatch(started)).andReturn();
+        if (dispatched.getRequest().isAsyncStarted()) {
+            // Streaming bodies are written by a second asynchronous task
+            dispatched.getAsyncResult(5000);
+        }
+        return dispatched;
+    }
+
+    @Test
+    public void testHistoricalAsJson() throws Exception {
+        MvcResult result = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON));
+
+        assertEquals("[" + NDJSON.trim().replace("\n", ",") + "]", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testHistoricalAsNdjson() throws Exception {
+        MvcResult result = perform(get("/market-data/LOGM/historical").accept(NdjsonPriceSeriesBody.APPLICATION_NDJSON));
+
+        assertEquals(NdjsonPriceSeriesBody.APPLICATION_NDJSON_VALUE, result.getResponse().getContentType());
+        assertEquals(NDJSON, result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testHistoricalAsNdjsonOnRequest() throws Exception {
+        MvcResult result = perform(get("/market-data/LOGM/historical").param("stream", "true"));
+
+        assertEquals(NdjsonPriceSeriesBody.APPLICATION_NDJSON_VALUE, result.getResponse().getContentType());
+        assertEquals(NDJSON, result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testHistoricalDefaultsToJson() throws Exception {
+        MvcResult result = perform(get("/market-data/LOGM/historical").accept(MediaType.ALL));
+
+        assertEquals('[', result.getResponse().getContentAsString().charAt(0));
+    }
+
+    @Test
+    public void testHistoricalAsBinary() throws Exception {
+        MvcResult result = perform(get("/market-data/LOGM/historical").accept(PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES));
+
+        assertEquals(PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES_VALUE, result.getResponse().getContentType());
+        PriceSeries decoded = PriceSeriesCodec.decode(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()));
+        assertEquals(series.size(), decoded.size());
+        assertEquals(series.close(1), decoded.close(1));
+        assertEquals(series.dividend(1), decoded.dividend(1));
+    }
+
+    @Test
+    public void testHistoricalNotModified() throws Exception {
+        MvcResult first = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON));
+        String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+
+        MvcResult unchanged = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_NONE_MATCH, etag));
+        assertEquals(304, unchanged.getResponse().getStatus());
+        assertEquals("", unchanged.getResponse().getContentAsString());
+
+        MvcResult ndjson = perform(get("/market-data/LOGM/historical").accept(NdjsonPriceSeriesBody.APPLICATION_NDJSON)
+                .header(HttpHeaders.IF_NONE_MATCH, etag));
+        assertEquals(200, ndjson.getResponse().getStatus());
+        assertNotEquals(etag, ndjson.getResponse().getHeader(HttpHeaders.ETAG));
+
+        doReturn(completedFuture(series.slice(0, 1))).when(service).getHistoricalAssetDataAsync(any(Asset.class), any(), any());
+        MvcResult changed = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_NONE_MATCH, etag));
+        assertEquals(200, changed.getResponse().getStatus());
+    }
+
+    @Test
+    public void testHistoricalNotModifiedSince() throws Exception {
+        MvcResult first = perform(get("/market-data/LOGM/historical").param("from", START.toString())
+                .accept(PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES));
+        // The day after the last bar
+        assertEquals(START.plusDays(2).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli(),
+                first.getResponse().getDateHeader(HttpHeaders.LAST_MODIFIED));
+
+        MvcResult unchanged = perform(get("/market-data/LOGM/historical").param("from", START.toString())
+                .accept(PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES)
+                .header(HttpHeaders.IF_MODIFIED_SINCE, first.getResponse().getHeader(HttpHeaders.LAST_MODIFIED)));
+        assertEquals(304, unchanged.getResponse().getStatus());
+        assertEquals(0, unchanged.getResponse().getContentLength());
+    }
+
+    @Test
+    public void testResampledHistoricalNotModifiedSince() throws Exception {
+        // Polled on the Thursday of the week of the bars, which went on moving until the Sunday
+        String polled = DateTimeFormatter.RFC_1123_DATE_TIME.format(START.plusDays(2).atStartOfDay(ZoneOffset.UTC));
+        MvcResult changed = perform(get("/market-data/LOGM/historical").param("from", START.toString()).param("interval", "1w")
+                .accept(PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES)
+                .header(HttpHeaders.IF_MODIFIED_SINCE, polled));
+        assertEquals(200, changed.getResponse().getStatus());
+        // The Monday after the week of the bar
+        assertEquals(LocalDate.parse("2017-01-09").atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli(),
+                changed.getResponse().getDateHeader(HttpHeaders.LAST_MODIFIED));
+
+        MvcResult unchanged = perform(get("/market-data/LOGM/historical").param("from", START.toString()).param("interval", "1w")
+                .accept(PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES)
+                .header(HttpHeaders.IF_MODIFIED_SINCE, changed.getResponse().getHeader(HttpHeaders.LAST_MODIFIED)));
+        assertEquals(304, unchanged.getResponse().getStatus());
+    }
+
+    @Test
+    public void testDefaultWindowNotValidatedByDate() throws Exception {
+        MvcResult first = perform(get("/market-data/LOGM/historical").accept(PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES));
+        assertNull(first.getResponse().getHeader(HttpHeaders.LAST_MODIFIED));
+
+        // A day later the default window dropped its first row, the last bar is the same
+        doReturn(completedFuture(series.slice(1, 2))).when(service).getHistoricalAssetDataAsync(any(Asset.class), any(), any());
+        String polled = DateTimeFormatter.RFC_1123_DATE_TIME.format(START.plusDays(3).atStartOfDay(ZoneOffset.UTC));
+        MvcResult moved = perform(get("/market-data/LOGM/historical").accept(PriceSeriesHttpMessageConverter.APPLICATION_PRICE_SERIES)
+                .header(HttpHeaders.IF_MODIFIED_SINCE, polled));
+        assertEquals(200, moved.getResponse().getStatus());
+        assertEquals(1, PriceSeriesCodec.decode(new ByteArrayInputStream(moved.getResponse().getContentAsByteArray())).size());
+    }
+
+    @Test
+    public void testHistoricalCompressed() throws Exception {
+        String json = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON))
+                .getResponse().getContentAsString();
+
+        MvcResult first = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"));
+        MvcResult second = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip"));
+
+        assertEquals("gzip", first.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertTrue(first.getResponse().getContentType().startsWith(MediaType.APPLICATION_JSON_VALUE));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, first.getResponse().getHeader(HttpHeaders.VARY));
+        try (InputStream stream = new GZIPInputStream(new ByteArrayInputStream(first.getResponse().getContentAsByteArray()))) {
+            assertEquals(json, StreamUtils.copyToString(stream, StandardCharsets.UTF_8));
+        }
+        assertArrayEquals(first.getResponse().getContentAsByteArray(), second.getResponse().getContentAsByteArray());
+
+        MvcResult refused = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, identity"));
+        assertNull(refused.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(json, refused.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testHistoricalWhileUpstreamUnavailable() throws Exception {
+        CompletableFuture<PriceSeries> unavailable = new CompletableFuture<>();
+        unavailable.completeExceptionally(new UpstreamUnavailableException("Yahoo Finance is unavailable"));
+        doReturn(unavailable).when(service).getHistoricalAssetDataAsync(any(Asset.class), any(), any());
+
+        MvcResult result = perform(get("/market-data/LOGM/historical").accept(MediaType.APPLICATION_JSON));
+
+        assertEquals(503, result.getResponse().getStatus());
+    }
+
+    @Test
+    public void testHistoricalResampled() throws Exception {
+        MvcResult result = perform(get("/market-data/LOGM/historical").param("interval", "1mo").param("maxPoints", "10")
+                .accept(MediaType.APPLICATION_JSON));
+
+        assertEquals("[{\"openPrice\":1,\"closePrice\":101.5,\"lowPrice\":0.5,\"highPrice\":2,\"dividend\":0.24,"
+                + "\"tradeDate\":\"2017-01-01\"}]", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testHistoricalWithInvalidInterval() throws Exception {
+        mockMvc.perform(get("/market-data/LOGM/historical").param("interval", "2w"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testAnalytics() throws Exception {
+        int[] windows = {2};
+        doReturn(completedFuture(new AnalyticsEngine().analyze(series, windows)))
+                .when(service).getAssetAnalyticsAsync(any(Asset.class), any(), any(), eq(windows));
+
+        MvcResult result = perform(get("/market-data/LOGM/analytics").param("windows", "2").accept(MediaType.APPLICATION_JSON));
+
+        assertEquals("{\"tradeDates\":[\"2017-01-03\",\"2017-01-04\"],\"close\":[100.5,101.5],\"drawdown\":[0.0,0.0],"
+                + "\"maxDrawdown\":{\"value\":0.0,\"peakDate\":\"2017-01-03\",\"troughDate\":\"2017-01-03\"},"
+                + "\"indicators\":[{\"window\":2,\"sma\":[null,101.0],\"ema\":[null,101.0],\"volatility\":[null,null],"
+                + "\"returns\":[null,null]}]}", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testProjectedPortfolio() throws Exception {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        weights.put("AAPL", 60.0);
+        weights.put("MSFT", 40.0);
+        doReturn(completedFuture(series)).when(service).getProjectedPortfolioDataAsync(eq(weights), any());
+
+        MvcResult result = perform(post("/market-data/portfolio/projected").param("paths", "500")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"weights\":{\"AAPL\":60,\"MSFT\":40}}")
+                .accept(MediaType.APPLICATION_JSON));
+
+        assertEquals(200, result.getResponse().getStatus());
+        ArgumentCaptor<ProjectionParameters> parameters = ArgumentCaptor.forClass(ProjectionParameters.class);
+        verify(service).getProjectedPortfolioDataAsync(eq(weights), parameters.capture());
+        assertEquals(500, parameters.getValue().getPaths());
+    }
+
+    @Test
+    public void testProjectedPortfolioWithoutWeights() throws Exception {
+        mockMvc.perform(post("/market-data/portfolio/projected").contentType(MediaType.APPLICATION_JSON).content("{}"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,104 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterUnitTests {
+
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static List<AdaptiveConcurrencyLimiter.Permit> acquireAll(AdaptiveConcurrencyLimiter limiter) {
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        AdaptiveConcurrencyLimiter.Permit permit;
+        while ((permit = limiter.tryAcquire()) != null) {
+            permits.add(permit);
+        }
+        return permits;
+    }
+
+    @Test
+    public void testIncreaseWhileFast() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, TARGET, 10);
+
+        for (int round = 0; round < 3; round++) {
+            acquireAll(limiter).forEach(permit -> permit.success(TARGET / 2));
+        }
+        assertEquals(5, limiter.getLimit());
+
+        for (int round = 0; round < 100; round++) {
+            acquireAll(limiter).forEach(permit -> permit.success(TARGET / 2));
+        }
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testIdleLimitDoesNotIncrease() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, TARGET, 10);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire().success(TARGET / 2);
+        }
+
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testDecreaseWhenSlowOrDropped() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 10, TARGET, 10);
+
+        limiter.tryAcquire().success(TARGET * 2);
+        assertEquals(9, limiter.getLimit());
+        limiter.tryAcquire().dropped();
+        assertEquals(8, limiter.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire().dropped();
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testQueueAboveLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, TARGET, 1);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = acquireAll(limiter);
+        assertEquals(2, permits.size());
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> queued = limiter.acquire();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> rejected = limiter.acquire();
+
+        assertFalse(queued.isDone());
+        assertTrue(rejected.isCompletedExceptionally());
+        assertNull(limiter.tryAcquire());
+        assertEquals(1, limiter.getQueued());
+
+        permits.get(0).ignore();
+        permits.get(0).ignore();
+        assertTrue(queued.isDone());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void testCancelledWaiterIsSkipped() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 10, TARGET, 10);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> cancelled = limiter.acquire();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiting = limiter.acquire();
+
+        cancelled.cancel(false);
+        permit.success(TARGET / 2);
+
+        assertTrue(waiting.isDone());
+        assertEquals(1, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,102 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerUnitTests {
+
+    private static final Duration OPEN = Duration.ofSeconds(30);
+
+    /** Clock moved forward by the tests */
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2018-06-06T15:00:00Z");
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    private final MutableClock clock = new MutableClock();
+
+    private void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    public void testOpenAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN, clock);
+
+        fail(breaker, 2);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        fail(breaker, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        fail(breaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testSingleProbeWhenHalfOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN, clock);
+        fail(breaker, 1);
+
+        clock.now = clock.now.plus(OPEN);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testReopenWhenProbeFails() {
+        CircuitBreaker breaker = new CircuitBreaker(5, OPEN, clock);
+        fail(breaker, 5);
+
+        clock.now = clock.now.plus(OPEN);
+        fail(breaker, 1);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        clock.now = clock.now.plus(OPEN).minusSeconds(1);
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testIgnoredProbeAllowsAnother() {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN, clock);
+        fail(breaker, 1);
+        clock.now = clock.now.plus(OPEN);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onIgnored();
+
+        assertTrue(breaker.tryAcquire());
+    }
+}
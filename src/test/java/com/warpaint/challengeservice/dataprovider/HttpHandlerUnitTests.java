@@ -0,0 +1,235 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpHandlerUnitTests {
+
+    private static final long LATENCY_TARGET = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Local stand-in for Yahoo: {@code /ok}, {@code /error} (503), {@code /slow} (200 after 300 ms), {@code /slow-once}
+     * and {@code /gzip} (compressed if the request accepts it)
+     */
+    private HttpServer server;
+
+    private final AtomicInteger served = new AtomicInteger();
+
+    private final AtomicInteger slowOnce = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            served.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            try {
+                if (path.equals("/slow") || (path.equals("/slow-once") && slowOnce.getAndIncrement() == 0)) {
+                    Thread.sleep(300);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = path.getBytes(StandardCharsets.UTF_8);
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (path.equals("/gzip") && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream stream = new GZIPOutputStream(compressed)) {
+                    stream.write(body);
+                }
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(path.equals("/error") ? 503 : 200, body.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private HttpHandler httpHandler(AdaptiveConcurrencyLimiter limiter, CircuitBreaker circuitBreaker, boolean hedging) {
+        return new HttpHandler(1, limiter, circuitBreaker, hedging, registry);
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit) {
+        return new AdaptiveConcurrencyLimiter(initialLimit, 1, 50, LATENCY_TARGET, 100);
+    }
+
+    private static CircuitBreaker circuitBreaker(int failureThreshold) {
+        return new CircuitBreaker(failureThreshold, Duration.ofMinutes(1), Clock.systemUTC());
+    }
+
+    @Test
+    public void testEndpointOf() {
+        assertEquals("profile", HttpHandler.endpointOf(new HttpGet("https://finance.yahoo.com/quote/LOGM/profile?p=LOGM")));
+        assertEquals("prices", HttpHandler.endpointOf(new HttpGet(
+                "https://query1.finance.yahoo.com/v7/finance/download/LOGM?period1=0&period2=1&interval=1d&events=history&crumb=x")));
+        assertEquals("dividends", HttpHandler.endpointOf(new HttpGet(
+                "https://query1.finance.yahoo.com/v7/finance/download/LOGM?period1=0&period2=1&interval=1d&events=div&crumb=x")));
+        assertEquals("other", HttpHandler.endpointOf(new HttpGet("https://finance.yahoo.com/")));
+    }
+
+    @Test
+    public void testPoolGauges() throws IOException {
+        HttpHandler httpHandler = new HttpHandler(1, 2000, 5, 30, false, registry);
+        try {
+            for (String client : new String[]{"blocking", "async"}) {
+                assertEquals(0, registry.get("yahoo.pool.leased").tag("client", client).gauge().value(), 0);
+                assertEquals(0, registry.get("yahoo.pool.available").tag("client", client).gauge().value(), 0);
+                assertEquals(0, registry.get("yahoo.pool.pending").tag("client", client).gauge().value(), 0);
+            }
+            assertEquals(20, registry.get("yahoo.limiter.limit").gauge().value(), 0);
+            assertEquals(0, registry.get("yahoo.circuit.state").gauge().value(), 0);
+        }
+        finally {
+            httpHandler.close();
+        }
+    }
+
+    @Test
+    public void testCircuitOpensOnServerErrors() throws IOException {
+        HttpHandler httpHandler = httpHandler(limiter(10), circuitBreaker(3), false);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    httpHandler.fetchResponseAsync(new HttpGet(url("/error"))).join();
+                    fail("Server errors should fail the request");
+                }
+                catch (CompletionException e) {
+                    assertTrue(e.getCause() instanceof UpstreamUnavailableException);
+                }
+            }
+            try {
+                httpHandler.fetchResponse(new HttpGet(url("/error")));
+                fail("Server errors should fail the request");
+            }
+            catch (UpstreamUnavailableException e) {
+                assertTrue(e.getMessage().contains("503"));
+            }
+            try {
+                httpHandler.fetchResponseAsync(new HttpGet(url("/ok"))).join();
+                fail("Circuit should be open");
+            }
+            catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof UpstreamUnavailableException);
+            }
+            try {
+                httpHandler.fetchResponse(new HttpGet(url("/ok")));
+                fail("Circuit should be open");
+            }
+            catch (UpstreamUnavailableException e) {
+                // expected
+            }
+            assertEquals(3, served.get());
+            assertEquals(2, registry.get(HttpHandler.REJECTED_REQUESTS).tag("reason", "circuit_open").counter().count(), 0);
+        }
+        finally {
+            httpHandler.close();
+        }
+    }
+
+    @Test
+    public void testLimiterBacksOffWhenSlow() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+        HttpHandler httpHandler = httpHandler(limiter, circuitBreaker(100), false);
+        try {
+            List<CompletableFuture<HttpResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                responses.add(httpHandler.fetchResponseAsync(new HttpGet(url("/slow"))));
+            }
+            assertTrue(limiter.getQueued() > 0);
+            responses.forEach(response -> assertEquals(200, response.join().getStatusLine().getStatusCode()));
+
+            assertTrue(limiter.getLimit() < 10);
+            assertEquals(20, served.get());
+            assertEquals(0, limiter.getInFlight());
+        }
+        finally {
+            httpHandler.close();
+        }
+    }
+
+    @Test
+    public void testHedgeSlowRequest() throws IOException {
+        HttpHandler httpHandler = httpHandler(limiter(10), circuitBreaker(100), true);
+        try {
+            // Learn the usual latency first
+            for (int i = 0; i < 20; i++) {
+                EntityUtils.consume(httpHandler.fetchResponse(new HttpGet(url("/ok"))).getEntity());
+            }
+
+            long start = System.nanoTime();
+            HttpResponse response = httpHandler.fetchResponseAsync(new HttpGet(url("/slow-once"))).join();
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals("/slow-once", EntityUtils.toString(response.getEntity()));
+            assertTrue("Hedged response after " + elapsed + " ns", elapsed < TimeUnit.MILLISECONDS.toNanos(300));
+            assertEquals(1, registry.get(HttpHandler.HEDGED_REQUESTS).counter().count(), 0);
+        }
+        finally {
+            httpHandler.close();
+        }
+    }
+
+    @Test
+    public void testDecompressResponses() throws IOException {
+        HttpHandler httpHandler = httpHandler(limiter(10), circuitBreaker(100), false);
+        try {
+            HttpResponse blocking = httpHandler.fetchResponse(new HttpGet(url("/gzip")));
+            assertEquals("/gzip", EntityUtils.toString(blocking.getEntity()));
+
+            HttpResponse async = httpHandler.fetchResponseAsync(new HttpGet(url("/gzip"))).join();
+            assertNull(async.getFirstHeader("Content-Encoding"));
+            assertEquals("/gzip", EntityUtils.toString(async.getEntity()));
+        }
+        finally {
+            httpHandler.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.warpaint.challengeservice.dataprovider;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class YahooCsvParserUnitTests {
+
+    private static InputStream stream(String input) {
+        return new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParsePrices() throws IOException {
+        String input = "Date,Open,High,Low,Close,Adj Close,Volume\r\n"
+                     + "2017-01-03,35.900002,36.5,35.25,-0.5,36.1,1000\r\n"
+                     + "2017-01-04,null,null,null,null,null,null\r\n"
+                     + "2017-02-30,1,2,3,4,5,6\r\n"
+                     + "2017-01-05,1.1234567,2,3,4,5,6";
+
+        List<long[]> rows = new ArrayList<>();
+        int count = YahooCsvParser.parsePrices(stream(input),
+                (epochDay, open, high, low, close) -> rows.add(new long[]{epochDay, open, high, low, close}));
+
+        assertEquals(2, count);
+        assertEquals(LocalDate.parse("2017-01-03").toEpochDay(), rows.get(0)[0]);
+        assertEquals(35_900_002L, rows.get(0)[1]);
+        assertEquals(36_500_000L, rows.get(0)[2]);
+        assertEquals(35_250_000L, rows.get(0)[3]);
+        assertEquals(-500_000L, rows.get(0)[4]);
+        // Digits beyond the supported scale are truncated
+        assertEquals(LocalDate.parse("2017-01-05").toEpochDay(), rows.get(1)[0]);
+        assertEquals(1_123_456L, rows.get(1)[1]);
+    }
+
+    @Test
+    public void testParsePricesAcrossBufferBoundaries() throws IOException {
+        StringBuilder input = new StringBuilder("Date,Open,High,Low,Close,Adj Close,Volume\n");
+        LocalDate date = LocalDate.parse("1970-01-01");
+        int days = 5000;
+        for (int i = 0; i < days; i++) {
+            input.append(date.plusDays(i)).append(",1.5,2.5,0.5,").append(i).append(".25,1,100\n");
+        }
+
+        long[] expectedDay = {date.toEpochDay()};
+        int count = YahooCsvParser.parsePrices(stream(input.toString()), (epochDay, open, high, low, close) -> {
+            assertEquals(expectedDay[0], epochDay);
+            assertEquals((expectedDay[0] - date.toEpochDay()) * 1_000_000L + 250_000L, close);
+            expectedDay[0]++;
+        });
+
+        assertEquals(days, count);
+    }
+
+    @Test
+    public void testParseDividends() throws IOException {
+        String input = "Date,Dividends\n"
+                     + "2017-01-01,0.1\n"
+                     + "2017-01-02,1,2\n"
+                     + "2017-01-03,\n"
+                     + "2017-01-04,.24\n";
+
+        List<long[]> rows = new ArrayList<>();
+        int count = YahooCsvParser.parseDividends(stream(input), (epochDay, dividend) -> rows.add(new long[]{epochDay, dividend}));
+
+        assertEquals(2, count);
+        assertEquals(100_000L, rows.get(0)[1]);
+        assertEquals(LocalDate.parse("2017-01-04").toEpochDay(), rows.get(1)[0]);
+        assertEquals(240_000L, rows.get(1)[1]);
+    }
+
+    @Test
+    public void testToEpochDay() {
+        for (LocalDate date = LocalDate.parse("1600-01-01"); date.getYear() < 2400; date = date.plusDays(13)) {
+            assertEquals(date.toEpochDay(), YahooCsvParser.toEpochDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
+        }
+        assertEquals(Long.MIN_VALUE, YahooCsvParser.toEpochDay(2019, 2, 29));
+        assertEquals(LocalDate.parse("2020-02-29").toEpochDay(), YahooCsvParser.toEpochDay(2020, 2, 29));
+        assertEquals(Long.MIN_VALUE, YahooCsvParser.toEpochDay(2020, 13, 1));
+    }
+}
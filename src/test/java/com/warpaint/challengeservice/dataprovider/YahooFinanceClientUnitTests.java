@@ -1,32 +1,42 @@
 package com.warpaint.challengeservice.dataprovider;
 
+import com.warpaint.challengeservice.model.Price;
+import com.warpaint.challengeservice.model.PriceSeries;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.BasicCookieStore;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.http.HttpStatus;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.*;
 
 
 public class YahooFinanceClientUnitTests {
 
-    @InjectMocks
     private YahooFinanceClient client;
 
     @Mock
@@ -35,6 +45,11 @@ public class YahooFinanceClientUnitTests {
     @Mock
     private HttpHandler httpHandler;
 
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
     private final String SYMBOL = "LOGM";
     private final LocalDate FROM = LocalDate.parse("2017-01-01");
     private final LocalDate TO = LocalDate.parse("2017-01-31");
@@ -43,15 +58,22 @@ public class YahooFinanceClientUnitTests {
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
+        client = new YahooFinanceClient(httpHandler, meterRegistry, executor, YahooFinanceClient.DEFAULT_DOWNLOAD_BASE_URL,
+                YahooFinanceSession.DEFAULT_PROFILE_BASE_URL);
         client.setSession(session);
     }
 
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
     @Test
     public void testFetchPriceData() throws IOException {
         LocalDate date1 = LocalDate.parse("2017-01-01");
         LocalDate date2 = LocalDate.parse("2017-01-02");
-        BigDecimal close1 = BigDecimal.valueOf(100);
-        BigDecimal close2 = BigDecimal.valueOf(101);
+        Price close1 = Price.of(100_000_000L);
+        Price close2 = Price.of(101_000_000L);
 
         String input = "Date,Open,High,Low,Close,Adj Close,Volume\n"
                      + date1 + ",1,2,3," + close1 + ",5,6\n"
@@ -75,13 +97,18 @@ public class YahooFinanceClientUnitTests {
         doReturn(entity).when(httpResponse).getEntity();
         doReturn(stream).when(entity).getContent();
 
-        List<?> dataSet = client.fetchPriceData(SYMBOL, FROM, TO);
+        PriceSeries dataSet = client.fetchPriceData(SYMBOL, FROM, TO);
         assertEquals(2, dataSet.size());
-
-        // TODO assert
+        assertEquals(date1, dataSet.tradeDate(0));
+        assertEquals(close1, dataSet.toPricing(0).getClosePrice());
+        assertEquals(Price.of(1_000_000L), dataSet.toPricing(0).getOpenPrice());
+        assertEquals(Price.of(2_000_000L), dataSet.toPricing(0).getHighPrice());
+        assertEquals(Price.of(3_000_000L), dataSet.toPricing(0).getLowPrice());
+        assertEquals(date2, dataSet.tradeDate(1));
+        assertEquals(close2, dataSet.toPricing(1).getClosePrice());
     }
 
-    @Test
+    @Test(expected = UpstreamResponseException.class)
     public void testFetchPriceData_IOException() throws IOException {
 
         doNothing().when(session).acquireCrumbWithTicker(SYMBOL);
@@ -97,17 +124,15 @@ public class YahooFinanceClientUnitTests {
         doReturn(entity).when(httpResponse).getEntity();
         doThrow(IOException.class).when(entity).getContent();
 
-        List<?> dataSet = client.fetchPriceData(SYMBOL, FROM, TO);
-
-        assertEquals(0, dataSet.size());
+        client.fetchPriceData(SYMBOL, FROM, TO);
     }
 
     @Test
     public void testFetchPriceData_ExpiredSession() throws IOException {
         LocalDate date1 = LocalDate.parse("2017-01-01");
         LocalDate date2 = LocalDate.parse("2017-01-02");
-        BigDecimal close1 = BigDecimal.valueOf(100);
-        BigDecimal close2 = BigDecimal.valueOf(101);
+        Price close1 = Price.of(100_000_000L);
+        Price close2 = Price.of(101_000_000L);
 
         String input = "Date,Open,High,Low,Close,Adj Close,Volume\n"
                      + date1 + ",1,2,3," + close1 + ",5,6\n"
@@ -119,7 +144,8 @@ public class YahooFinanceClientUnitTests {
         StatusLine statusLine = mock(StatusLine.class);
         HttpEntity entity = mock(HttpEntity.class);
         
-        when(statusLine.getStatusCode()).thenReturn(HttpStatus.UNAUTHORIZED.value());
+        // Unauthorized with the expired crumb, then successful with the fresh one
+        when(statusLine.getStatusCode()).thenReturn(HttpStatus.UNAUTHORIZED.value()).thenReturn(HttpStatus.OK.value());
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
         doReturn(httpResponse).when(httpHandler).fetchResponse(anyObject());
         doReturn(new BasicCookieStore()).when(httpHandler).getCookieStore();
@@ -129,18 +155,18 @@ public class YahooFinanceClientUnitTests {
         doReturn(entity).when(httpResponse).getEntity();
         doReturn(stream).when(entity).getContent();
 
-        List<?> dataSet = client.fetchPriceData(SYMBOL, FROM, TO);
+        PriceSeries dataSet = client.fetchPriceData(SYMBOL, FROM, TO);
         assertEquals(2, dataSet.size());
-
-        // TODO assert
+        assertEquals(close1, dataSet.toPricing(0).getClosePrice());
+        assertEquals(close2, dataSet.toPricing(1).getClosePrice());
     }
 
     @Test
     public void testFetchDividendData() throws IOException {
         LocalDate date1 = LocalDate.parse("2017-01-01");
         LocalDate date2 = LocalDate.parse("2017-01-02");
-        BigDecimal dividend1 = BigDecimal.valueOf(0.1);
-        BigDecimal dividend2 = BigDecimal.valueOf(0.24);
+        Price dividend1 = Price.of(100_000L);
+        Price dividend2 = Price.of(240_000L);
 
         String input = "Date,Dividend\n"
                      + date1 + "," + dividend1 + "\n"
@@ -164,13 +190,15 @@ public class YahooFinanceClientUnitTests {
         doReturn(entity).when(httpResponse).getEntity();
         doReturn(stream).when(entity).getContent();
 
-        List<?> dataSet = client.fetchDividendData(SYMBOL, FROM, TO);
+        PriceSeries dataSet = client.fetchDividendData(SYMBOL, FROM, TO);
         assertEquals(2, dataSet.size());
-        
-        // TODO assert
+        assertEquals(date1, dataSet.tradeDate(0));
+        assertEquals(dividend1, dataSet.toPricing(0).getDividend());
+        assertEquals(date2, dataSet.tradeDate(1));
+        assertEquals(dividend2, dataSet.toPricing(1).getDividend());
     }
 
-    @Test
+    @Test(expected = UpstreamResponseException.class)
     public void testFetchDividendData_IOException() throws IOException {
 
         doNothing().when(session).acquireCrumbWithTicker(SYMBOL);
@@ -186,17 +214,15 @@ public class YahooFinanceClientUnitTests {
         doReturn(entity).when(httpResponse).getEntity();
         doThrow(IOException.class).when(entity).getContent();
 
-        List<?> dataSet = client.fetchDividendData(SYMBOL, FROM, TO);
-
-        assertEquals(0, dataSet.size());
+        client.fetchDividendData(SYMBOL, FROM, TO);
     }
 
     @Test
     public void testFetchDividendData_ExpiredSession() throws IOException {
         LocalDate date1 = LocalDate.parse("2017-01-01");
         LocalDate date2 = LocalDate.parse("2017-01-02");
-        BigDecimal dividend1 = BigDecimal.valueOf(0.1);
-        BigDecimal dividend2 = BigDecimal.valueOf(0.24);
+        Price dividend1 = Price.of(100_000L);
+        Price dividend2 = Price.of(240_000L);
 
         String input = "Date,Dividend\n"
                      + date1 + "," + dividend1 + "\n"
@@ -208,7 +234,8 @@ public class YahooFinanceClientUnitTests {
         StatusLine statusLine = mock(StatusLine.class);
         HttpEntity entity = mock(HttpEntity.class);
         
-        when(statusLine.getStatusCode()).thenReturn(HttpStatus.UNAUTHORIZED.value());
+        // Unauthorized with the expired crumb, then successful with the fresh one
+        when(statusLine.getStatusCode()).thenReturn(HttpStatus.UNAUTHORIZED.value()).thenReturn(HttpStatus.OK.value());
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
         doReturn(httpResponse).when(httpHandler).fetchResponse(anyObject());
         doReturn(new BasicCookieStore()).when(httpHandler).getCookieStore();
@@ -218,13 +245,20 @@ public class YahooFinanceClientUnitTests {
         doReturn(entity).when(httpResponse).getEntity();
         doReturn(stream).when(entity).getContent();
 
-        List<?> dataSet = client.fetchDividendData(SYMBOL, FROM, TO);
+        PriceSeries dataSet = client.fetchDividendData(SYMBOL, FROM, TO);
         assertEquals(2, dataSet.size());
-
-        // TODO assert
+        assertEquals(dividend1, dataSet.toPricing(0).getDividend());
+        assertEquals(dividend2, dataSet.toPricing(1).getDividend());
+
+        // The retry after the unauthorized response still asks for dividends
+        ArgumentCaptor<HttpUriRequest> requests = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(httpHandler, times(2)).fetchResponse(requests.capture());
+        assertTrue(requests.getValue().getURI().toString().contains("events=div"));
+        verify(session).invalidate(0L);
+        assertEquals(1, meterRegistry.counter(YahooFinanceClient.UNAUTHORIZED_RETRIES, "endpoint", "dividends").count(), 0);
     }
 
-    @Test
+    @Test(expected = SymbolNotFoundException.class)
     public void testFetchPriceData_Http404() {
         doNothing().when(session).acquireCrumbWithTicker(SYMBOL);
 
@@ -235,9 +269,7 @@ public class YahooFinanceClientUnitTests {
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
         doReturn(httpResponse).when(httpHandler).fetchResponse(anyObject());
 
-        List<?> dataSet = client.fetchPriceData(SYMBOL, FROM, TO);
-
-        assertEquals(0, dataSet.size());
+        client.fetchPriceData(SYMBOL, FROM, TO);
     }
 
     @Test
@@ -251,8 +283,130 @@ public class YahooFinanceClientUnitTests {
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
         doReturn(httpResponse).when(httpHandler).fetchResponse(anyObject());
 
-        List<?> dataSet = client.fetchDividendData(SYMBOL, FROM, TO);
+        PriceSeries dataSet = client.fetchDividendData(SYMBOL, FROM, TO);
 
         assertEquals(0, dataSet.size());
     }
+
+    @Test(expected = UpstreamResponseException.class)
+    public void testFetchPriceData_ServerError() {
+        doNothing().when(session).acquireCrumbWithTicker(SYMBOL);
+        HttpResponse httpResponse = statusResponse(HttpStatus.FORBIDDEN);
+        doReturn(httpResponse).when(httpHandler).fetchResponse(anyObject());
+
+        client.fetchPriceData(SYMBOL, FROM, TO);
+    }
+
+    @Test
+    public void testFetchPriceDataAsync_UnauthorizedTwice() {
+        doReturn(CompletableFuture.completedFuture(null)).when(session).acquireCrumbWithTickerAsync(SYMBOL);
+        HttpResponse httpResponse = statusResponse(HttpStatus.UNAUTHORIZED);
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpHandler).fetchResponseAsync(anyObject());
+
+        try {
+            client.fetchPriceDataAsync(SYMBOL, FROM, TO).join();
+            fail("Expected the second unauthorized response to fail the download");
+        }
+        catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof UpstreamResponseException);
+        }
+        verify(httpHandler, times(2)).fetchResponseAsync(anyObject());
+    }
+
+    @Test
+    public void testFetchPriceDataAsync() throws IOException {
+        String input = "Date,Open,High,Low,Close,Adj Close,Volume\n"
+                     + "2017-01-03,1,2,3,100,5,6\n"
+                     + "wrongDate,1,2,3,4,5,6\n"
+                     + "2017-01-04,1,2,3,101,11,12\n";
+
+        doReturn(CompletableFuture.completedFuture(null)).when(session).acquireCrumbWithTickerAsync(SYMBOL);
+
+        HttpResponse httpResponse = mock(HttpResponse.class);
+        StatusLine statusLine = mock(StatusLine.class);
+        HttpEntity entity = mock(HttpEntity.class);
+
+        when(statusLine.getStatusCode()).thenReturn(HttpStatus.OK.value());
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpHandler).fetchResponseAsync(anyObject());
+        doReturn(entity).when(httpResponse).getEntity();
+        doReturn(new ByteArrayInputStream(input.getBytes())).when(entity).getContent();
+
+        PriceSeries dataSet = client.fetchPriceDataAsync(SYMBOL, FROM, TO).join();
+
+        assertEquals(2, dataSet.size());
+        assertEquals(LocalDate.parse("2017-01-04"), dataSet.tradeDate(1));
+        assertEquals(Price.of(101_000_000L), dataSet.toPricing(1).getClosePrice());
+    }
+
+    @Test
+    public void testFetchDividendDataAsync_ExpiredSession() throws IOException {
+        String input = "Date,Dividends\n"
+                     + "2017-01-03,0.24\n";
+
+        doReturn(CompletableFuture.completedFuture(null)).when(session).acquireCrumbWithTickerAsync(SYMBOL);
+
+        HttpResponse unauthorized = mock(HttpResponse.class);
+        StatusLine unauthorizedStatus = mock(StatusLine.class);
+        when(unauthorizedStatus.getStatusCode()).thenReturn(HttpStatus.UNAUTHORIZED.value());
+        when(unauthorized.getStatusLine()).thenReturn(unauthorizedStatus);
+
+        HttpResponse httpResponse = okResponse(input);
+
+        when(httpHandler.fetchResponseAsync(anyObject()))
+                .thenReturn(CompletableFuture.completedFuture(unauthorized))
+                .thenReturn(CompletableFuture.completedFuture(httpResponse));
+
+        PriceSeries dataSet = client.fetchDividendDataAsync(SYMBOL, FROM, TO).join();
+
+        assertEquals(1, dataSet.size());
+        assertEquals(Price.of(240_000L), dataSet.toPricing(0).getDividend());
+        verify(session).invalidate(0L);
+        verify(session, times(2)).acquireCrumbWithTickerAsync(SYMBOL);
+    }
+
+    @Test
+    public void testFetchPriceAndDividendDataAsync() throws IOException {
+        String prices = "Date,Open,High,Low,Close,Adj Close,Volume\n"
+                      + "2017-01-03,1,2,3,100,5,6\n"
+                      + "2017-01-04,1,2,3,101,11,12\n";
+        String dividends = "Date,Dividends\n"
+                         + "2017-01-04,0.24\n";
+
+        doReturn(CompletableFuture.completedFuture(null)).when(session).acquireCrumbWithTickerAsync(SYMBOL);
+        HttpResponse priceResponse = okResponse(prices);
+        HttpResponse dividendResponse = okResponse(dividends);
+        doAnswer(invocation -> {
+            HttpUriRequest request = (HttpUriRequest) invocation.getArguments()[0];
+            boolean dividendRequest = request.getURI().toString().contains("events=div");
+            return CompletableFuture.completedFuture(dividendRequest ? dividendResponse : priceResponse);
+        }).when(httpHandler).fetchResponseAsync(anyObject());
+
+        PriceSeries dataSet = client.fetchPriceAndDividendDataAsync(SYMBOL, FROM, TO).join();
+
+        assertEquals(2, dataSet.size());
+        assertEquals(null, dataSet.toPricing(0).getDividend());
+        assertEquals(Price.of(101_000_000L), dataSet.toPricing(1).getClosePrice());
+        assertEquals(Price.of(240_000L), dataSet.toPricing(1).getDividend());
+        verify(httpHandler, times(2)).fetchResponseAsync(anyObject());
+    }
+
+    private static HttpResponse statusResponse(HttpStatus status) {
+        HttpResponse httpResponse = mock(HttpResponse.class);
+        StatusLine statusLine = mock(StatusLine.class);
+        when(statusLine.getStatusCode()).thenReturn(status.value());
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        return httpResponse;
+    }
+
+    private static HttpResponse okResponse(String body) throws IOException {
+        HttpResponse httpResponse = mock(HttpResponse.class);
+        StatusLine statusLine = mock(StatusLine.class);
+        HttpEntity entity = mock(HttpEntity.class);
+        when(statusLine.getStatusCode()).thenReturn(HttpStatus.OK.value());
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        doReturn(entity).when(httpResponse).getEntity();
+        doReturn(new ByteArrayInputStream(body.getBytes())).when(entity).getContent();
+        return httpResponse;
+    }
 }
@@ -1,5 +1,7 @@
 package com.warpaint.challengeservice.dataprovider;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
@@ -7,31 +9,44 @@ import org.apache.http.client.CookieStore;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.http.HttpStatus;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.*;
 
 public class YahooFinanceSessionUnitTests {
 	
-	@InjectMocks
     private YahooFinanceSession session;
 	
 	@Mock
 	private HttpHandler httpHandler;
+
+	@Spy
+	private MeterRegistry meterRegistry = new SimpleMeterRegistry();
 	
 	@Before
     public void init() {
         MockitoAnnotations.initMocks(this);
+        session = new YahooFinanceSession(httpHandler, meterRegistry, YahooFinanceSession.DEFAULT_PROFILE_BASE_URL);
     }
 	
 	@Test
@@ -126,4 +141,79 @@ public class YahooFinanceSessionUnitTests {
 		assertEquals(null, session.getCrumb());
 	}
 	
+	@Test
+	public void testInvalidateStaleVersion() throws IOException {
+		doReturn(new BasicCookieStore()).when(httpHandler).getCookieStore();
+		mockProfileResponse("CrumbStore\":{\"crumb\":\"first\"}");
+		session.acquireCrumbWithTicker("LOGM");
+		long staleVersion = session.getCrumbVersion();
+
+		assertTrue(session.invalidate(staleVersion));
+		mockProfileResponse("CrumbStore\":{\"crumb\":\"second\"}");
+		session.acquireCrumbWithTicker("LOGM");
+
+		// A late unauthorized response to a request sent with the first crumb
+		assertFalse(session.invalidate(staleVersion));
+		assertEquals("second", session.getCrumb());
+		assertTrue(session.getCrumbVersion() > staleVersion);
+	}
+
+	@Test
+	public void testAcquireCrumbWithTickerConcurrently() throws Exception {
+		CountDownLatch fetching = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		HttpResponse httpResponse = mock(HttpResponse.class);
+		HttpEntity entity = mock(HttpEntity.class);
+		doReturn(entity).when(httpResponse).getEntity();
+		doReturn(new ByteArrayInputStream("CrumbStore\":{\"crumb\":\"shared\"}".getBytes())).when(entity).getContent();
+		doAnswer(invocation -> {
+			fetching.countDown();
+			release.await();
+			return httpResponse;
+		}).when(httpHandler).fetchResponse(anyObject());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> callers = new ArrayList<>();
+			callers.add(executor.submit(() -> session.acquireCrumbWithTicker("LOGM")));
+			fetching.await();
+			for (int i = 0; i < 3; i++) {
+				callers.add(executor.submit(() -> session.acquireCrumbWithTicker("LOGM")));
+			}
+			CompletableFuture<Void> asyncCaller = session.acquireCrumbWithTickerAsync("LOGM");
+			release.countDown();
+			for (Future<?> caller : callers) {
+				caller.get(5, TimeUnit.SECONDS);
+			}
+			asyncCaller.get(5, TimeUnit.SECONDS);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals("shared", session.getCrumb());
+		verify(httpHandler, times(1)).fetchResponse(anyObject());
+		assertEquals(1, meterRegistry.counter(YahooFinanceSession.CRUMB_REFRESHES).count(), 0);
+		verify(httpHandler, never()).fetchResponseAsync(anyObject());
+	}
+
+	@Test
+	public void testExtractCrumbStopsReading() {
+		String crumbLine = "CrumbStore\":{\"crumb\":\"abc\\u002Fdef\"}\n";
+		byte[] page = new byte[1 << 20];
+		System.arraycopy(crumbLine.getBytes(), 0, page, 0, crumbLine.length());
+		ByteArrayInputStream stream = new ByteArrayInputStream(page);
+
+		assertEquals("abc/def", YahooFinanceSession.extractCrumbFromStream(stream));
+		assertTrue(stream.available() > 0);
+	}
+
+	private void mockProfileResponse(String page) throws IOException {
+		HttpResponse httpResponse = mock(HttpResponse.class);
+		HttpEntity entity = mock(HttpEntity.class);
+		doReturn(entity).when(httpResponse).getEntity();
+		doReturn(new ByteArrayInputStream(page.getBytes())).when(entity).getContent();
+		doReturn(httpResponse).when(httpHandler).fetchResponse(anyObject());
+	}
+
 }
@@ -0,0 +1,86 @@
+package com.warpaint.challengeservice.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PriceSeriesCodecUnitTests {
+
+    private static final LocalDate START = LocalDate.parse("1990-01-02");
+
+    private static byte[] encode(PriceSeries series) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PriceSeriesCodec.encode(series, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static PriceSeries decode(byte[] bytes) throws IOException {
+        return PriceSeriesCodec.decode(new ByteArrayInputStream(bytes));
+    }
+
+    private static void assertSameRows(PriceSeries expected, PriceSeries actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.epochDay(i), actual.epochDay(i));
+            assertEquals(expected.open(i), actual.open(i));
+            assertEquals(expected.high(i), actual.high(i));
+            assertEquals(expected.low(i), actual.low(i));
+            assertEquals(expected.close(i), actual.close(i));
+            assertEquals(expected.dividend(i), actual.dividend(i));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        PriceSeries.Builder builder = PriceSeries.builder();
+        long close = 50_000_000L;
+        for (int i = 0; i < 10_000; i++) {
+            close += (i % 7 - 3) * 10_000L;
+            builder.add((int) START.toEpochDay() + i + i / 5 * 2, close - 5_000L, close + 20_000L, close - 30_000L, close,
+                    i % 63 == 0 ? 240_000L : PriceSeries.NONE);
+        }
+        PriceSeries series = builder.build();
+
+        byte[] bytes = encode(series);
+
+        assertSameRows(series, decode(bytes));
+        // Roughly a byte per day and a couple of bytes per price, far below the 44 bytes of a raw row
+        assertTrue(bytes.length < series.size() * 12);
+    }
+
+    @Test
+    public void testRoundTripEdgeValues() throws IOException {
+        PriceSeries series = PriceSeries.builder()
+                .add(-40_000, PriceSeries.NONE, Long.MAX_VALUE, -1L, 0L, PriceSeries.NONE)
+                .add(-1, 1L, PriceSeries.NONE, Long.MIN_VALUE + 1, 0L, PriceSeries.NONE)
+                .add(Integer.MAX_VALUE, PriceSeries.NONE, 7L, 3L, Long.MAX_VALUE, PriceSeries.NONE)
+                .build();
+
+        assertSameRows(series, decode(encode(series)));
+        assertSameRows(series.slice(1, 3), decode(encode(series.slice(1, 3))));
+    }
+
+    @Test
+    public void testRoundTripEmpty() throws IOException {
+        assertTrue(decode(encode(PriceSeries.empty())).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidMagic() throws IOException {
+        decode("JSON".getBytes());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testDecodeTruncated() throws IOException {
+        byte[] bytes = encode(PriceSeries.builder().add(1, 1L, 2L, 3L, 4L, 5L).build());
+        decode(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+}
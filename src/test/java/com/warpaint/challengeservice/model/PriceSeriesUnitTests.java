@@ -0,0 +1,182 @@
+package com.warpaint.challengeservice.model;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PriceSeriesUnitTests {
+
+    private static final LocalDate START = LocalDate.parse("2017-01-02");
+
+    private static PriceSeries series(int days) {
+        PriceSeries.Builder builder = PriceSeries.builder(2);
+        for (int i = 0; i < days; i++) {
+            long price = (100 + i) * 1_000_000L;
+            builder.add((int) START.plusDays(2 * i).toEpochDay(), price, price + 500_000L, price - 250_000L, price,
+                    i == 1 ? 240_000L : PriceSeries.NONE);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testToPricing() {
+        PriceSeries series = series(3);
+
+        Pricing first = series.toPricing(0);
+        assertEquals(START, first.getTradeDate());
+        assertEquals(Price.of(100_000_000L), first.getOpenPrice());
+        assertEquals(Price.of(100_500_000L), first.getHighPrice());
+        assertEquals(Price.of(99_750_000L), first.getLowPrice());
+        assertNull(first.getDividend());
+        assertEquals(Price.of(240_000L), series.toPricing(1).getDividend());
+
+        List<Pricing> rows = series.toPricingList();
+        assertEquals(3, rows.size());
+        assertEquals(START.plusDays(4), rows.get(2).getTradeDate());
+    }
+
+    @Test
+    public void testSlice() {
+        PriceSeries series = series(10);
+
+        PriceSeries slice = series.slice(START.plusDays(3), START.plusDays(8));
+        assertEquals(3, slice.size());
+        assertEquals(START.plusDays(4), slice.tradeDate(0));
+        assertEquals(START.plusDays(8), slice.tradeDate(2));
+        assertEquals(102_000_000L, slice.close(0));
+
+        PriceSeries nested = slice.slice(1, 3);
+        assertEquals(2, nested.size());
+        assertEquals(START.plusDays(6), nested.tradeDate(0));
+
+        assertSame(series, series.slice(START.minusDays(10), START.plusDays(100)));
+        assertTrue(series.slice(START.plusDays(100), START.plusDays(200)).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderRejectsUnsortedRows() {
+        PriceSeries.builder()
+                .add(10, 1, 1, 1, 1, PriceSeries.NONE)
+                .add(10, 1, 1, 1, 1, PriceSeries.NONE);
+    }
+
+    @Test
+    public void testFingerprint() {
+        PriceSeries series = series(10);
+        PriceSeries copy = PriceSeries.builder().addAll(series.slice(2, 6)).build();
+
+        assertEquals(copy.fingerprint(), series.slice(2, 6).fingerprint());
+        assertNotEquals(series.slice(2, 6).fingerprint(), series.slice(2, 7).fingerprint());
+        assertNotEquals(series.slice(2, 6).fingerprint(), series.slice(3, 7).fingerprint());
+        PriceSeries changedClose = PriceSeries.builder()
+                .addAll(series.slice(0, 9))
+                .add(series.epochDay(9), series.open(9), series.high(9), series.low(9), series.close(9) + 1, series.dividend(9))
+                .build();
+        assertNotEquals(series.fingerprint(), changedClose.fingerprint());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfSlice() {
+        series(10).slice(2, 4).close(2);
+    }
+
+    @Test
+    public void testToDecimal() {
+        assertEquals("0", PriceSeries.toDecimal(0).toString());
+        assertEquals("1200", PriceSeries.toDecimal(1_200_000_000L).toString());
+        assertEquals("0.000001", PriceSeries.toDecimal(1).toString());
+        assertEquals("-35.900002", PriceSeries.toDecimal(-35_900_002L).toString());
+        assertNull(PriceSeries.toDecimal(PriceSeries.NONE));
+    }
+
+    @Test
+    public void testWithDividends() {
+        PriceSeries prices = series(4);
+        PriceSeries dividends = PriceSeries.builder()
+                .add((int) START.minusDays(1).toEpochDay(), PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, 10_000L)
+                .add((int) START.plusDays(2).toEpochDay(), PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, 60_000L)
+                .add((int) START.plusDays(5).toEpochDay(), PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, 500_000L)
+                .add((int) START.plusDays(30).toEpochDay(), PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, 1_000_000L)
+                .build();
+
+        PriceSeries merged = prices.withDividends(dividends);
+
+        assertEquals(4, merged.size());
+        assertEquals(prices.close(3), merged.close(3));
+        // Carried from the day before the first bar
+        assertEquals(10_000L, merged.dividend(0));
+        // Added to the dividend already on the bar
+        assertEquals(300_000L, merged.dividend(1));
+        assertEquals(PriceSeries.NONE, merged.dividend(2));
+        // Dated on a day without a bar
+        assertEquals(500_000L, merged.dividend(3));
+
+        assertSame(prices, prices.withDividends(PriceSeries.empty()));
+    }
+
+    @Test
+    public void testResampleWeekly() {
+        PriceSeries weekly = series(10).resample(Interval.WEEK);
+
+        assertEquals(3, weekly.size());
+        assertEquals(START, weekly.tradeDate(0));
+        assertEquals(100_000_000L, weekly.open(0));
+        assertEquals(103_500_000L, weekly.high(0));
+        assertEquals(99_750_000L, weekly.low(0));
+        assertEquals(103_000_000L, weekly.close(0));
+        assertEquals(240_000L, weekly.dividend(0));
+        assertEquals(START.plusWeeks(1), weekly.tradeDate(1));
+        assertEquals(104_000_000L, weekly.open(1));
+        assertEquals(106_000_000L, weekly.close(1));
+        assertEquals(PriceSeries.NONE, weekly.dividend(1));
+    }
+
+    @Test
+    public void testResampleMonthlyAndYearly() {
+        PriceSeries monthly = series(20).resample(Interval.MONTH);
+        assertEquals(2, monthly.size());
+        assertEquals(LocalDate.parse("2017-01-01"), monthly.tradeDate(0));
+        assertEquals(114_000_000L, monthly.close(0));
+        assertEquals(LocalDate.parse("2017-02-01"), monthly.tradeDate(1));
+        assertEquals(115_000_000L, monthly.open(1));
+
+        PriceSeries yearly = series(20).resample(Interval.YEAR);
+        assertEquals(1, yearly.size());
+        assertEquals(119_500_000L, yearly.high(0));
+        assertEquals(99_750_000L, yearly.low(0));
+
+        PriceSeries daily = series(20);
+        assertSame(daily, daily.resample(Interval.DAY));
+        assertEquals(Interval.MONTH, Interval.of("1mo"));
+    }
+
+    @Test
+    public void testDownsampleKeepsShape() {
+        PriceSeries.Builder builder = PriceSeries.builder();
+        for (int i = 0; i < 1000; i++) {
+            long price = (i == 500 ? 200 : 100) * 1_000_000L;
+            builder.add((int) START.plusDays(i).toEpochDay(), price, price, price, price, PriceSeries.NONE);
+        }
+        PriceSeries series = builder.build();
+
+        PriceSeries sampled = series.downsample(50);
+
+        assertEquals(50, sampled.size());
+        assertEquals(START, sampled.tradeDate(0));
+        assertEquals(START.plusDays(999), sampled.tradeDate(49));
+        assertEquals(START.plusDays(500), sampled.tradeDate(sampled.indexOnOrAfter(START.plusDays(500).toEpochDay())));
+        assertSame(series, series.downsample(1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDownsampleToTooFewPoints() {
+        series(10).downsample(2);
+    }
+}
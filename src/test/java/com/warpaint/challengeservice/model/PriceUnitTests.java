@@ -0,0 +1,68 @@
+package com.warpaint.challengeservice.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PriceUnitTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @Test
+    public void testToString() {
+        assertEquals("0", Price.of(0).toString());
+        assertEquals("100", Price.of(100_000_000L).toString());
+        assertEquals("100.5", Price.of(100_500_000L).toString());
+        assertEquals("0.000125", Price.of(125L).toString());
+        assertEquals("-1.05", Price.of(-1_050_000L).toString());
+        assertEquals("9223372036854.775807", Price.of(Long.MAX_VALUE).toString());
+        assertNull(Price.orNull(PriceSeries.NONE));
+    }
+
+    @Test
+    public void testJsonMatchesBigDecimal() throws Exception {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 10_000; i++) {
+            long units;
+            switch (i % 4) {
+                case 0:
+                    units = random.nextLong(-1_000_000_000L, 1_000_000_000L);
+                    break;
+                case 1:
+                    units = random.nextLong(1_000_000L) * 1_000L;
+                    break;
+                case 2:
+                    units = random.nextLong(100_000L) * 1_000_000L;
+                    break;
+                default:
+                    units = random.nextLong(PriceSeries.NONE + 1, Long.MAX_VALUE);
+            }
+            assertEquals(objectMapper.writeValueAsString(PriceSeries.toDecimal(units)),
+                    objectMapper.writeValueAsString(Price.of(units)));
+        }
+    }
+
+    @Test
+    public void testPricingJson() throws Exception {
+        Pricing pricing = Pricing.builder()
+                .tradeDate(LocalDate.parse("2018-06-01"))
+                .openPrice(Price.of(100_000_000L))
+                .closePrice(Price.of(101_250_000L))
+                .build();
+
+        assertEquals("{\"openPrice\":100,\"closePrice\":101.25,\"tradeDate\":\"2018-06-01\"}",
+                objectMapper.writeValueAsString(pricing));
+        assertEquals("{\"openPrice\":\"100\",\"closePrice\":\"101.25\",\"tradeDate\":\"2018-06-01\"}",
+                objectMapper.writer().with(JsonGenerator.Feature.WRITE_NUMBERS_AS_STRINGS).writeValueAsString(pricing));
+    }
+}
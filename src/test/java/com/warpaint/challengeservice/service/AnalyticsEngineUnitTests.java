@@ -0,0 +1,116 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.AssetAnalytics;
+import com.warpaint.challengeservice.model.PriceSeries;
+import org.junit.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnalyticsEngineUnitTests {
+
+    private static final LocalDate START = LocalDate.parse("2010-01-04");
+
+    private static final double TOLERANCE = 1e-9;
+
+    private final AnalyticsEngine engine = new AnalyticsEngine();
+
+    private static PriceSeries randomWalk(int days, long seed) {
+        return PriceSeriesFixtures.randomWalk(START, days, 0.0002, 0.015, seed);
+    }
+
+    @Test
+    public void testRollingIndicatorsMatchNaiveComputation() {
+        PriceSeries history = randomWalk(1000, 7);
+        int[] windows = {5, 20, 200};
+
+        AssetAnalytics analytics = engine.analyze(history, windows);
+
+        double[] closes = analytics.getClose();
+        assertEquals(history.size(), closes.length);
+        for (int k = 0; k < windows.length; k++) {
+            int window = windows[k];
+            AssetAnalytics.Rolling rolling = analytics.getIndicators().get(k);
+            assertEquals(window, rolling.getWindow());
+            assertTrue(Double.isNaN(rolling.getSma()[window - 2]));
+            assertTrue(Double.isNaN(rolling.getVolatility()[window - 1]));
+
+            double ema = Double.NaN;
+            for (int i = window - 1; i < closes.length; i++) {
+                double sum = 0;
+                for (int j = i - window + 1; j <= i; j++) {
+                    sum += closes[j];
+                }
+                assertEquals(sum / window, rolling.getSma()[i], TOLERANCE * closes[i]);
+
+                ema = (i == window - 1) ? sum / window : ema + 2.0 / (window + 1) * (closes[i] - ema);
+                assertEquals(ema, rolling.getEma()[i], TOLERANCE * closes[i]);
+
+                if (i >= window) {
+                    assertEquals(closes[i] / closes[i - window] - 1, rolling.getReturns()[i], TOLERANCE);
+                    assertEquals(volatility(closes, i, window), rolling.getVolatility()[i], TOLERANCE);
+                }
+            }
+        }
+    }
+
+    private static double volatility(double[] closes, int last, int window) {
+        double mean = 0;
+        for (int j = last - window + 1; j <= last; j++) {
+            mean += Math.log(closes[j] / closes[j - 1]) / window;
+        }
+        double sumOfSquares = 0;
+        for (int j = last - window + 1; j <= last; j++) {
+            double deviation = Math.log(closes[j] / closes[j - 1]) - mean;
+            sumOfSquares += deviation * deviation;
+        }
+        return Math.sqrt(sumOfSquares / (window - 1) * ProjectionEngine.TRADING_DAYS_PER_YEAR);
+    }
+
+    @Test
+    public void testDrawdown() {
+        long[] closes = {100, 120, 90, 110, 60, 130, 125};
+        PriceSeries.Builder builder = PriceSeries.builder();
+        for (int i = 0; i < closes.length; i++) {
+            long close = closes[i] * 1_000_000;
+            builder.add((int) START.plusDays(i).toEpochDay(), close, close, close, close, PriceSeries.NONE);
+        }
+
+        AssetAnalytics analytics = engine.analyze(builder.build(), new int[] {2});
+
+        assertEquals(0, analytics.getDrawdown()[1], TOLERANCE);
+        assertEquals(-0.25, analytics.getDrawdown()[2], TOLERANCE);
+        assertEquals(-0.5, analytics.getDrawdown()[4], TOLERANCE);
+        assertEquals(-5.0 / 130, analytics.getDrawdown()[6], TOLERANCE);
+        assertEquals(-0.5, analytics.getMaxDrawdown().getValue(), TOLERANCE);
+        assertEquals(START.plusDays(1), analytics.getMaxDrawdown().getPeakDate());
+        assertEquals(START.plusDays(4), analytics.getMaxDrawdown().getTroughDate());
+    }
+
+    @Test
+    public void testSkipsRowsWithoutClose() {
+        PriceSeries history = PriceSeries.builder()
+                .add((int) START.toEpochDay(), 1, 1, 1, 100_000_000L, PriceSeries.NONE)
+                .add((int) START.plusDays(1).toEpochDay(), 1, 1, 1, PriceSeries.NONE, 240_000L)
+                .add((int) START.plusDays(2).toEpochDay(), 1, 1, 1, 102_000_000L, PriceSeries.NONE)
+                .build();
+
+        AssetAnalytics analytics = engine.analyze(history, new int[] {2});
+
+        assertEquals(2, analytics.getTradeDates().size());
+        assertEquals(START.plusDays(2), analytics.getTradeDates().get(1));
+        assertEquals(101, analytics.getIndicators().get(0).getSma()[1], TOLERANCE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTooShortWindow() {
+        engine.analyze(randomWalk(10, 1), new int[] {1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTooManyWindows() {
+        AnalyticsEngine.validate(new int[] {2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+    }
+}
@@ -0,0 +1,337 @@
+package com.warpaint.challengeservice.service;
+
+import com.sun.net.httpserver.HttpServer;
+import com.warpaint.challengeservice.cluster.PeerClient;
+import com.warpaint.challengeservice.cluster.PeerUnavailableException;
+import com.warpaint.challengeservice.dataprovider.HttpHandler;
+import com.warpaint.challengeservice.dataprovider.SymbolNotFoundException;
+import com.warpaint.challengeservice.dataprovider.UpstreamResponseException;
+import com.warpaint.challengeservice.dataprovider.UpstreamUnavailableException;
+import com.warpaint.challengeservice.dataprovider.YahooFinanceClient;
+import com.warpaint.challengeservice.dataprovider.YahooFinanceSession;
+import com.warpaint.challengeservice.model.Asset;
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.store.PriceStore;
+import com.warpaint.challengeservice.store.ResidentPriceStore;
+import com.warpaint.challengeservice.model.AssetHistory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.mockito.Mockito.*;
+
+public class ChallengeServiceUnitTests {
+
+    private static final Asset ASSET = new Asset("LOGM");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private YahooFinanceClient client;
+
+    @Mock
+    private PeerClient peers;
+
+    private PriceStore store;
+
+    private ChallengeService service;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @Before
+    public void init() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        store = new PriceStore(true, folder.newFolder().getAbsolutePath());
+        ResidentPriceStore residentStore = new ResidentPriceStore(true, 1 << 30, store, new SimpleMeterRegistry());
+        service = new ChallengeService(client, residentStore, new PriceSeriesCache(0, Duration.ZERO, Clock.systemUTC()),
+                peers, new ProjectionEngine(), new ProjectionCache(10), new AnalyticsEngine(), new PortfolioEngine(),
+                executor, Clock.systemUTC());
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static PriceSeries daily(LocalDate from, LocalDate to) {
+        PriceSeries.Builder builder = PriceSeries.builder();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            builder.add((int) date.toEpochDay(), 1, 1, 1, date.getDayOfMonth(), PriceSeries.NONE);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testGetHistoricalAssetDataFromStore() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn(completedFuture(daily(from, to))).when(client).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+
+        assertEquals(31, service.getHistoricalAssetData(ASSET, from, to).size());
+        PriceSeries stored = service.getHistoricalAssetData(ASSET, from.plusDays(9), to.minusDays(1));
+
+        assertEquals(21, stored.size());
+        assertEquals(from.plusDays(9), stored.tradeDate(0));
+        verify(client, times(1)).fetchPriceAndDividendDataAsync(anyString(), any(LocalDate.class), any(LocalDate.class));
+    }
+
+    @Test
+    public void testSessionStoredOnceClosed() throws IOException {
+        LocalDate day = LocalDate.parse("2018-06-01");
+        doReturn(completedFuture(daily(day.minusDays(10), day))).when(client)
+                .fetchPriceAndDividendDataAsync(eq(ASSET.getSymbol()), any(LocalDate.class), eq(day));
+
+        // During the session its bar is served but not stored
+        atNewYorkTime(day.atTime(15, 0), store).getHistoricalAssetData(ASSET);
+        assertEquals(day.minusDays(1), store.read(ASSET.getSymbol()).getCoveredTo());
+
+        // Like the refresh after the close, which stores the bar of the session that just closed
+        PriceStore refreshed = new PriceStore(true, folder.newFolder().getAbsolutePath());
+        atNewYorkTime(day.atTime(16, 30), refreshed).getHistoricalAssetData(ASSET);
+        assertEquals(day, refreshed.read(ASSET.getSymbol()).getCoveredTo());
+        assertEquals(day, refreshed.read(ASSET.getSymbol()).getSeries().tradeDate(10));
+    }
+
+    private ChallengeService atNewYorkTime(LocalDateTime time, PriceStore priceStore) {
+        ZoneId newYork = ZoneId.of("America/New_York");
+        return new ChallengeService(client, new ResidentPriceStore(true, 1 << 30, priceStore, new SimpleMeterRegistry()),
+                new PriceSeriesCache(0, Duration.ZERO, Clock.systemUTC()), peers, new ProjectionEngine(),
+                new ProjectionCache(10), new AnalyticsEngine(), new PortfolioEngine(), executor,
+                Clock.fixed(time.atZone(newYork).toInstant(), newYork));
+    }
+
+    @Test
+    public void testGetHistoricalAssetDataFetchesGapsOnly() {
+        LocalDate from = LocalDate.parse("2017-01-11");
+        LocalDate to = LocalDate.parse("2017-01-20");
+        doReturn(completedFuture(daily(from, to))).when(client).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+        doReturn(completedFuture(daily(from.minusDays(10), from.minusDays(1)))).when(client)
+                .fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from.minusDays(10), from.minusDays(1));
+        doReturn(completedFuture(daily(to.plusDays(1), to.plusDays(5)))).when(client)
+                .fetchPriceAndDividendDataAsync(ASSET.getSymbol(), to.plusDays(1), to.plusDays(5));
+
+        service.getHistoricalAssetData(ASSET, from, to);
+        PriceSeries series = service.getHistoricalAssetData(ASSET, from.minusDays(10), to.plusDays(5));
+
+        assertEquals(25, series.size());
+        assertEquals(from.minusDays(10), series.tradeDate(0));
+        assertEquals(to.plusDays(5), series.tradeDate(24));
+        verify(client).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from.minusDays(10), from.minusDays(1));
+        verify(client).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), to.plusDays(1), to.plusDays(5));
+
+        // Everything is stored now
+        assertEquals(25, service.getHistoricalAssetData(ASSET, from.minusDays(10), to.plusDays(5)).size());
+        verify(client, times(3)).fetchPriceAndDividendDataAsync(anyString(), any(LocalDate.class), any(LocalDate.class));
+    }
+
+    @Test
+    public void testGetHistoricalAssetDataOfSeveralAssets() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn(completedFuture(daily(from, to))).when(client).fetchPriceAndDividendDataAsync("LOGM", from, to);
+        doReturn(failedFuture(new RuntimeException("Failed GET"))).when(client).fetchPriceAndDividendDataAsync("FAIL", from, to);
+
+        Map<String, AssetHistory> histories = service.getHistoricalAssetDataAsync(
+                Arrays.asList(new Asset("FAIL"), ASSET, new Asset("FAIL")), from, to).join();
+
+        assertEquals(Arrays.asList("FAIL", "LOGM"), new ArrayList<>(histories.keySet()));
+        assertEquals("Failed GET", histories.get("FAIL").getError());
+        assertEquals(31, histories.get("LOGM").getSeries().size());
+        assertNull(histories.get("LOGM").getError());
+        verify(client, times(1)).fetchPriceAndDividendDataAsync("FAIL", from, to);
+    }
+
+    @Test
+    public void testFailedFetchNotStored() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn(failedFuture(new UpstreamResponseException("Unexpected status 403 downloading LOGM")))
+                .doReturn(completedFuture(daily(from, to)))
+                .when(client).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+
+        try {
+            service.getHistoricalAssetData(ASSET, from, to);
+            fail("Expected the failed download to fail the request");
+        }
+        catch (UpstreamResponseException e) {
+            // The range is fetched again on the next request
+        }
+
+        assertTrue(store.read(ASSET.getSymbol()).isEmpty());
+        assertEquals(31, service.getHistoricalAssetData(ASSET, from, to).size());
+        verify(client, times(2)).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+    }
+
+    @Test
+    public void testUnknownSymbolNotStored() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn(failedFuture(new SymbolNotFoundException("No price data available for LOGM"))).when(client)
+                .fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+
+        assertEquals(0, service.getHistoricalAssetData(ASSET, from, to).size());
+        assertTrue(store.read(ASSET.getSymbol()).isEmpty());
+    }
+
+    @Test
+    public void testServeStoredPricesWhileUpstreamUnavailable() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn(completedFuture(daily(from, to))).when(client).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+        service.getHistoricalAssetData(ASSET, from, to);
+        doReturn(failedFuture(new UpstreamUnavailableException("Yahoo Finance is unavailable"))).when(client)
+                .fetchPriceAndDividendDataAsync(ASSET.getSymbol(), to.plusDays(1), to.plusDays(10));
+
+        PriceSeries stale = service.getHistoricalAssetData(ASSET, from.plusDays(20), to.plusDays(10));
+
+        assertEquals(11, stale.size());
+        assertEquals(to, stale.tradeDate(10));
+    }
+
+    @Test
+    public void testServeStoredPricesWhileYahooAnswersServerErrors() throws IOException {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        AtomicBoolean failing = new AtomicBoolean();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            StringBuilder csv = new StringBuilder(exchange.getRequestURI().getQuery().contains("events=div")
+                    ? "Date,Dividends\n" : "Date,Open,High,Low,Close,Adj Close,Volume\n");
+            if (!exchange.getRequestURI().getQuery().contains("events=div")) {
+                for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                    csv.append(date).append(",1,1,1,").append(date.getDayOfMonth()).append(",1,1\n");
+                }
+            }
+            byte[] body = csv.toString().getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(failing.get() ? 503 : 200, body.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(body);
+            }
+        });
+        server.start();
+        HttpHandler httpHandler = new HttpHandler(1, 2000, 100, 30, false, new SimpleMeterRegistry());
+        try {
+            YahooFinanceSession session = mock(YahooFinanceSession.class);
+            doReturn(completedFuture(null)).when(session).acquireCrumbWithTickerAsync(ASSET.getSymbol());
+            YahooFinanceClient yahoo = new YahooFinanceClient(httpHandler, new SimpleMeterRegistry(), executor,
+                    "http://localhost:" + server.getAddress().getPort(), YahooFinanceSession.DEFAULT_PROFILE_BASE_URL);
+            yahoo.setSession(session);
+            ChallengeService yahooService = new ChallengeService(yahoo, new ResidentPriceStore(true, 1 << 30, store, new SimpleMeterRegistry()),
+                    new PriceSeriesCache(0, Duration.ZERO, Clock.systemUTC()), peers, new ProjectionEngine(),
+                    new ProjectionCache(10), new AnalyticsEngine(), new PortfolioEngine(), executor,
+                    Clock.systemUTC());
+            assertEquals(31, yahooService.getHistoricalAssetData(ASSET, from, to).size());
+
+            // Far below the failure threshold of the circuit breaker
+            failing.set(true);
+            PriceSeries stale = yahooService.getHistoricalAssetData(ASSET, from.plusDays(20), to.plusDays(10));
+
+            assertEquals(11, stale.size());
+            assertEquals(to, stale.tradeDate(10));
+            assertEquals(to, store.read(ASSET.getSymbol()).getCoveredTo());
+        }
+        finally {
+            httpHandler.close();
+            server.stop(0);
+        }
+    }
+
+    @Test(expected = UpstreamUnavailableException.class)
+    public void testFailWhileUpstreamUnavailableWithoutStoredPrices() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn(failedFuture(new UpstreamUnavailableException("Yahoo Finance is unavailable"))).when(client)
+                .fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+
+        service.getHistoricalAssetData(ASSET, from, to);
+    }
+
+    @Test
+    public void testGetHistoricalAssetDataFromOwner() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn("http://peer").when(peers).ownerOf(ASSET.getSymbol());
+        doReturn(completedFuture(daily(from, to))).when(peers).fetch("http://peer", ASSET.getSymbol(), from, to);
+
+        assertEquals(31, service.getHistoricalAssetData(ASSET, from, to).size());
+        verify(client, never()).fetchPriceAndDividendDataAsync(anyString(), any(LocalDate.class), any(LocalDate.class));
+
+        // The owner itself never asks another replica
+        doReturn(completedFuture(daily(from, to))).when(client).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+        assertEquals(31, service.getOwnedHistoricalAssetDataAsync(ASSET, from, to).join().size());
+        verify(peers, times(1)).fetch(anyString(), anyString(), any(LocalDate.class), any(LocalDate.class));
+    }
+
+    @Test
+    public void testFetchWithoutUnreachableOwner() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn("http://peer").when(peers).ownerOf(ASSET.getSymbol());
+        doReturn(failedFuture(new PeerUnavailableException("Connection refused"))).when(peers)
+                .fetch("http://peer", ASSET.getSymbol(), from, to);
+        doReturn(completedFuture(daily(from, to))).when(client).fetchPriceAndDividendDataAsync(ASSET.getSymbol(), from, to);
+
+        assertEquals(31, service.getHistoricalAssetData(ASSET, from, to).size());
+    }
+
+    @Test(expected = UpstreamUnavailableException.class)
+    public void testOwnerAnswerIsFinal() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        doReturn("http://peer").when(peers).ownerOf(ASSET.getSymbol());
+        doReturn(failedFuture(new UpstreamUnavailableException("Yahoo Finance is unavailable"))).when(peers)
+                .fetch("http://peer", ASSET.getSymbol(), from, to);
+
+        try {
+            service.getHistoricalAssetData(ASSET, from, to);
+        }
+        finally {
+            verify(client, never()).fetchPriceAndDividendDataAsync(anyString(), any(LocalDate.class), any(LocalDate.class));
+        }
+    }
+
+    @Test
+    public void testRejectInvalidAnalyticsWindowsBeforeFetching() {
+        try {
+            service.getAssetAnalyticsAsync(ASSET, null, null, new int[] {20, 1});
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            verifyZeroInteractions(client);
+        }
+    }
+}
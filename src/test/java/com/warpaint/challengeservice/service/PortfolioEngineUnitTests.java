@@ -0,0 +1,205 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PortfolioEngineUnitTests {
+
+    private static final LocalDate START = LocalDate.parse("2018-06-01");
+
+    private static final ProjectionParameters PARAMETERS = ProjectionParameters.builder()
+            .paths(20_000)
+            .horizonYears(5)
+            .lowerPercentile(5)
+            .upperPercentile(95)
+            .seed(42)
+            .build();
+
+    private final PortfolioEngine engine = new PortfolioEngine();
+
+    /**
+     * Random walk ending the day before the projections start
+     */
+    private static PriceSeries randomWalk(int days, long seed) {
+        return PriceSeriesFixtures.randomWalk(START.minusDays(days), days, 0, 0.01, seed);
+    }
+
+    @Test
+    public void testCovarianceMatchesNaiveComputation() {
+        SplittableRandom random = new SplittableRandom(3);
+        int assets = 150;
+        int length = 700;
+        double[][] centered = new double[assets][length];
+        for (int t = 0; t < length; t++) {
+            double market = random.nextDouble() - 0.5;
+            for (int i = 0; i < assets; i++) {
+                centered[i][t] = market + random.nextDouble() - 0.5;
+            }
+        }
+
+        double[][] covariance = PortfolioCalibration.covariance(centered);
+
+        for (int i = 0; i < assets; i += 7) {
+            for (int j = 0; j < assets; j += 5) {
+                double sum = 0;
+                for (int t = 0; t < length; t++) {
+                    sum += centered[i][t] * centered[j][t];
+                }
+                assertEquals(sum / (length - 1), covariance[i][j], 1e-12);
+                assertEquals(covariance[i][j], covariance[j][i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testCalibrationUsesCommonDays() {
+        PriceSeries first = randomWalk(100, 1);
+        PriceSeries second = randomWalk(100, 2).slice(10, 100);
+
+        PortfolioCalibration calibration = PortfolioCalibration.of(Arrays.asList(first, second));
+
+        assertEquals(first.tradeDate(99), calibration.getLastDate());
+        Calibration single = Calibration.of(first.slice(10, 100));
+        assertEquals(single.getDrift(), calibration.getDrift()[0], 1e-12);
+        assertEquals(single.getVolatility() * single.getVolatility(), calibration.getCovariance()[0][0], 1e-12);
+        assertNull(PortfolioCalibration.of(Arrays.asList(first.slice(0, 2), second)));
+    }
+
+    @Test
+    public void testCholeskyReconstructsMatrix() {
+        double[][] matrix = {
+                {4, 2, 0.4},
+                {2, 5, 1},
+                {0.4, 1, 3}
+        };
+
+        double[][] factor = PortfolioEngine.cholesky(matrix);
+
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double sum = 0;
+                for (int k = 0; k < 3; k++) {
+                    sum += factor[i][k] * factor[j][k];
+                }
+                assertEquals(matrix[i][j], sum, 1e-12);
+                if (j > i) {
+                    assertEquals(0, factor[i][j], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCholeskyOfSemiDefiniteMatrix() {
+        // The second asset duplicates the first
+        double[][] matrix = {
+                {1, 1, 0.5},
+                {1, 1, 0.5},
+                {0.5, 0.5, 2}
+        };
+
+        double[][] factor = PortfolioEngine.cholesky(matrix);
+
+        assertEquals(0, factor[1][1], 0);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double sum = 0;
+                for (int k = 0; k < 3; k++) {
+                    sum += factor[i][k] * factor[j][k];
+                }
+                assertEquals(matrix[i][j], sum, 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testSingleAssetMatchesLogNormalDistribution() {
+        double drift = 0.0003;
+        double volatility = 0.01;
+        PortfolioCalibration calibration = new PortfolioCalibration(START, new double[] {drift},
+                new double[][] {{volatility * volatility}});
+
+        PriceSeries projection = engine.simulate(calibration, new double[] {100}, PARAMETERS);
+
+        int last = projection.size() - 1;
+        double days = 5 * ProjectionEngine.TRADING_DAYS_PER_YEAR;
+        double expectedMedian = 100 * Math.exp(drift * days);
+        double expectedUpper = 100 * Math.exp(drift * days + 1.6449 * volatility * Math.sqrt(days));
+        assertEquals(60, projection.size());
+        assertEquals(START.plusMonths(1), projection.tradeDate(0));
+        assertEquals(expectedMedian, projection.closeAsDouble(last), expectedMedian * 0.02);
+        assertEquals(expectedUpper, projection.high(last) / 1e6, expectedUpper * 0.02);
+    }
+
+    @Test
+    public void testCorrelationWidensTheBands() {
+        double variance = 0.0001;
+        double[] drift = {0, 0};
+        double[] weights = {50, 50};
+        PortfolioCalibration independent = new PortfolioCalibration(START, drift,
+                new double[][] {{variance, 0}, {0, variance}});
+        PortfolioCalibration correlated = new PortfolioCalibration(START, drift,
+                new double[][] {{variance, variance}, {variance, variance}});
+
+        PriceSeries diversified = engine.simulate(independent, weights, PARAMETERS);
+        PriceSeries concentrated = engine.simulate(correlated, weights, PARAMETERS);
+        PriceSeries single = engine.simulate(new PortfolioCalibration(START, new double[] {0},
+                new double[][] {{variance}}), new double[] {100}, PARAMETERS);
+
+        int last = diversified.size() - 1;
+        double diversifiedWidth = diversified.high(last) - diversified.low(last);
+        double concentratedWidth = concentrated.high(last) - concentrated.low(last);
+        assertTrue(diversifiedWidth < concentratedWidth * 0.8);
+        // Perfectly correlated assets with equal parameters behave like a single asset
+        assertEquals(single.high(last), concentrated.high(last), single.high(last) * 0.02);
+        assertEquals(single.low(last), concentrated.low(last), single.low(last) * 0.02);
+    }
+
+    @Test
+    public void testProjectionIsDeterministicForASeed() {
+        List<PriceSeries> histories = new ArrayList<>();
+        double[] weights = new double[80];
+        for (int asset = 0; asset < weights.length; asset++) {
+            histories.add(randomWalk(300, asset));
+            weights[asset] = asset + 1;
+        }
+        ProjectionParameters parameters = PARAMETERS.toBuilder().paths(1000).build();
+
+        PriceSeries first = engine.project(histories, weights, parameters);
+        PriceSeries second = engine.project(histories, weights, parameters);
+
+        assertNotNull(first);
+        assertEquals(60, first.size());
+        assertEquals(START.minusDays(1).plusMonths(1), first.tradeDate(0));
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.close(i), second.close(i));
+            assertEquals(first.low(i), second.low(i));
+            assertEquals(first.high(i), second.high(i));
+            assertTrue(first.low(i) <= first.close(i) && first.close(i) <= first.high(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveWeight() {
+        PortfolioEngine.validate(new double[] {10, 0}, PARAMETERS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTooManyPaths() {
+        double[] weights = new double[500];
+        Arrays.fill(weights, 1);
+        PortfolioEngine.validate(weights, PARAMETERS.toBuilder().paths(100_000).build());
+    }
+}
@@ -0,0 +1,157 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PriceSeriesCacheUnitTests {
+
+    private static final LocalDate FROM = LocalDate.parse("2017-01-01");
+    private static final LocalDate TO = LocalDate.parse("2017-01-31");
+
+    // Saturday, the market is closed until Monday
+    private static final Instant WEEKEND = Instant.parse("2018-06-02T12:00:00Z");
+    // Wednesday 11:00 in New York
+    private static final Instant MARKET_OPEN = Instant.parse("2018-06-06T15:00:00Z");
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private CompletableFuture<PriceSeries> load(String symbol, LocalDate from, LocalDate to) {
+        loads.incrementAndGet();
+        PriceSeries.Builder builder = PriceSeries.builder();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            builder.add((int) date.toEpochDay(), 1, 1, 1, 1, PriceSeries.NONE);
+        }
+        return CompletableFuture.completedFuture(builder.build());
+    }
+
+    private static Clock clockAt(Instant instant) {
+        return Clock.fixed(instant, ZoneOffset.UTC);
+    }
+
+    @Test
+    public void testSubRangeIsServedFromCache() {
+        PriceSeriesCache cache = new PriceSeriesCache(1000, Duration.ofMinutes(1), clockAt(WEEKEND));
+
+        assertEquals(31, cache.get("LOGM", FROM, TO, this::load).join().size());
+        PriceSeries slice = cache.get("LOGM", FROM.plusDays(10), TO.minusDays(10), this::load).join();
+
+        assertEquals(11, slice.size());
+        assertEquals(FROM.plusDays(10), slice.tradeDate(0));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testWiderRangeExtendsCachedRange() {
+        PriceSeriesCache cache = new PriceSeriesCache(1000, Duration.ofMinutes(1), clockAt(WEEKEND));
+
+        cache.get("LOGM", FROM.plusDays(10), TO, this::load).join();
+        assertEquals(31, cache.get("LOGM", FROM, TO, this::load).join().size());
+        assertEquals(26, cache.get("LOGM", FROM.plusDays(5), TO, this::load).join().size());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testEntriesExpireDuringMarketHours() {
+        PriceSeriesCache cache = new PriceSeriesCache(1000, Duration.ZERO, clockAt(MARKET_OPEN));
+
+        cache.get("LOGM", FROM, TO, this::load).join();
+        cache.get("LOGM", FROM, TO, this::load).join();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        PriceSeriesCache cache = new PriceSeriesCache(70, Duration.ofMinutes(1), clockAt(WEEKEND));
+
+        cache.get("A", FROM, TO, this::load).join();
+        cache.get("B", FROM, TO, this::load).join();
+        cache.get("A", FROM, TO, this::load).join();
+        cache.get("C", FROM, TO, this::load).join(); // evicts B
+        assertEquals(62, cache.getCachedRows());
+
+        cache.get("A", FROM, TO, this::load).join();
+        assertEquals(3, loads.get());
+        cache.get("B", FROM, TO, this::load).join();
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        PriceSeriesCache cache = new PriceSeriesCache(1000, Duration.ofMinutes(1), clockAt(WEEKEND));
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PriceSeriesCache.Loader slowLoader = (symbol, from, to) -> {
+            loading.countDown();
+            try {
+                assertTrue(release.await(5, TimeUnit.SECONDS));
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return load(symbol, from, to);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<PriceSeries>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("LOGM", FROM, TO, slowLoader).join()));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 7; i++) {
+                results.add(executor.submit(() -> cache.get("LOGM", FROM.plusDays(1), TO, slowLoader).join()));
+            }
+            release.countDown();
+
+            for (Future<PriceSeries> result : results) {
+                assertFalse(result.get(5, TimeUnit.SECONDS).isEmpty());
+            }
+            assertEquals(1, loads.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInvalidateDuringLoad() throws Exception {
+        PriceSeriesCache cache = new PriceSeriesCache(1000, Duration.ofMinutes(1), clockAt(WEEKEND));
+        CompletableFuture<PriceSeries> loading = new CompletableFuture<>();
+
+        CompletableFuture<PriceSeries> first = cache.get("LOGM", FROM, TO, (symbol, from, to) -> loading);
+        cache.invalidate("LOGM");
+        loading.complete(load("LOGM", FROM, TO).join());
+
+        // The waiter is served, the stale entry is not cached
+        assertEquals(31, first.get(5, TimeUnit.SECONDS).size());
+        assertEquals(0, cache.getCachedRows());
+        cache.get("LOGM", FROM, TO, this::load).join();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testMarketHours() {
+        assertFalse(MarketHours.isOpen(WEEKEND));
+        assertTrue(MarketHours.isOpen(MARKET_OPEN));
+        assertEquals(Instant.parse("2018-06-04T13:30:00Z"), MarketHours.nextOpen(WEEKEND));
+        assertEquals(Instant.parse("2018-06-07T13:30:00Z"), MarketHours.nextOpen(MARKET_OPEN));
+    }
+}
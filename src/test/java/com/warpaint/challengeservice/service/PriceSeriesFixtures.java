@@ -0,0 +1,31 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+/**
+ * Histories shared by the engine tests
+ */
+final class PriceSeriesFixtures {
+
+    private PriceSeriesFixtures() {
+    }
+
+    /**
+     * Daily closes from 100 on, starting at {@code start}, each moving by {@code drift} plus a uniform log return
+     * of at most {@code volatility}
+     */
+    static PriceSeries randomWalk(LocalDate start, int days, double drift, double volatility, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        PriceSeries.Builder builder = PriceSeries.builder(days);
+        double close = 100;
+        for (int i = 0; i < days; i++) {
+            close *= Math.exp(drift + volatility * (random.nextDouble() * 2 - 1));
+            long fixed = Math.round(close * 1_000_000);
+            builder.add((int) start.plusDays(i).toEpochDay(), fixed, fixed, fixed, fixed, PriceSeries.NONE);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,91 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProjectionCacheUnitTests {
+
+    private static final LocalDate START = LocalDate.parse("2018-01-01");
+
+    private static final ProjectionParameters PARAMETERS = ProjectionParameters.builder()
+            .paths(100)
+            .horizonYears(1)
+            .lowerPercentile(5)
+            .upperPercentile(95)
+            .seed(1)
+            .build();
+
+    private final AtomicInteger simulations = new AtomicInteger();
+
+    private final ProjectionEngine engine = new ProjectionEngine();
+
+    private PriceSeries simulate(LocalDate startDate, double startPrice, Calibration calibration, ProjectionParameters parameters) {
+        simulations.incrementAndGet();
+        return engine.simulate(startDate, startPrice, calibration, parameters);
+    }
+
+    private static PriceSeries history(int days, long lastClose) {
+        PriceSeries.Builder builder = PriceSeries.builder();
+        for (int day = 0; day < days; day++) {
+            long close = (day == days - 1) ? lastClose : (100 + day % 3) * 1_000_000L;
+            builder.add((int) START.plusDays(day).toEpochDay(), close, close, close, close, PriceSeries.NONE);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testSameDataIsProjectedOnce() {
+        ProjectionCache cache = new ProjectionCache(10);
+
+        PriceSeries first = cache.get("LOGM", history(100, 101_000_000L), PARAMETERS, this::simulate);
+        PriceSeries second = cache.get("LOGM", history(100, 101_000_000L), PARAMETERS, this::simulate);
+
+        assertSame(first, second);
+        assertEquals(1, simulations.get());
+        assertEquals(12, first.size());
+    }
+
+    @Test
+    public void testChangedDataOrParametersProjectAgain() {
+        ProjectionCache cache = new ProjectionCache(10);
+
+        cache.get("LOGM", history(100, 101_000_000L), PARAMETERS, this::simulate);
+        cache.get("LOGM", history(100, 102_000_000L), PARAMETERS, this::simulate);
+        cache.get("LOGM", history(101, 102_000_000L), PARAMETERS, this::simulate);
+        cache.get("LOGM", history(101, 102_000_000L), PARAMETERS.toBuilder().seed(2).build(), this::simulate);
+        cache.get("AAPL", history(101, 102_000_000L), PARAMETERS, this::simulate);
+
+        assertEquals(5, simulations.get());
+    }
+
+    @Test
+    public void testCalibrationsAreEvicted() {
+        ProjectionCache cache = new ProjectionCache(2);
+
+        cache.get("A", history(100, 101_000_000L), PARAMETERS, this::simulate);
+        cache.get("B", history(100, 101_000_000L), PARAMETERS, this::simulate);
+        cache.get("C", history(1, 101_000_000L), PARAMETERS, this::simulate);
+        assertEquals(2, cache.getCalibrationCount());
+
+        // The calibration of A starts again and does not match the projection of the evicted one
+        cache.get("A", history(100, 102_000_000L), PARAMETERS, this::simulate);
+        assertEquals(2, cache.getCalibrationCount());
+        assertEquals(3, simulations.get());
+    }
+
+    @Test
+    public void testShortHistory() {
+        ProjectionCache cache = new ProjectionCache(10);
+
+        assertTrue(cache.get("LOGM", history(1, 101_000_000L), PARAMETERS, this::simulate).isEmpty());
+        assertEquals(0, simulations.get());
+    }
+}
@@ -0,0 +1,103 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import com.warpaint.challengeservice.model.ProjectionParameters;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProjectionEngineUnitTests {
+
+    private static final LocalDate START = LocalDate.parse("2018-06-01");
+
+    private static final ProjectionParameters PARAMETERS = ProjectionParameters.builder()
+            .paths(20_000)
+            .horizonYears(5)
+            .lowerPercentile(5)
+            .upperPercentile(95)
+            .seed(42)
+            .build();
+
+    private final ProjectionEngine engine = new ProjectionEngine();
+
+    @Test
+    public void testProjectionIsDeterministicForASeed() {
+        Calibration calibration = new Calibration(0.0003, 0.01);
+
+        PriceSeries first = engine.simulate(START, 100, calibration, PARAMETERS);
+        PriceSeries second = engine.simulate(START, 100, calibration, PARAMETERS);
+        PriceSeries otherSeed = engine.simulate(START, 100, calibration, PARAMETERS.toBuilder().seed(43).build());
+
+        assertEquals(60, first.size());
+        assertEquals(START.plusMonths(1), first.tradeDate(0));
+        assertEquals(START.plusYears(5), first.tradeDate(59));
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.close(i), second.close(i));
+            assertEquals(first.low(i), second.low(i));
+            assertEquals(first.high(i), second.high(i));
+        }
+        assertNotEquals(first.close(59), otherSeed.close(59));
+    }
+
+    @Test
+    public void testProjectionMatchesLogNormalDistribution() {
+        double drift = 0.0003;
+        double volatility = 0.01;
+        PriceSeries projection = engine.simulate(START, 100, new Calibration(drift, volatility), PARAMETERS);
+
+        int last = projection.size() - 1;
+        double days = 5 * ProjectionEngine.TRADING_DAYS_PER_YEAR;
+        double expectedMedian = 100 * Math.exp(drift * days);
+        double expectedUpper = 100 * Math.exp(drift * days + 1.6449 * volatility * Math.sqrt(days));
+        double expectedLower = 100 * Math.exp(drift * days - 1.6449 * volatility * Math.sqrt(days));
+
+        assertEquals(expectedMedian, projection.closeAsDouble(last), expectedMedian * 0.02);
+        assertEquals(expectedUpper, projection.high(last) / 1e6, expectedUpper * 0.02);
+        assertEquals(expectedLower, projection.low(last) / 1e6, expectedLower * 0.02);
+        for (int i = 0; i < projection.size(); i++) {
+            assertTrue(projection.low(i) <= projection.close(i));
+            assertTrue(projection.close(i) <= projection.high(i));
+        }
+    }
+
+    @Test
+    public void testProjectFromHistory() {
+        PriceSeries.Builder history = PriceSeries.builder();
+        for (int day = 0; day < 500; day++) {
+            long close = (day % 2 == 0 ? 100 : 101) * 1_000_000L;
+            history.add((int) START.minusDays(499 - day).toEpochDay(), close, close, close, close, PriceSeries.NONE);
+        }
+
+        PriceSeries projection = engine.project(history.build(), PARAMETERS);
+
+        assertEquals(60, projection.size());
+        assertEquals(START.plusMonths(1), projection.tradeDate(0));
+        assertTrue(engine.project(PriceSeries.empty(), PARAMETERS).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentiles() {
+        engine.project(PriceSeries.empty(), PARAMETERS.toBuilder().lowerPercentile(60).build());
+    }
+
+    @Test
+    public void testSelect() {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int n = 1; n < 200; n += 7) {
+            double[] values = random.doubles(n).map(v -> Math.floor(v * 20)).toArray();
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int k = random.nextInt(n);
+            assertEquals(sorted[k], ProjectionEngine.select(values, 0, n - 1, k), 0);
+            for (int i = 0; i < n; i++) {
+                assertTrue(i <= k ? values[i] <= values[k] : values[i] >= values[k]);
+            }
+        }
+    }
+}
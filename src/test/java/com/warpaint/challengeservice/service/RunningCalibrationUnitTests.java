@@ -0,0 +1,96 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RunningCalibrationUnitTests {
+
+    private static final int DAYS = 3000;
+    private static final int WINDOW = 500;
+
+    /** Random walk of closes, every tenth day without a close */
+    private static long[] closes(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] closes = new long[DAYS];
+        double price = 100;
+        for (int day = 0; day < DAYS; day++) {
+            price *= Math.exp(0.0002 + 0.015 * (random.nextDouble() - 0.5));
+            closes[day] = (day % 10 == 9) ? PriceSeries.NONE : Math.round(price * 1_000_000);
+        }
+        return closes;
+    }
+
+    private static PriceSeries window(long[] closes, int from, int to) {
+        PriceSeries.Builder builder = PriceSeries.builder();
+        for (int day = from; day <= to; day++) {
+            builder.add(17000 + day, PriceSeries.NONE, PriceSeries.NONE, PriceSeries.NONE, closes[day], PriceSeries.NONE);
+        }
+        return builder.build();
+    }
+
+    private static void assertCalibration(PriceSeries window, RunningCalibration running) {
+        Calibration expected = Calibration.of(window);
+        Calibration actual = running.calibration();
+        assertEquals(expected.getDrift(), actual.getDrift(), 1e-12);
+        assertEquals(expected.getVolatility(), actual.getVolatility(), 1e-12);
+    }
+
+    @Test
+    public void testSlidingWindowMatchesFullCalibration() {
+        long[] closes = closes(1);
+        RunningCalibration running = new RunningCalibration();
+        for (int to = WINDOW; to < DAYS; to++) {
+            PriceSeries window = window(closes, to - WINDOW, to);
+            running.update(window);
+            assertCalibration(window, running);
+        }
+        // The very last day has no close
+        assertEquals(17000 + DAYS - 2, running.lastDate().toEpochDay());
+    }
+
+    @Test
+    public void testProvisionalLastBar() {
+        long[] closes = closes(2);
+        RunningCalibration running = new RunningCalibration();
+        running.update(window(closes, 0, WINDOW));
+        long version = running.version();
+
+        closes[WINDOW] += 1_000_000;
+        PriceSeries updated = window(closes, 0, WINDOW);
+        assertTrue(running.update(updated));
+        assertCalibration(updated, running);
+        assertEquals(closes[WINDOW] / 1e6, running.lastClose(), 0);
+        assertEquals(version + 1, running.version());
+    }
+
+    @Test
+    public void testUnchangedHistoryKeepsVersion() {
+        long[] closes = closes(3);
+        RunningCalibration running = new RunningCalibration();
+        running.update(window(closes, 0, WINDOW));
+        long version = running.version();
+
+        assertFalse(running.update(window(closes, 0, WINDOW)));
+        assertEquals(version, running.version());
+    }
+
+    @Test
+    public void testRebuildOnOtherHistory() {
+        RunningCalibration running = new RunningCalibration();
+        running.update(window(closes(4), 0, WINDOW));
+
+        PriceSeries other = window(closes(5), 0, WINDOW);
+        assertTrue(running.update(other));
+        assertCalibration(other, running);
+
+        running.update(PriceSeries.empty());
+        assertNull(running.calibration());
+    }
+}
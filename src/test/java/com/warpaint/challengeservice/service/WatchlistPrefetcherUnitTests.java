@@ -0,0 +1,94 @@
+package com.warpaint.challengeservice.service;
+
+import com.warpaint.challengeservice.model.Asset;
+import com.warpaint.challengeservice.model.PriceSeries;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class WatchlistPrefetcherUnitTests {
+
+    @Mock
+    private ChallengeService challengeService;
+
+    private final PriceSeriesCache priceCache = new PriceSeriesCache(1000, Duration.ofMinutes(1), Clock.systemUTC());
+
+    private WatchlistPrefetcher prefetcher;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        prefetcher = new WatchlistPrefetcher(challengeService, priceCache, new String[]{"logm", " AAPL", "", "LOGM", "FAIL"}, 1000);
+        doReturn(CompletableFuture.completedFuture(PriceSeries.empty()))
+                .when(challengeService).getHistoricalAssetDataAsync(any(Asset.class), any(), any());
+        CompletableFuture<PriceSeries> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException("Failed GET"));
+        doReturn(failed).when(challengeService).getHistoricalAssetDataAsync(eq(new Asset("FAIL")), any(), any());
+    }
+
+    @After
+    public void close() {
+        prefetcher.close();
+    }
+
+    @Test
+    public void testOutOfServiceUntilWarm() {
+        assertEquals(Status.OUT_OF_SERVICE, prefetcher.health().getStatus());
+
+        prefetcher.warmUp().join();
+
+        Health health = prefetcher.health();
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals(3, health.getDetails().get("symbols"));
+        assertEquals(Collections.singletonList("FAIL"), health.getDetails().get("failed"));
+        verify(challengeService, times(1)).getHistoricalAssetDataAsync(new Asset("LOGM"), null, null);
+        verify(challengeService, times(1)).getHistoricalAssetDataAsync(new Asset("AAPL"), null, null);
+    }
+
+    @Test
+    public void testWarmUpWaitsForRunningRefresh() {
+        CompletableFuture<PriceSeries> loading = new CompletableFuture<>();
+        doReturn(loading).when(challengeService).getHistoricalAssetDataAsync(eq(new Asset("LOGM")), any(), any());
+
+        prefetcher.refresh();
+        CompletableFuture<Void> warmUp = prefetcher.warmUp();
+
+        assertFalse(warmUp.isDone());
+        assertEquals(Status.OUT_OF_SERVICE, prefetcher.health().getStatus());
+
+        loading.complete(PriceSeries.empty());
+        warmUp.join();
+        assertEquals(Status.UP, prefetcher.health().getStatus());
+        verify(challengeService, timeout(5000).times(1)).getHistoricalAssetDataAsync(new Asset("LOGM"), null, null);
+    }
+
+    @Test
+    public void testEmptyWatchlist() {
+        WatchlistPrefetcher empty = new WatchlistPrefetcher(challengeService, priceCache, new String[0], 1);
+        try {
+            empty.warmUp().join();
+            assertEquals(Status.UP, empty.health().getStatus());
+        }
+        finally {
+            empty.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.warpaint.challengeservice.store;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedSeriesUnitTests {
+
+    private static final LocalDate START = LocalDate.parse("1990-01-01");
+
+    /**
+     * Random walk on weekdays around 100.00 at the fixed-point scale, with a quarterly dividend
+     */
+    private static PriceSeries weekdays(LocalDate from, LocalDate to, long seed) {
+        Random random = new Random(seed);
+        PriceSeries.Builder builder = PriceSeries.builder();
+        long close = 100_000_000;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            if (date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) {
+                continue;
+            }
+            long open = close + (long) (random.nextGaussian() * 200_000);
+            close = Math.max(1_000_000, open + (long) (random.nextGaussian() * 1_000_000));
+            long high = Math.max(open, close) + (long) (Math.abs(random.nextGaussian()) * 300_000);
+            long low = Math.min(open, close) - (long) (Math.abs(random.nextGaussian()) * 300_000);
+            long dividend = (date.getDayOfMonth() == 15 && date.getMonthValue() % 3 == 0) ? 420_000 : PriceSeries.NONE;
+            builder.add((int) date.toEpochDay(), open, high, low, close, dividend);
+        }
+        return builder.build();
+    }
+
+    private static void assertSameRows(PriceSeries expected, PriceSeries actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.epochDay(i), actual.epochDay(i));
+            assertEquals(expected.open(i), actual.open(i));
+            assertEquals(expected.high(i), actual.high(i));
+            assertEquals(expected.low(i), actual.low(i));
+            assertEquals(expected.close(i), actual.close(i));
+            assertEquals(expected.dividend(i), actual.dividend(i));
+        }
+    }
+
+    @Test
+    public void testReadWholeSeries() {
+        LocalDate to = START.plusYears(5);
+        PriceSeries rows = weekdays(START, to, 1);
+
+        CompressedSeries series = CompressedSeries.of(rows, START, to);
+
+        assertEquals(rows.size(), series.size());
+        assertSameRows(rows, series.read(START, to));
+        assertTrue(series.covers(START, to));
+    }
+
+    @Test
+    public void testReadRangeAcrossBlocks() {
+        LocalDate to = START.plusYears(5);
+        PriceSeries rows = weekdays(START, to, 2);
+        CompressedSeries series = CompressedSeries.of(rows, START, to);
+
+        for (LocalDate from = START.minusDays(3); from.isBefore(to); from = from.plusDays(97)) {
+            LocalDate until = from.plusDays(400);
+            assertSameRows(rows.slice(from, until), series.read(from, until));
+        }
+        assertEquals(0, series.read(to.plusDays(1), to.plusDays(10)).size());
+        assertEquals(0, series.read(to, START).size());
+    }
+
+    @Test
+    public void testAppendMatchesEncodingAtOnce() {
+        LocalDate to = START.plusYears(3);
+        PriceSeries rows = weekdays(START, to, 3);
+
+        CompressedSeries appended = CompressedSeries.of(PriceSeries.empty(), START, START.minusDays(1));
+        for (int i = 0; i < rows.size(); i++) {
+            appended = appended.append(rows.slice(i, i + 1), LocalDate.ofEpochDay(rows.epochDay(i)));
+        }
+
+        CompressedSeries atOnce = CompressedSeries.of(rows, START, to);
+        assertEquals(atOnce.footprintBytes(), appended.footprintBytes());
+        assertSameRows(rows, appended.read(START, to));
+    }
+
+    @Test
+    public void testTailDoesNotKeepInputRows() {
+        LocalDate to = START.plusYears(2);
+        PriceSeries rows = weekdays(START, to, 10);
+
+        CompressedSeries series = CompressedSeries.of(rows, START, to);
+        CompressedSeries appended = series.append(weekdays(to.plusDays(1), to.plusDays(3), 11), to.plusDays(3));
+
+        for (CompressedSeries compressed : new CompressedSeries[] {series, appended}) {
+            PriceSeries tail = (PriceSeries) ReflectionTestUtils.getField(compressed, "tail");
+            assertTrue(tail.size() < CompressedSeries.BLOCK_ROWS);
+            assertEquals(tail.size(), ((int[]) ReflectionTestUtils.getField(tail, "epochDays")).length);
+            assertEquals(tail.size(), ((long[]) ReflectionTestUtils.getField(tail, "close")).length);
+        }
+        assertSameRows(rows, series.read(START, to));
+    }
+
+    @Test
+    public void testMergeAppendsFollowingRange() {
+        LocalDate middle = START.plusYears(2);
+        LocalDate to = START.plusYears(4);
+        PriceSeries rows = weekdays(START, to, 4);
+        CompressedSeries series = CompressedSeries.of(rows.slice(START, middle), START, middle);
+
+        // Overlapping range: only the rows after the covered range are appended
+        CompressedSeries merged = series.merge(rows.slice(middle.minusDays(30), to), middle.minusDays(30), to);
+
+        assertEquals(START, merged.getCoveredFrom());
+        assertEquals(to, merged.getCoveredTo());
+        assertSameRows(rows, merged.read(START, to));
+        assertSame(merged, merged.merge(rows, START.plusDays(10), to.minusDays(10)));
+    }
+
+    @Test
+    public void testMergeRewritesPrecedingRange() {
+        LocalDate middle = START.plusYears(2);
+        LocalDate to = START.plusYears(4);
+        PriceSeries rows = weekdays(START, to, 5);
+        CompressedSeries series = CompressedSeries.of(weekdays(middle, to, 6), middle, to);
+
+        CompressedSeries merged = series.merge(rows.slice(START, middle.plusDays(10)), START, middle.plusDays(10));
+
+        assertEquals(START, merged.getCoveredFrom());
+        assertEquals(to, merged.getCoveredTo());
+        // Fetched rows win in the overlapping range
+        assertSameRows(rows.slice(START, middle.plusDays(10)), merged.read(START, middle.plusDays(10)));
+        assertSameRows(weekdays(middle, to, 6).slice(middle.plusDays(11), to), merged.read(middle.plusDays(11), to));
+    }
+
+    @Test
+    public void testMergeReplacesDisjointRange() {
+        LocalDate to = START.plusYears(1);
+        CompressedSeries series = CompressedSeries.of(weekdays(START, to, 7), START, to);
+        PriceSeries later = weekdays(to.plusYears(1), to.plusYears(2), 8);
+
+        CompressedSeries merged = series.merge(later, to.plusYears(1), to.plusYears(2));
+
+        assertEquals(to.plusYears(1), merged.getCoveredFrom());
+        assertSameRows(later, merged.read(START, to.plusYears(2)));
+    }
+
+    @Test
+    public void testFootprintOfThirtyYears() {
+        LocalDate to = START.plusYears(30);
+        PriceSeries rows = weekdays(START, to, 9);
+
+        CompressedSeries series = CompressedSeries.of(rows, START, to);
+
+        // 44 bytes a row when stored, about a third of it resident for daily moves of a percent
+        long bytesPerRow = series.footprintBytes() / rows.size();
+        assertTrue("Bytes per row " + bytesPerRow, bytesPerRow <= 15);
+    }
+}
@@ -0,0 +1,26 @@
+package com.warpaint.challengeservice.store;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+
+import java.time.LocalDate;
+
+/**
+ * Histories shared by the store tests
+ */
+final class PriceSeriesFixtures {
+
+    private PriceSeriesFixtures() {
+    }
+
+    /**
+     * A bar every day between the two dates, both inclusive, all prices at {@code basePrice} plus the day of month
+     */
+    static PriceSeries daily(LocalDate from, LocalDate to, long basePrice) {
+        PriceSeries.Builder builder = PriceSeries.builder();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            long price = basePrice + date.getDayOfMonth();
+            builder.add((int) date.toEpochDay(), price, price, price, price, PriceSeries.NONE);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,99 @@
+package com.warpaint.challengeservice.store;
+
+import com.warpaint.challengeservice.model.PriceSeries;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+import static com.warpaint.challengeservice.store.PriceSeriesFixtures.daily;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PriceStoreUnitTests {
+
+    private static final String SYMBOL = "LOGM";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PriceStore store;
+
+    @Before
+    public void init() throws IOException {
+        store = new PriceStore(true, folder.newFolder().getAbsolutePath());
+    }
+
+    @Test
+    public void testReadMissingSymbol() {
+        assertTrue(store.read(SYMBOL).isEmpty());
+    }
+
+    @Test
+    public void testMergeAndRead() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-01-31");
+        store.merge(SYMBOL, daily(from, to, 100), from, to);
+
+        StoredPrices stored = store.read(SYMBOL);
+        assertEquals(from, stored.getCoveredFrom());
+        assertEquals(to, stored.getCoveredTo());
+        assertEquals(31, stored.getSeries().size());
+        assertEquals(131, stored.getSeries().close(30));
+        assertTrue(stored.covers(from.plusDays(3), to.minusDays(3)));
+        assertFalse(stored.covers(from, to.plusDays(1)));
+    }
+
+    @Test
+    public void testMergeAppendsFollowingRange() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        store.merge(SYMBOL, daily(from, from.plusDays(9), 100), from, from.plusDays(9));
+        // Overlapping range: only the rows after the stored range are appended
+        store.merge(SYMBOL, daily(from.plusDays(5), from.plusDays(19), 200), from.plusDays(5), from.plusDays(19));
+
+        StoredPrices stored = store.read(SYMBOL);
+        assertEquals(from, stored.getCoveredFrom());
+        assertEquals(from.plusDays(19), stored.getCoveredTo());
+        assertEquals(20, stored.getSeries().size());
+        assertEquals(110, stored.getSeries().close(9));
+        assertEquals(211, stored.getSeries().close(10));
+    }
+
+    @Test
+    public void testMergeRewritesPrecedingRange() {
+        LocalDate from = LocalDate.parse("2017-01-11");
+        store.merge(SYMBOL, daily(from, from.plusDays(9), 100), from, from.plusDays(9));
+        store.merge(SYMBOL, daily(from.minusDays(10), from.minusDays(1), 200), from.minusDays(10), from.minusDays(1));
+
+        StoredPrices stored = store.read(SYMBOL);
+        assertEquals(from.minusDays(10), stored.getCoveredFrom());
+        assertEquals(from.plusDays(9), stored.getCoveredTo());
+        assertEquals(20, stored.getSeries().size());
+        assertEquals(201, stored.getSeries().close(0));
+        assertEquals(111, stored.getSeries().close(10));
+    }
+
+    @Test
+    public void testMergeKeepsCoveredRangeWithoutBars() {
+        // 2017-01-07 and 2017-01-08 are a weekend without bars
+        LocalDate from = LocalDate.parse("2017-01-07");
+        LocalDate to = LocalDate.parse("2017-01-08");
+        store.merge(SYMBOL, PriceSeries.empty(), from, to);
+
+        StoredPrices stored = store.read(SYMBOL);
+        assertTrue(stored.covers(from, to));
+        assertTrue(stored.getSeries().isEmpty());
+    }
+
+    @Test
+    public void testDisabledStore() throws IOException {
+        PriceStore disabled = new PriceStore(false, folder.newFolder().getAbsolutePath());
+        LocalDate date = LocalDate.parse("2017-01-01");
+        disabled.merge(SYMBOL, daily(date, date, 100), date, date);
+        assertTrue(disabled.read(SYMBOL).isEmpty());
+    }
+}
@@ -0,0 +1,115 @@
+package com.warpaint.challengeservice.store;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+import static com.warpaint.challengeservice.store.PriceSeriesFixtures.daily;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResidentPriceStoreUnitTests {
+
+    private static final String SYMBOL = "LOGM";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PriceStore priceStore;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private ResidentPriceStore store;
+
+    @Before
+    public void init() throws IOException {
+        priceStore = new PriceStore(true, folder.newFolder().getAbsolutePath());
+        meterRegistry = new SimpleMeterRegistry();
+        store = new ResidentPriceStore(true, 1 << 30, priceStore, meterRegistry);
+    }
+
+    @Test
+    public void testMissingSymbolNotResident() {
+        StoredPrices stored = store.read(SYMBOL, LocalDate.parse("2017-01-01"), LocalDate.parse("2017-12-31"));
+
+        assertTrue(stored.isEmpty());
+        assertEquals(0, meterRegistry.get(ResidentPriceStore.SYMBOLS).gauge().value(), 0);
+    }
+
+    @Test
+    public void testReadLoadsStoredHistory() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-12-31");
+        priceStore.merge(SYMBOL, daily(from, to, 100), from, to);
+
+        StoredPrices stored = store.read(SYMBOL.toLowerCase(), from.plusDays(10), from.plusDays(19));
+
+        assertEquals(from, stored.getCoveredFrom());
+        assertEquals(to, stored.getCoveredTo());
+        assertEquals(10, stored.getSeries().size());
+        assertEquals(111, stored.getSeries().close(0));
+        assertEquals(1, meterRegistry.get(ResidentPriceStore.SYMBOLS).gauge().value(), 0);
+        assertEquals(365, meterRegistry.get(ResidentPriceStore.ROWS).gauge().value(), 0);
+        assertTrue(store.footprintBytes() > 0);
+    }
+
+    @Test
+    public void testMergeWritesThrough() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        store.merge(SYMBOL, daily(from, from.plusDays(9), 100), from, from.plusDays(9));
+        store.merge(SYMBOL, daily(from.plusDays(5), from.plusDays(19), 200), from.plusDays(5), from.plusDays(19));
+
+        StoredPrices resident = store.read(SYMBOL, from, from.plusDays(19));
+        assertEquals(from.plusDays(19), resident.getCoveredTo());
+        assertEquals(20, resident.getSeries().size());
+        assertEquals(110, resident.getSeries().close(9));
+        assertEquals(211, resident.getSeries().close(10));
+
+        StoredPrices stored = priceStore.read(SYMBOL);
+        assertEquals(from.plusDays(19), stored.getCoveredTo());
+        assertEquals(20, stored.getSeries().size());
+    }
+
+    @Test
+    public void testLeastRecentlyReadSymbolsEvicted() {
+        LocalDate from = LocalDate.parse("2017-01-01");
+        LocalDate to = LocalDate.parse("2017-12-31");
+        for (String symbol : new String[] {"AAPL", "MSFT", "LOGM"}) {
+            priceStore.merge(symbol, daily(from, to, 100), from, to);
+        }
+        store.read("AAPL", from, to);
+        long footprint = store.footprintBytes();
+        store = new ResidentPriceStore(true, 2 * footprint, priceStore, meterRegistry = new SimpleMeterRegistry());
+
+        store.read("AAPL", from, to);
+        store.read("MSFT", from, to);
+        store.read("AAPL", from, to);
+        store.read("LOGM", from, to);
+
+        assertEquals(2, meterRegistry.get(ResidentPriceStore.SYMBOLS).gauge().value(), 0);
+        assertEquals(2 * footprint, store.footprintBytes());
+        // Extended behind the resident store: the evicted symbol is loaded again, the resident one is not
+        LocalDate later = to.plusDays(10);
+        priceStore.merge("MSFT", daily(to.plusDays(1), later, 100), to.plusDays(1), later);
+        priceStore.merge("AAPL", daily(to.plusDays(1), later, 100), to.plusDays(1), later);
+        assertEquals(to, store.read("AAPL", from, later).getCoveredTo());
+        assertEquals(later, store.read("MSFT", from, later).getCoveredTo());
+    }
+
+    @Test
+    public void testResidentWithoutPriceStore() throws IOException {
+        store = new ResidentPriceStore(true, 1 << 30, new PriceStore(false, folder.newFolder().getAbsolutePath()),
+                new SimpleMeterRegistry());
+        LocalDate from = LocalDate.parse("2017-01-01");
+        store.merge(SYMBOL, daily(from, from.plusDays(9), 100), from, from.plusDays(9));
+
+        StoredPrices stored = store.read(SYMBOL, from, from.plusDays(9));
+        assertTrue(stored.covers(from, from.plusDays(9)));
+        assertEquals(10, stored.getSeries().size());
+    }
+}